@@ -0,0 +1,101 @@
+package datathread.metastore;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import datathread.grammar.Element;
+import datathread.grammar.Elements;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the JSON I/O of the metastore backends before and after JsonCodec.
+ *
+ * Run with the GC profiler to see the bytes allocated per operation (gc.alloc.rate.norm):
+ *
+ *     gradle jmh
+ *
+ * The legacy benchmarks reproduce the previous code paths: FileMetastore read all bytes, copied them into a String
+ * and parsed it, FileStore did the same with a new ObjectMapper per read, and writes serialized to a String and
+ * then to a byte array.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonCodecBenchmark {
+    /**
+     * Length of the element name, to compare a tiny document with a large one.
+     */
+    @Param({"16", "4096"})
+    public int nameLength;
+
+    private ObjectMapper mapper;
+    private JsonCodec codec;
+    private Path file;
+    private Element element;
+
+    @Setup
+    public void setUp() throws IOException {
+        mapper = new ObjectMapper();
+        Elements.configureObjectMapper(mapper);
+        codec = new JsonCodec(mapper);
+
+        element = new Element();
+        element.setId("element:/person:age");
+        element.setName("A".repeat(nameLength));
+
+        file = Files.createTempFile("benchmark", ".element.json");
+        Files.write(file, mapper.writeValueAsBytes(element));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public Element legacyRead() throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        String json = new String(bytes);
+        return mapper.readValue(json, Element.class);
+    }
+
+    @Benchmark
+    public Element legacyFileStoreRead() throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        String json = new String(bytes);
+        return new ObjectMapper().readValue(json, Element.class);
+    }
+
+    @Benchmark
+    public Element codecRead() throws IOException {
+        return codec.read(file, Element.class).orElseThrow();
+    }
+
+    @Benchmark
+    public byte[] legacyWrite() throws IOException {
+        return mapper.writeValueAsString(element).getBytes();
+    }
+
+    @Benchmark
+    public ByteBuffer codecWrite() throws IOException {
+        return codec.write(element);
+    }
+}
@@ -5,6 +5,7 @@ import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -48,6 +49,22 @@ public class Identifier {
         return Identifier.toString(this);
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Identifier)) return false;
+
+        Identifier other = (Identifier) o;
+        return Objects.equals(this.scheme, other.scheme)
+                && Arrays.equals(this.domain, other.domain)
+                && Objects.equals(this.name, other.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Objects.hash(this.scheme, this.name) + Arrays.hashCode(this.domain);
+    }
+
     public static String toString(Identifier id) {
         String scheme = id.scheme();
         String domain = String.join("/", id.domain());
@@ -27,21 +27,25 @@ public class JavaEmitter {
     public TypeSpec handleDataset(Dataset dataset) {
         String name = JavaUtils.escapeToJava(dataset.getName());
 
+        // Resolve the Elements of all fields in one batch
+        List<Identifier> elementIds = dataset.getFields().stream()
+                .flatMap(field -> Identifier.from(field.getElement().toString()).stream())
+                .collect(Collectors.toList());
+        Map<Identifier, Element> elements = context.readMany(elementIds, Element.class);
+
         // Member fields
         List<FieldSpec> fields =
             dataset.getFields().stream()
-                .map(field -> handleField(field))
+                .map(field -> handleField(field, elements))
                 .collect(Collectors.toList());
 
         // Constructor
         MethodSpec.Builder constructorBuilder = MethodSpec.constructorBuilder()
             .addModifiers(Modifier.PUBLIC);
-        dataset.getFields().stream()
-                .map(field -> handleField(field))
-                .forEach(field -> {
-                    constructorBuilder.addParameter(field.type, field.name);
-                    constructorBuilder.addStatement("this.$N = $N", field.name, field.name);
-                });
+        fields.forEach(field -> {
+            constructorBuilder.addParameter(field.type, field.name);
+            constructorBuilder.addStatement("this.$N = $N", field.name, field.name);
+        });
         MethodSpec constructor = constructorBuilder.build();
 
         // Annotation
@@ -61,14 +65,26 @@ public class JavaEmitter {
     }
 
     public FieldSpec handleField(Field field) {
-        String name = field.getName();
-
         // Get the Element from the Field
         Optional<Element> element =
             Identifier.from(field.getElement().toString())
                 .flatMap(id -> context.read(id, Element.class))
                 .map(Element.class::cast); // Cast the Optional<Object> to Optional<Element>
 
+        return handleField(field, element);
+    }
+
+    public FieldSpec handleField(Field field, Map<Identifier, Element> elements) {
+        Optional<Element> element =
+            Identifier.from(field.getElement().toString())
+                .map(elements::get);
+
+        return handleField(field, element);
+    }
+
+    protected FieldSpec handleField(Field field, Optional<Element> element) {
+        String name = field.getName();
+
         // Get the ElementType
 //        ClassName elementType = element
 //                .flatMap(e -> getElementType(e))
@@ -96,6 +112,7 @@ public class JavaEmitter {
 
         if( et == null ) {
             et = Identifier.from(element.getId().toString())
+                .filter(id -> context.exists(id, ElementType.class))
                 .flatMap(id -> context.read(id, ElementType.class))
                 .orElse(null);
             element.setElementType(et);
@@ -191,31 +208,31 @@ public TypeSpec handleElement(Element element) {
     }
 
     public static List<JavaFile> processElements(Metastore context, JavaEmitter emitter) {
-        List<JavaFile> elementFiles = context.readAll(Element.class).stream()
-                .map(element -> {
-                    Identifier elementId = Identifier.from(element.getId()).orElseThrow();
-
-                    // If the ElementType is not set, check if there's a manual override
-                    if(element.getElementType() == null) {
-                        ElementType elementType =
-                                context.read(elementId, ElementType.class)
-                                    .orElse(null);
-                        element.setElementType(elementType);
-                    }
-
-                    // Filter out any we don't have types for
-                    if(element.getElementType() != null) {
-                        String pkg = JavaUtils.idToFQN(elementId).packageName();
-                        TypeSpec java = emitter.handleElement(element);
-                        return JavaFile.builder(pkg, java).build();
-                    }
-
-                    return null;
-                })
-                .filter(item -> item != null)
-                .collect(Collectors.toList());
-
-        return elementFiles;
+        try (Stream<Element> elements = context.stream(Element.class)) {
+            return elements
+                    .map(element -> {
+                        Identifier elementId = Identifier.from(element.getId()).orElseThrow();
+
+                        // If the ElementType is not set, check if there's a manual override
+                        if(element.getElementType() == null && context.exists(elementId, ElementType.class)) {
+                            ElementType elementType =
+                                    context.read(elementId, ElementType.class)
+                                        .orElse(null);
+                            element.setElementType(elementType);
+                        }
+
+                        // Filter out any we don't have types for
+                        if(element.getElementType() != null) {
+                            String pkg = JavaUtils.idToFQN(elementId).packageName();
+                            TypeSpec java = emitter.handleElement(element);
+                            return JavaFile.builder(pkg, java).build();
+                        }
+
+                        return null;
+                    })
+                    .filter(item -> item != null)
+                    .collect(Collectors.toList());
+        }
     }
 
     public static List<JavaFile> processDatasets(Metastore context, JavaEmitter emitter) {
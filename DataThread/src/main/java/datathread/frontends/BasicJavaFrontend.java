@@ -119,19 +119,25 @@ public class BasicJavaFrontend {
      * @param metastore the Metastore to store the processed objects
      */
     public static void process(List<Class> classes, Metastore metastore) {
+        Map<Identifier, Object> batch = new LinkedHashMap<>();
+
         classes.forEach(clazz -> {
             Object o = processClass(clazz);
 
             if (o instanceof Element) {
                 Element element = (Element) o;
-                metastore.write(Identifier.from(element.getId()).get(), element);
+                batch.put(Identifier.from(element.getId()).get(), element);
                 System.out.println("BasicJavaFrontend.process: " + element.getId());
             } else if (o instanceof Dataset) {
                 Dataset dataset = (Dataset) o;
-                metastore.write(Identifier.from(dataset.getId()).get(), dataset);
+                batch.put(Identifier.from(dataset.getId()).get(), dataset);
                 System.out.println("BasicJavaFrontend.process: " + dataset.getId());
             }
         });
+
+        // Store everything in one batch
+        metastore.writeAll(batch)
+                .ifPresent(result -> System.out.println("BasicJavaFrontend.process: " + result));
     }
 
     /**
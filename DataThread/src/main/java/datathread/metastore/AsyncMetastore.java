@@ -0,0 +1,102 @@
+package datathread.metastore;
+
+import datathread.Identifier;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Asynchronous counterpart of the Metastore interface.
+ * Every operation returns immediately with a CompletableFuture, so callers that fan out to many lookups
+ * can overlap their I/O instead of waiting for each one in turn.
+ */
+public interface AsyncMetastore {
+    /**
+     * Reads an object of the specified type by its Identifier.
+     *
+     * @param id the Identifier of the object to be read
+     * @param tipe the class type of the object to be read
+     * @param <T> the type of the object to be read
+     * @return a future of an Optional containing the object if found, or an empty Optional if not found
+     */
+    public <T> CompletableFuture<Optional<T>> read(Identifier id, Class<T> tipe);
+
+    /**
+     * Checks whether an object of the specified type exists, without deserializing it.
+     * Implementations should override this with a cheap probe; the default reads the object.
+     *
+     * @param id the Identifier of the object
+     * @param tipe the class type of the object
+     * @return a future of true if the object exists, false otherwise
+     */
+    public default CompletableFuture<Boolean> exists(Identifier id, Class<?> tipe) {
+        return read(id, tipe).thenApply(Optional::isPresent);
+    }
+
+    /**
+     * Reads many objects of the specified type in one call.
+     *
+     * @param ids the Identifiers of the objects to be read
+     * @param tipe the class type of the objects to be read
+     * @param <T> the type of the objects to be read
+     * @return a future of a map from Identifier to object, in the iteration order of ids, containing only the objects found
+     */
+    public <T> CompletableFuture<Map<Identifier, T>> readMany(Collection<Identifier> ids, Class<T> tipe);
+
+    /**
+     * Reads all objects of the specified type.
+     *
+     * @param tipe the class type of the objects to be read
+     * @param <T> the type of the objects to be read
+     * @return a future of a list of all objects found
+     */
+    public <T> CompletableFuture<List<T>> readAll(Class<T> tipe);
+
+    /**
+     * Writes an object to the Metastore.
+     *
+     * @param id the Identifier of the object to be written
+     * @param data the object to be written
+     * @param <T> the type of the object to be written
+     * @return a future of an Optional containing a message indicating the result of the write operation
+     */
+    public <T> CompletableFuture<Optional<String>> write(Identifier id, T data);
+
+    /**
+     * Deletes an object by its Identifier.
+     *
+     * @param id the Identifier of the object to be deleted
+     * @return a future of an Optional containing the result of the delete operation, or an empty Optional if no deletion occurred
+     */
+    public CompletableFuture<Optional<String>> delete(Identifier id);
+
+    /**
+     * Creates an AsyncMetastore for a blocking Metastore, running its calls on the default executor.
+     *
+     * @param metastore the Metastore to adapt
+     * @return an AsyncMetastore backed by the given Metastore
+     */
+    public static AsyncMetastore of(Metastore metastore) {
+        return of(metastore, ExecutorAsyncMetastore.defaultExecutor());
+    }
+
+    /**
+     * Creates an AsyncMetastore for a blocking Metastore, running its calls on the given executor.
+     * Backends with a better asynchronous strategy than running each call on its own thread get their native implementation.
+     *
+     * @param metastore the Metastore to adapt
+     * @param executor the executor running the blocking calls
+     * @return an AsyncMetastore backed by the given Metastore
+     */
+    public static AsyncMetastore of(Metastore metastore, Executor executor) {
+        if (metastore instanceof FederatedMetastore) {
+            return new FederatedAsyncMetastore((FederatedMetastore) metastore, executor);
+        }
+
+        return new ExecutorAsyncMetastore(metastore, executor);
+    }
+}
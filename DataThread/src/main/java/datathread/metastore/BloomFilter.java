@@ -0,0 +1,182 @@
+package datathread.metastore;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Compact set of string keys that answers "definitely absent" or "possibly present", used by BloomFilterMetastore
+ * to skip lookups of objects a store does not have.
+ *
+ * The bits are sized for an expected number of keys and a false positive rate. Each key sets a few bits chosen by
+ * double hashing of a 64-bit hash, so adding and testing a key costs a handful of array accesses and no allocation
+ * beyond the key bytes. Keys cannot be removed. Adding and testing are lock-free and safe for concurrent use.
+ */
+class BloomFilter {
+    private final AtomicLongArray words;
+    private final long bitCount;
+    private final int hashCount;
+    private final long capacity;
+
+    /**
+     * Number of added keys that set at least one new bit, which approximates the number of distinct keys.
+     */
+    private final AtomicLong insertions;
+
+    private BloomFilter(long[] words, int hashCount, long capacity, long insertions) {
+        this.words = new AtomicLongArray(words);
+        this.bitCount = (long) words.length * Long.SIZE;
+        this.hashCount = hashCount;
+        this.capacity = capacity;
+        this.insertions = new AtomicLong(insertions);
+    }
+
+    /**
+     * Creates an empty filter.
+     *
+     * @param expectedInsertions the number of keys the filter is sized for
+     * @param falsePositiveRate the rate of false positives once the filter holds that many keys, between 0 and 1
+     * @return the filter
+     */
+    static BloomFilter create(long expectedInsertions, double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1: " + falsePositiveRate);
+        }
+
+        long capacity = Math.max(1, expectedInsertions);
+        long bits = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int wordCount = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (bits + Long.SIZE - 1) / Long.SIZE));
+        int hashCount = (int) Math.max(1, Math.round((double) wordCount * Long.SIZE / capacity * Math.log(2)));
+
+        return new BloomFilter(new long[wordCount], hashCount, capacity, 0);
+    }
+
+    /**
+     * Adds a key.
+     *
+     * @param key the key
+     */
+    void put(String key) {
+        long hash = hash(key);
+        long h1 = mix(hash);
+        long h2 = mix(hash + 0x9e3779b97f4a7c15L) | 1;
+        boolean changed = false;
+
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            long mask = 1L << bit;
+            int word = (int) (bit >>> 6);
+            if ((words.get(word) & mask) == 0) {
+                words.getAndAccumulate(word, mask, (current, set) -> current | set);
+                changed = true;
+            }
+        }
+
+        if (changed) {
+            insertions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Tests whether a key may have been added.
+     *
+     * @param key the key
+     * @return false if the key was definitely never added, true if it possibly was
+     */
+    boolean mightContain(String key) {
+        long hash = hash(key);
+        long h1 = mix(hash);
+        long h2 = mix(hash + 0x9e3779b97f4a7c15L) | 1;
+
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the approximate number of distinct keys added.
+     *
+     * @return the number of insertions
+     */
+    long insertions() {
+        return insertions.get();
+    }
+
+    /**
+     * Returns the number of keys the filter was sized for.
+     *
+     * @return the capacity
+     */
+    long capacity() {
+        return capacity;
+    }
+
+    /**
+     * Writes the filter, to be read back with readFrom.
+     *
+     * @param out the stream to write to
+     * @throws IOException if writing fails
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(hashCount);
+        out.writeLong(capacity);
+        out.writeLong(insertions.get());
+        out.writeInt(words.length());
+        for (int i = 0; i < words.length(); i++) {
+            out.writeLong(words.get(i));
+        }
+    }
+
+    /**
+     * Reads a filter written by writeTo.
+     *
+     * @param in the stream to read from
+     * @return the filter
+     * @throws IOException if reading fails or the data is not a filter
+     */
+    static BloomFilter readFrom(DataInputStream in) throws IOException {
+        int hashCount = in.readInt();
+        long capacity = in.readLong();
+        long insertions = in.readLong();
+        int wordCount = in.readInt();
+        if (hashCount <= 0 || wordCount <= 0) {
+            throw new IOException("Invalid Bloom filter header");
+        }
+
+        long[] words = new long[wordCount];
+        for (int i = 0; i < wordCount; i++) {
+            words[i] = in.readLong();
+        }
+        return new BloomFilter(words, hashCount, capacity, insertions);
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the UTF-8 bytes of a key.
+     */
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Finalizer of MurmurHash3, so that every bit of the hash depends on every bit of the input.
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb93fe53ec5b3L;
+        return hash ^ (hash >>> 33);
+    }
+}
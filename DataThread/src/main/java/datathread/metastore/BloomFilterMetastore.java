@@ -0,0 +1,578 @@
+package datathread.metastore;
+
+import datathread.Identifier;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Metastore decorator that keeps a Bloom filter of the Identifiers of its delegate, so that reads of objects the
+ * delegate does not have are answered from memory instead of probing the store.
+ *
+ * Features:
+ *
+ * 1. **Membership filter**: the filter holds the Identifier and type of every object of the filtered types, built
+ *    from the delegate's listIds, which uses its index or a scan. A type the delegate cannot list is not filtered.
+ *    read, readMany, exists and stat skip the delegate when the filter rules the object out, and mightContain
+ *    exposes the filter so that a FederatedMetastore skips this delegate altogether.
+ * 2. **Write-through**: a written object is added to the filter before it reaches the delegate, so a reader never
+ *    misses it.
+ * 3. **Deletes**: keys cannot be removed from a Bloom filter, so a deleted object stays a possible match, which only
+ *    costs a probe. Once the deletes exceed a quarter of the keys, or the keys exceed the capacity of the filter,
+ *    it is rebuilt in the background. Writes racing with the rebuild are added to both filters.
+ * 4. **Persistence**: the filter of a FileMetastore is saved to a file on close, with a fingerprint of the folders of
+ *    the store taken when the filter was built: their paths and modification times, which change whenever a file is
+ *    added or removed. On open, the saved filter is only used if it was built for the same types and the fingerprint
+ *    still matches, so files added while no process was running, e.g. by hand or by a git checkout, cause a rebuild.
+ *    Since writes change the fingerprint too, a store written to is rebuilt on its next open. The folder holding the
+ *    filter file is left out of the fingerprint, so the file should live outside the store or in a folder of its own.
+ *    The file is removed once loaded, so after a crash the filter is rebuilt rather than trusted stale.
+ * 5. **Change feed**: over a FileMetastore, the decorator watches the store, so files added by other processes while it
+ *    is open are added to the filter. Other change feeds can be connected to onChange.
+ *
+ * Filters of other delegates are not saved, and only follow the changes made through the decorator or reported to
+ * onChange until the next rebuild.
+ */
+public class BloomFilterMetastore implements Metastore, Closeable {
+    public static final long DEFAULT_EXPECTED_INSERTIONS = 100_000;
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+    /**
+     * Ratio of deletes to keys above which the filter is rebuilt.
+     */
+    static final double MAX_STALE_RATIO = 0.25;
+
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * Metastore the filter is kept for.
+     */
+    private final Metastore delegate;
+
+    /**
+     * File the filter is saved to, or null to always build it.
+     */
+    private final Path filterFile;
+
+    /**
+     * Types whose Identifiers are filtered, by name.
+     */
+    private final Map<String, Class<?>> types;
+
+    private final long expectedInsertions;
+    private final double falsePositiveRate;
+
+    /**
+     * Current filter, swapped whole by a rebuild.
+     */
+    private volatile Membership membership;
+
+    /**
+     * Filter being built, or null when no rebuild is running.
+     */
+    private volatile Membership rebuilding;
+
+    /**
+     * Deletes since the current filter was built.
+     */
+    private final AtomicLong deletes = new AtomicLong();
+
+    private final AtomicBoolean rebuildScheduled = new AtomicBoolean();
+
+    private final LongAdder skipped = new LongAdder();
+
+    /**
+     * Base directory of the delegate if it is a FileMetastore, or null if its filter cannot be checked or watched.
+     */
+    private final Path storeDir;
+
+    /**
+     * Fingerprint of the store taken when the current filter was built, or 0 if unknown.
+     */
+    private volatile long fingerprint;
+
+    /**
+     * Change feed of the store, or null if it is not watched.
+     */
+    private final FileWatcher watcher;
+
+    /**
+     * Constructor to initialize a BloomFilterMetastore with the default filter size and false positive rate.
+     *
+     * @param delegate the Metastore to filter
+     * @param filterFile the file the filter is saved to, or null to build it on every open
+     * @param types the types whose Identifiers are filtered
+     */
+    public BloomFilterMetastore(Metastore delegate, Path filterFile, Collection<Class<?>> types) {
+        this(delegate, filterFile, types, DEFAULT_EXPECTED_INSERTIONS, DEFAULT_FALSE_POSITIVE_RATE);
+    }
+
+    /**
+     * Constructor to initialize a BloomFilterMetastore, loading its filter from the file or building it.
+     *
+     * @param delegate the Metastore to filter
+     * @param filterFile the file the filter is saved to, or null to build it on every open
+     * @param types the types whose Identifiers are filtered
+     * @param expectedInsertions the number of objects the filter is sized for; it grows when rebuilt
+     * @param falsePositiveRate the rate of reads of missing objects that still go to the delegate, between 0 and 1
+     */
+    public BloomFilterMetastore(Metastore delegate, Path filterFile, Collection<Class<?>> types,
+                                long expectedInsertions, double falsePositiveRate) {
+        this.delegate = delegate;
+        this.filterFile = filterFile;
+        this.types = types.stream().collect(Collectors.toMap(Class::getName, tipe -> tipe, (a, b) -> a));
+        this.expectedInsertions = expectedInsertions;
+        this.falsePositiveRate = falsePositiveRate;
+        this.storeDir = delegate instanceof FileMetastore ? ((FileMetastore) delegate).baseDir : null;
+
+        // Watch before loading or building, so that no file added meanwhile is missed
+        this.watcher = storeDir == null ? null : startWatching((FileMetastore) delegate);
+
+        Membership loaded = load();
+        if (loaded != null) {
+            this.membership = loaded;
+        } else {
+            this.membership = new Membership(BloomFilter.create(expectedInsertions, falsePositiveRate), Collections.emptySet());
+            rebuild();
+        }
+    }
+
+    @Override
+    public boolean mightContain(Identifier id, Class<?> tipe) {
+        Membership current = membership;
+        boolean possible = !current.types.contains(tipe) || current.filter.mightContain(key(id, tipe));
+        if (!possible) {
+            skipped.increment();
+        }
+        return possible;
+    }
+
+    @Override
+    public <T> Optional<T> read(Identifier id, Class<T> tipe) {
+        return mightContain(id, tipe) ? delegate.read(id, tipe) : Optional.empty();
+    }
+
+    @Override
+    public <T> Map<Identifier, T> readMany(Collection<Identifier> ids, Class<T> tipe) {
+        List<Identifier> candidates = ids.stream()
+                .filter(id -> mightContain(id, tipe))
+                .collect(Collectors.toList());
+
+        return candidates.isEmpty() ? Collections.emptyMap() : delegate.readMany(candidates, tipe);
+    }
+
+    @Override
+    public boolean exists(Identifier id, Class<?> tipe) {
+        return mightContain(id, tipe) && delegate.exists(id, tipe);
+    }
+
+    @Override
+    public Optional<ObjectStat> stat(Identifier id, Class<?> tipe) {
+        return mightContain(id, tipe) ? delegate.stat(id, tipe) : Optional.empty();
+    }
+
+    @Override
+    public <T> List<T> readAll(Class<T> tipe) {
+        return delegate.readAll(tipe);
+    }
+
+    @Override
+    public <T> List<T> readAll(Class<T> tipe, String[] domainPrefix) {
+        return delegate.readAll(tipe, domainPrefix);
+    }
+
+    @Override
+    public Optional<List<Identifier>> listIds(Class<?> tipe, String[] domainPrefix) {
+        return delegate.listIds(tipe, domainPrefix);
+    }
+
+    @Override
+    public Optional<List<Identifier>> listIdsAfter(Class<?> tipe, Identifier after, int limit) {
+        return delegate.listIdsAfter(tipe, after, limit);
+    }
+
+    @Override
+    public <T> Stream<T> stream(Class<T> tipe) {
+        return delegate.stream(tipe);
+    }
+
+    @Override
+    public <T> Page<T> readPage(Class<T> tipe, int limit, String continuationToken) {
+        return delegate.readPage(tipe, limit, continuationToken);
+    }
+
+    @Override
+    public <T> Optional<String> write(Identifier id, T data) {
+        List<String> keys = data == null ? Collections.emptyList() : Collections.singletonList(key(id, data.getClass()));
+        keys.forEach(membership.filter::put);
+        try {
+            return delegate.write(id, data);
+        } finally {
+            added(keys);
+        }
+    }
+
+    @Override
+    public Optional<String> writeAll(Map<Identifier, ?> objects) {
+        List<String> keys = objects.entrySet().stream()
+                .filter(entry -> entry.getValue() != null)
+                .map(entry -> key(entry.getKey(), entry.getValue().getClass()))
+                .collect(Collectors.toList());
+        keys.forEach(membership.filter::put);
+        try {
+            return delegate.writeAll(objects);
+        } finally {
+            added(keys);
+        }
+    }
+
+    @Override
+    public Optional<String> delete(Identifier id) {
+        try {
+            return delegate.delete(id);
+        } finally {
+            deleted(1);
+        }
+    }
+
+    @Override
+    public Optional<String> deleteAll(Collection<Identifier> ids) {
+        try {
+            return delegate.deleteAll(ids);
+        } finally {
+            deleted(ids.size());
+        }
+    }
+
+    /**
+     * Rebuilds the filter from the Identifiers listed by the delegate, dropping the deleted ones.
+     * Reads keep using the current filter until the new one is complete.
+     */
+    public synchronized void rebuild() {
+        long capacity = Math.max(expectedInsertions, 2 * membership.filter.insertions());
+        Set<Class<?>> filtered = new HashSet<>();
+        Membership next = new Membership(BloomFilter.create(capacity, falsePositiveRate), Collections.unmodifiableSet(filtered));
+
+        rebuilding = next;
+        deletes.set(0);
+        // Taken before listing, so that any change the listing may have missed also changes the fingerprint
+        long listedAt = fingerprint();
+        try {
+            for (Class<?> tipe : types.values()) {
+                try {
+                    Optional<List<Identifier>> ids = delegate.listIds(tipe, new String[0]);
+                    if (ids.isPresent()) {
+                        ids.get().forEach(id -> next.filter.put(key(id, tipe)));
+                        filtered.add(tipe);
+                    }
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    System.err.println("Failed to list " + tipe.getName() + " for the Bloom filter, leaving it unfiltered");
+                }
+            }
+            membership = next;
+            fingerprint = listedAt;
+        } finally {
+            rebuilding = null;
+        }
+    }
+
+    /**
+     * Applies a change reported by a change feed of the delegate, such as FileMetastore.watch: created and modified
+     * objects are added to the filter, deletes count towards its staleness, and an overflow rebuilds it.
+     *
+     * @param event the change
+     */
+    public void onChange(MetastoreEvent event) {
+        if (membership == null) {
+            // Still opening: the filter is not there yet to add to, and a rebuild lists the change
+            scheduleRebuild();
+            return;
+        }
+
+        switch (event.kind()) {
+            case OVERFLOW:
+                scheduleRebuild();
+                break;
+            case DELETED:
+                deleted(1);
+                break;
+            default:
+                List<String> keys = types.values().stream()
+                        .filter(event::isOf)
+                        .map(tipe -> key(event.id, tipe))
+                        .collect(Collectors.toList());
+                added(keys);
+        }
+    }
+
+    /**
+     * Returns the number of lookups the filter answered without asking the delegate.
+     *
+     * @return the number of skipped lookups
+     */
+    public long skipped() {
+        return skipped.sum();
+    }
+
+    /**
+     * Stops watching the store and saves the filter, so that the next open loads it instead of building it if the
+     * store has not changed. The delegate is not closed.
+     */
+    @Override
+    public void close() {
+        if (watcher != null) {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (filterFile == null || storeDir == null || fingerprint == 0) {
+            return;
+        }
+
+        try {
+            save(membership);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Failed to save the Bloom filter to " + filterFile);
+        }
+    }
+
+    /**
+     * Adds written keys to the filter being rebuilt and to the current filter once the write is done. The rebuild
+     * may have listed the delegate before the write landed, and is read first so that a key cannot miss a filter
+     * swapped in meanwhile.
+     */
+    private void added(List<String> keys) {
+        Membership next = rebuilding;
+        if (next != null) {
+            keys.forEach(next.filter::put);
+        }
+
+        Membership current = membership;
+        keys.forEach(current.filter::put);
+        if (current.filter.insertions() > current.filter.capacity()) {
+            scheduleRebuild();
+        }
+    }
+
+    private void deleted(int count) {
+        Membership current = membership;
+        if (deletes.addAndGet(count) > MAX_STALE_RATIO * Math.max(1, current.filter.insertions())) {
+            scheduleRebuild();
+        }
+    }
+
+    private void scheduleRebuild() {
+        if (!rebuildScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        ExecutorAsyncMetastore.defaultExecutor().execute(() -> {
+            try {
+                rebuild();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                rebuildScheduled.set(false);
+            }
+        });
+    }
+
+    private FileWatcher startWatching(FileMetastore store) {
+        try {
+            return store.watch(this::onChange);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Failed to watch " + storeDir + ", files added by other processes are not seen until a rebuild");
+            return null;
+        }
+    }
+
+    /**
+     * Fingerprints the folders of the store from their paths and modification times, leaving out the index and the
+     * folder of the filter file. The combination does not depend on the order of the walk.
+     *
+     * @return the fingerprint, or 0 if the store is not a FileMetastore or cannot be walked
+     */
+    private long fingerprint() {
+        if (storeDir == null || !Files.isDirectory(storeDir)) {
+            return 0;
+        }
+
+        Path indexDir = storeDir.resolve(FileIndex.INDEX_FOLDER);
+        Path filterDir = filterFile == null ? null : filterFile.toAbsolutePath().normalize().getParent();
+        long[] sum = new long[2];
+        try {
+            Files.walkFileTree(storeDir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+                    if (dir.equals(indexDir)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    if (!dir.equals(filterDir)) {
+                        long hash = storeDir.relativize(dir).toString().hashCode() * 0x9e3779b97f4a7c15L
+                                + attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+                        sum[0] += hash ^ (hash >>> 29);
+                        sum[1]++;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+
+        long result = sum[0] * 31 + sum[1];
+        return result == 0 ? 1 : result;
+    }
+
+    private static String key(Identifier id, Class<?> tipe) {
+        return tipe.getName() + ":" + String.join(":", id.domain()) + ":" + id.name();
+    }
+
+    /**
+     * Loads the saved filter and removes the file, or returns null if there is none, it was built for other types or
+     * the store changed since it was built.
+     */
+    private Membership load() {
+        if (filterFile == null || storeDir == null || !Files.exists(filterFile)) {
+            return null;
+        }
+
+        try {
+            byte[] bytes = Files.readAllBytes(filterFile);
+            Files.delete(filterFile);
+            if (bytes.length < 8) {
+                return null;
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length - 8);
+            if (ByteBuffer.wrap(bytes, bytes.length - 8, 8).getLong() != crc.getValue()) {
+                System.err.println("Ignoring corrupt Bloom filter " + filterFile);
+                return null;
+            }
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 8)));
+            if (in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+
+            long saved = in.readLong();
+            long current = fingerprint();
+            if (saved == 0 || saved != current) {
+                return null;
+            }
+
+            Set<String> configured = new HashSet<>();
+            int configuredCount = in.readInt();
+            for (int i = 0; i < configuredCount; i++) {
+                configured.add(in.readUTF());
+            }
+            if (!configured.equals(types.keySet())) {
+                return null;
+            }
+
+            Set<Class<?>> filtered = new LinkedHashSet<>();
+            int filteredCount = in.readInt();
+            for (int i = 0; i < filteredCount; i++) {
+                filtered.add(types.get(in.readUTF()));
+            }
+
+            BloomFilter filter = BloomFilter.readFrom(in);
+            deletes.set(in.readLong());
+            fingerprint = current;
+            return new Membership(filter, Collections.unmodifiableSet(filtered));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Writes the filter to a temporary file and moves it over the filter file.
+     */
+    private void save(Membership current) throws IOException {
+        Path folder = filterFile.toAbsolutePath().getParent();
+        Files.createDirectories(folder);
+        Path tmp = GroupCommit.newTempFile(folder.resolve(filterFile.getFileName()));
+
+        try {
+            List<String> filtered = new ArrayList<>();
+            current.types.forEach(tipe -> filtered.add(tipe.getName()));
+
+            CRC32 crc = new CRC32();
+            try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)), crc))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(fingerprint);
+                out.writeInt(types.size());
+                for (String name : types.keySet()) {
+                    out.writeUTF(name);
+                }
+                out.writeInt(filtered.size());
+                for (String name : filtered) {
+                    out.writeUTF(name);
+                }
+                current.filter.writeTo(out);
+                out.writeLong(deletes.get());
+                out.flush();
+                out.writeLong(crc.getValue());
+            }
+
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(tmp, filterFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * A filter and the types it covers, swapped together so readers never pair a filter with the wrong types.
+     */
+    private static class Membership {
+        final BloomFilter filter;
+        final Set<Class<?>> types;
+
+        Membership(BloomFilter filter, Set<Class<?>> types) {
+            this.filter = filter;
+            this.types = types;
+        }
+    }
+}
@@ -0,0 +1,520 @@
+package datathread.metastore;
+
+import datathread.Identifier;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Metastore decorator that keeps recently read objects in memory, so that repeated reads of the same
+ * Identifier reuse the already deserialized object instead of going back to the delegate.
+ *
+ * Features:
+ *
+ * 1. **Bounded size**: the cache holds at most a maximum total weight. By default every entry weighs 1,
+ *    so the bound is an entry count; a weigher can be supplied to bound by approximate bytes instead.
+ * 2. **Frequency-aware eviction**: when full, a new entry is only admitted if it has been requested more often
+ *    recently than the least recently used entry it would replace (TinyLFU). One-off scans therefore do not
+ *    flush the hot working set.
+ * 3. **Per-type TTL**: entries of a type can expire a fixed time after they were loaded.
+ * 4. **Write-through invalidation**: write and delete go to the delegate and drop every cached object of the Identifier.
+ *    Changes made by others can be applied with invalidate or onChange, e.g. from FileMetastore.watch.
+ * 5. **Statistics**: hit, miss and eviction counters.
+ *
+ * It is safe for concurrent use. Loading from the delegate happens outside the lock, so slow reads do not block cache hits.
+ * Cached objects are shared between callers, so callers must not mutate them in ways that other readers would not expect.
+ */
+public class CachingMetastore implements Metastore {
+    /**
+     * Number of entries the frequency sketch starts with when entries are weighed, before it grows with the cache.
+     */
+    private static final long INITIAL_SKETCH_SIZE = 1024;
+
+    /**
+     * Metastore the objects are loaded from.
+     */
+    private final Metastore delegate;
+
+    /**
+     * Maximum total weight of the cached entries.
+     */
+    private final long maximumWeight;
+
+    /**
+     * Function giving the weight of a cached object.
+     */
+    private final ToLongFunction<Object> weigher;
+
+    /**
+     * Time to live of the entries of each type. Types without an entry never expire.
+     */
+    private final Map<Class<?>, Duration> timeToLive;
+
+    /**
+     * Source of the current time in nanoseconds.
+     */
+    private final LongSupplier ticker;
+
+    /**
+     * Cached entries in access order, guarded by this.
+     */
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Recent access frequencies, guarded by this.
+     */
+    private final FrequencySketch sketch;
+
+    /**
+     * Current total weight of the cached entries, guarded by this.
+     */
+    private long weight;
+
+    /**
+     * Incremented by every invalidation, so that loads racing with a write do not cache the old object.
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Constructor to initialize a CachingMetastore holding at most a number of entries that never expire.
+     *
+     * @param delegate the Metastore to cache
+     * @param maximumSize the maximum number of cached objects
+     */
+    public CachingMetastore(Metastore delegate, long maximumSize) {
+        this(delegate, maximumSize, null, null);
+    }
+
+    /**
+     * Constructor to initialize a CachingMetastore.
+     *
+     * @param delegate the Metastore to cache
+     * @param maximumWeight the maximum total weight of the cached objects
+     * @param weigher the function giving the weight of an object, or null to weigh every object as 1
+     * @param timeToLive the time to live of the objects of each type, or null if nothing expires
+     */
+    public CachingMetastore(Metastore delegate, long maximumWeight, ToLongFunction<Object> weigher, Map<Class<?>, Duration> timeToLive) {
+        this(delegate, maximumWeight, weigher, timeToLive, System::nanoTime);
+    }
+
+    CachingMetastore(Metastore delegate, long maximumWeight, ToLongFunction<Object> weigher, Map<Class<?>, Duration> timeToLive, LongSupplier ticker) {
+        if (maximumWeight <= 0) {
+            throw new IllegalArgumentException("Maximum weight must be positive: " + maximumWeight);
+        }
+
+        this.delegate = delegate;
+        this.maximumWeight = maximumWeight;
+        this.weigher = weigher == null ? obj -> 1L : weigher;
+        this.timeToLive = timeToLive == null ? Collections.emptyMap() : new HashMap<>(timeToLive);
+        this.ticker = ticker;
+        // The sketch must be sized by entry count; a byte weight bound says nothing about how many entries fit
+        this.sketch = new FrequencySketch(weigher == null ? maximumWeight : Math.min(maximumWeight, INITIAL_SKETCH_SIZE));
+    }
+
+    @Override
+    public <T> Optional<T> read(Identifier id, Class<T> tipe) {
+        Key key = new Key(id, tipe);
+        Object cached = lookup(key);
+
+        if (cached != null) {
+            hits.increment();
+            return Optional.of(tipe.cast(cached));
+        }
+
+        misses.increment();
+        long generation = invalidations.get();
+        Optional<T> result = delegate.read(id, tipe);
+        result.ifPresent(obj -> admit(key, obj, generation));
+
+        return result;
+    }
+
+    /**
+     * Reads many objects, serving what is cached and loading only the rest from the delegate in one batch.
+     */
+    @Override
+    public <T> Map<Identifier, T> readMany(Collection<Identifier> ids, Class<T> tipe) {
+        Map<Identifier, T> found = new HashMap<>();
+        List<Identifier> missing = new ArrayList<>();
+
+        for (Identifier id : ids) {
+            Object cached = lookup(new Key(id, tipe));
+
+            if (cached != null) {
+                hits.increment();
+                found.put(id, tipe.cast(cached));
+            } else if (!found.containsKey(id)) {
+                misses.increment();
+                missing.add(id);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            long generation = invalidations.get();
+            Map<Identifier, T> loaded = delegate.readMany(missing, tipe);
+
+            loaded.forEach((id, obj) -> admit(new Key(id, tipe), obj, generation));
+            found.putAll(loaded);
+        }
+
+        Map<Identifier, T> results = new LinkedHashMap<>();
+        ids.stream()
+                .filter(found::containsKey)
+                .forEach(id -> results.putIfAbsent(id, found.get(id)));
+
+        return results;
+    }
+
+    @Override
+    public boolean exists(Identifier id, Class<?> tipe) {
+        return isCached(new Key(id, tipe)) || delegate.exists(id, tipe);
+    }
+
+    @Override
+    public boolean mightContain(Identifier id, Class<?> tipe) {
+        return delegate.mightContain(id, tipe);
+    }
+
+    @Override
+    public Optional<ObjectStat> stat(Identifier id, Class<?> tipe) {
+        return delegate.stat(id, tipe);
+    }
+
+    @Override
+    public <T> List<T> readAll(Class<T> tipe) {
+        return delegate.readAll(tipe);
+    }
+
+    @Override
+    public <T> List<T> readAll(Class<T> tipe, String[] domainPrefix) {
+        return delegate.readAll(tipe, domainPrefix);
+    }
+
+    @Override
+    public Optional<List<Identifier>> listIds(Class<?> tipe, String[] domainPrefix) {
+        return delegate.listIds(tipe, domainPrefix);
+    }
+
+    @Override
+    public Optional<List<Identifier>> listIdsAfter(Class<?> tipe, Identifier after, int limit) {
+        return delegate.listIdsAfter(tipe, after, limit);
+    }
+
+    @Override
+    public <T> Stream<T> stream(Class<T> tipe) {
+        return delegate.stream(tipe);
+    }
+
+    @Override
+    public <T> Page<T> readPage(Class<T> tipe, int limit, String continuationToken) {
+        return delegate.readPage(tipe, limit, continuationToken);
+    }
+
+    @Override
+    public <T> Optional<String> write(Identifier id, T data) {
+        try {
+            return delegate.write(id, data);
+        } finally {
+            invalidate(id);
+        }
+    }
+
+    @Override
+    public Optional<String> writeAll(Map<Identifier, ?> objects) {
+        try {
+            return delegate.writeAll(objects);
+        } finally {
+            invalidateAll(objects.keySet());
+        }
+    }
+
+    @Override
+    public Optional<String> delete(Identifier id) {
+        try {
+            return delegate.delete(id);
+        } finally {
+            invalidate(id);
+        }
+    }
+
+    @Override
+    public Optional<String> deleteAll(Collection<Identifier> ids) {
+        try {
+            return delegate.deleteAll(ids);
+        } finally {
+            invalidateAll(ids);
+        }
+    }
+
+    /**
+     * Drops every cached object of an Identifier, whatever its type.
+     * Use this when the underlying store is changed by something other than this cache.
+     * Identifiers are matched by domain and name only, since change feeds and listings of file-based stores give the
+     * file style as scheme (see FileMetastore.resolveIdentifier) rather than the scheme the object was read with.
+     *
+     * @param id the Identifier to invalidate
+     */
+    public void invalidate(Identifier id) {
+        invalidateAll(Collections.singleton(id));
+    }
+
+    /**
+     * Drops every cached object of the given Identifiers, whatever their type, matching them by domain and name.
+     *
+     * @param ids the Identifiers to invalidate
+     */
+    public void invalidateAll(Collection<Identifier> ids) {
+        Set<List<Object>> targets = ids.stream().map(CachingMetastore::location).collect(Collectors.toSet());
+        invalidations.incrementAndGet();
+
+        synchronized (this) {
+            Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Key, Entry> entry = it.next();
+                if (targets.contains(location(entry.getKey().id))) {
+                    weight -= entry.getValue().weight;
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops every cached object.
+     */
+    public void invalidateAll() {
+        invalidations.incrementAndGet();
+
+        synchronized (this) {
+            entries.clear();
+            weight = 0;
+        }
+    }
+
+    /**
+     * Applies a change reported by a change feed of the delegate, such as FileMetastore.watch: the changed object is
+     * dropped, and everything is dropped when changes were lost.
+     *
+     * @param event the change
+     */
+    public void onChange(MetastoreEvent event) {
+        if (event.kind() == MetastoreEvent.Kind.OVERFLOW || event.id == null) {
+            invalidateAll();
+        } else {
+            invalidate(event.id);
+        }
+    }
+
+    /**
+     * Returns what identifies the location of an object whatever its scheme: its domain and name.
+     */
+    private static List<Object> location(Identifier id) {
+        return List.of(Arrays.asList(id.domain()), id.name());
+    }
+
+    /**
+     * Returns a snapshot of the cache statistics.
+     *
+     * @return the current statistics
+     */
+    public Stats stats() {
+        synchronized (this) {
+            return new Stats(hits.sum(), misses.sum(), evictions.sum(), entries.size(), weight);
+        }
+    }
+
+    /**
+     * Looks up a live entry and records the access.
+     *
+     * @param key the key to look up
+     * @return the cached object, or null if absent or expired
+     */
+    private synchronized Object lookup(Key key) {
+        sketch.increment(key);
+
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        if (entry.expiresAt - ticker.getAsLong() <= 0) {
+            entries.remove(key);
+            weight -= entry.weight;
+            return null;
+        }
+
+        return entry.value;
+    }
+
+    /**
+     * Checks for a live entry without recording an access.
+     *
+     * @param key the key to look up
+     * @return true if the key is cached and not expired
+     */
+    private synchronized boolean isCached(Key key) {
+        Entry entry = entries.get(key);
+        return entry != null && entry.expiresAt - ticker.getAsLong() > 0;
+    }
+
+    /**
+     * Adds a freshly loaded object, evicting less frequently used entries if needed.
+     * The object is not cached if an invalidation happened since it was loaded, if it weighs more than the whole
+     * cache, or if it is requested less often than the entries it would displace.
+     *
+     * @param key the key of the object
+     * @param value the object
+     * @param generation the invalidation count observed before loading the object
+     */
+    private void admit(Key key, Object value, long generation) {
+        long entryWeight = Math.max(1, weigher.applyAsLong(value));
+        Duration ttl = timeToLive.get(key.type);
+        long now = ticker.getAsLong();
+        long expiresAt = ttl == null ? now + Long.MAX_VALUE : now + ttl.toNanos();
+
+        if (entryWeight > maximumWeight) {
+            return;
+        }
+
+        synchronized (this) {
+            if (invalidations.get() != generation) {
+                return;
+            }
+
+            Entry previous = entries.remove(key);
+            if (previous != null) {
+                weight -= previous.weight;
+            }
+
+            int candidateFrequency = sketch.frequency(key);
+            List<Key> victims = new ArrayList<>();
+            long freed = 0;
+
+            Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+            while (weight - freed + entryWeight > maximumWeight && it.hasNext()) {
+                Map.Entry<Key, Entry> eldest = it.next();
+                boolean expired = eldest.getValue().expiresAt - now <= 0;
+
+                if (!expired && sketch.frequency(eldest.getKey()) >= candidateFrequency) {
+                    // The candidate is not popular enough to displace the current entries
+                    return;
+                }
+
+                victims.add(eldest.getKey());
+                freed += eldest.getValue().weight;
+            }
+
+            for (Key victim : victims) {
+                weight -= entries.remove(victim).weight;
+                evictions.increment();
+            }
+
+            entries.put(key, new Entry(value, entryWeight, expiresAt));
+            weight += entryWeight;
+            sketch.ensureCapacity(entries.size());
+        }
+    }
+
+    /**
+     * Cache key of an object: its Identifier and the type it was read as.
+     */
+    private static class Key {
+        final Identifier id;
+        final Class<?> type;
+
+        Key(Identifier id, Class<?> type) {
+            this.id = id;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+
+            Key other = (Key) o;
+            return id.equals(other.id) && type.equals(other.type);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(id, type);
+        }
+    }
+
+    /**
+     * Cached object with its weight and expiry time.
+     */
+    private static class Entry {
+        final Object value;
+        final long weight;
+        final long expiresAt;
+
+        Entry(Object value, long weight, long expiresAt) {
+            this.value = value;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Snapshot of the cache counters.
+     */
+    public static class Stats {
+        public final long hits;
+        public final long misses;
+        public final long evictions;
+        public final long size;
+        public final long weight;
+
+        public Stats(long hits, long misses, long evictions, long size, long weight) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.size = size;
+            this.weight = weight;
+        }
+
+        public long hits() { return this.hits; }
+        public long misses() { return this.misses; }
+        public long evictions() { return this.evictions; }
+        public long size() { return this.size; }
+        public long weight() { return this.weight; }
+
+        /**
+         * Returns the fraction of lookups served from the cache.
+         *
+         * @return the hit rate, or 1.0 if there were no lookups
+         */
+        public double hitRate() {
+            long requests = hits + misses;
+            return requests == 0 ? 1.0 : (double) hits / requests;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", size=" + size + ", weight=" + weight + "}";
+        }
+    }
+}
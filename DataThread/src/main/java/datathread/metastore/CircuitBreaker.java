@@ -0,0 +1,146 @@
+package datathread.metastore;
+
+import java.time.Duration;
+
+/**
+ * Circuit breaker guarding the calls to one delegate of a FederatedMetastore.
+ *
+ * 1. While CLOSED, every call goes through. A call that throws or takes longer than the slow call threshold is a
+ *    failure, and a number of consecutive failures opens the breaker.
+ * 2. While OPEN, calls are skipped, so a failing or slow delegate costs nothing and does not log the same error on
+ *    every call.
+ * 3. Once the open duration has passed, the breaker is HALF_OPEN and lets a single probe call through: a success
+ *    closes the breaker, a failure opens it again. A probe that never reports, e.g. because it was cancelled, is
+ *    replaced by a new one after another open duration.
+ *
+ * It also counts the calls and failures, to report the error rate of the delegate.
+ */
+public class CircuitBreaker {
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final Duration DEFAULT_SLOW_CALL_THRESHOLD = Duration.ofSeconds(5);
+    public static final Duration DEFAULT_OPEN_DURATION = Duration.ofSeconds(30);
+
+    /**
+     * State of a circuit breaker.
+     */
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long slowCallNanos;
+    private final long openNanos;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private long probedAt;
+    private long calls;
+    private long failures;
+
+    /**
+     * Constructor to initialize a circuit breaker with the default thresholds.
+     */
+    public CircuitBreaker() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_SLOW_CALL_THRESHOLD, DEFAULT_OPEN_DURATION);
+    }
+
+    /**
+     * Constructor to initialize a circuit breaker.
+     *
+     * @param failureThreshold the number of consecutive failures that opens the breaker
+     * @param slowCallThreshold the duration above which a call counts as a failure, or null to never count slow calls
+     * @param openDuration how long the breaker stays open before it lets a probe call through
+     */
+    public CircuitBreaker(int failureThreshold, Duration slowCallThreshold, Duration openDuration) {
+        this.failureThreshold = failureThreshold;
+        this.slowCallNanos = slowCallThreshold == null ? Long.MAX_VALUE : slowCallThreshold.toNanos();
+        this.openNanos = openDuration.toNanos();
+    }
+
+    /**
+     * Checks whether a call may go through, turning the breaker HALF_OPEN for a probe call once it has been open
+     * long enough.
+     *
+     * @return true if the call may go through, false if it must be skipped
+     */
+    public synchronized boolean allowRequest() {
+        long now = System.nanoTime();
+
+        switch (state) {
+            case OPEN:
+                if (now - openedAt < openNanos) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probedAt = now;
+                return true;
+            case HALF_OPEN:
+                if (now - probedAt < openNanos) {
+                    return false;
+                }
+                probedAt = now;
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Records the outcome of a call.
+     *
+     * @param nanos the duration of the call in nanoseconds
+     * @param failed whether the call threw
+     * @return true if this call opened the breaker
+     */
+    public synchronized boolean record(long nanos, boolean failed) {
+        calls++;
+        if (!failed && nanos <= slowCallNanos) {
+            // A call that started before the breaker opened does not close it, only a probe does
+            consecutiveFailures = 0;
+            if (state == State.HALF_OPEN) {
+                state = State.CLOSED;
+            }
+            return false;
+        }
+
+        failures++;
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records a call that was abandoned before it finished, which only counts as a failure if it was already slow.
+     *
+     * @param nanos how long the call had been running
+     * @return true if this call opened the breaker
+     */
+    public synchronized boolean recordAbandoned(long nanos) {
+        return nanos > slowCallNanos && record(nanos, false);
+    }
+
+    /**
+     * Returns the current state of the breaker.
+     *
+     * @return the state
+     */
+    public synchronized State state() {
+        return state;
+    }
+
+    /**
+     * Returns the share of the recorded calls that failed.
+     *
+     * @return the error rate, between 0 and 1
+     */
+    public synchronized double errorRate() {
+        return calls == 0 ? 0.0 : (double) failures / calls;
+    }
+}
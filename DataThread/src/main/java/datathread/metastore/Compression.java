@@ -0,0 +1,144 @@
+package datathread.metastore;
+
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Framing of compressed values, shared by the file-based Metastores.
+ *
+ * A compressed value starts with a header: the magic bytes 00 'D' 'T' 'Z', the length and ASCII name of the codec,
+ * and the length of the original bytes, followed by the compressed bytes. No JSON, Smile or CBOR document starts with
+ * a zero byte followed by 'D', so values without the header are read as they are. This keeps existing stores
+ * readable, and lets values that do not shrink be stored uncompressed.
+ */
+class Compression {
+    private static final byte[] MAGIC = {0, 'D', 'T', 'Z'};
+
+    /**
+     * Compression that writes values as they are and only reads the default DeflateCodec.
+     */
+    static final Compression NONE = new Compression(null);
+
+    private final CompressionCodec codec;
+    private final Map<String, CompressionCodec> readable = new HashMap<>();
+
+    /**
+     * Constructor to initialize the compression of a store.
+     *
+     * @param codec the codec compressing written values, or null to write them uncompressed
+     */
+    Compression(CompressionCodec codec) {
+        this.codec = codec;
+
+        CompressionCodec deflate = new DeflateCodec();
+        readable.put(deflate.name(), deflate);
+        if (codec != null) {
+            readable.put(codec.name(), codec);
+        }
+    }
+
+    /**
+     * Compresses and frames a value, unless compression is off or does not make it smaller.
+     *
+     * @param content the serialized value
+     * @return a buffer holding the value to store
+     * @throws IOException if the value cannot be compressed
+     */
+    ByteBuffer frame(ByteBuffer content) throws IOException {
+        if (codec == null) {
+            return content;
+        }
+
+        ByteBuffer compressed = codec.compress(content);
+        byte[] name = codec.name().getBytes(StandardCharsets.US_ASCII);
+        int size = MAGIC.length + 1 + name.length + 4 + compressed.remaining();
+        if (size >= content.remaining()) {
+            return content;
+        }
+
+        return ByteBuffer.allocate(size)
+                .put(MAGIC)
+                .put((byte) name.length)
+                .put(name)
+                .putInt(content.remaining())
+                .put(compressed)
+                .flip();
+    }
+
+    /**
+     * Decompresses a value if it is framed.
+     *
+     * @param value the stored value, whose position is not changed
+     * @return the serialized value
+     * @throws IOException if the codec is unknown or the value is corrupt
+     */
+    ByteBuffer unframe(ByteBuffer value) throws IOException {
+        if (!isFramed(value)) {
+            return value;
+        }
+
+        ByteBuffer header = value.duplicate();
+        header.position(header.position() + MAGIC.length);
+        byte[] name = new byte[header.get() & 0xff];
+        header.get(name);
+        int length = header.getInt();
+
+        String codecName = new String(name, StandardCharsets.US_ASCII);
+        CompressionCodec decoder = readable.get(codecName);
+        if (decoder == null) {
+            throw new IOException("Unknown compression codec " + codecName);
+        }
+
+        return decoder.decompress(header, length);
+    }
+
+    /**
+     * Opens a stored file for reading its serialized value.
+     * Uncompressed files are streamed, compressed ones are read whole and decompressed.
+     *
+     * @param file the file
+     * @return a stream of the serialized value
+     * @throws IOException if the file cannot be read or decompressed
+     */
+    InputStream open(Path file) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(file));
+        try {
+            in.mark(MAGIC.length);
+            byte[] head = in.readNBytes(MAGIC.length);
+            in.reset();
+
+            if (!isFramed(ByteBuffer.wrap(head))) {
+                return in;
+            }
+
+            try (InputStream framed = in) {
+                return new ByteBufferBackedInputStream(unframe(ByteBuffer.wrap(framed.readAllBytes())));
+            }
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private static boolean isFramed(ByteBuffer value) {
+        if (value.remaining() < MAGIC.length) {
+            return false;
+        }
+
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (value.get(value.position() + i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,40 @@
+package datathread.metastore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compression of the stored bytes of an object, applied by the file-based Metastores after serialization.
+ *
+ * Compressed values are framed with a header naming the codec, so readers pick the codec from the data itself and
+ * compressed and uncompressed values can live side by side. The name must identify everything needed to decompress,
+ * such as the dictionary, because a reader only decompresses values whose codec name it knows.
+ */
+public interface CompressionCodec {
+    /**
+     * Returns the name of the codec, recorded in the header of every value it compressed.
+     * At most 255 ASCII characters.
+     *
+     * @return the name of the codec
+     */
+    String name();
+
+    /**
+     * Compresses the remaining bytes of a buffer.
+     *
+     * @param content the bytes to compress, whose position is not changed
+     * @return a buffer holding the compressed bytes
+     * @throws IOException if the bytes cannot be compressed
+     */
+    ByteBuffer compress(ByteBuffer content) throws IOException;
+
+    /**
+     * Decompresses the remaining bytes of a buffer.
+     *
+     * @param compressed the bytes to decompress, whose position is not changed
+     * @param length the length of the original bytes
+     * @return a buffer holding the original bytes
+     * @throws IOException if the bytes cannot be decompressed
+     */
+    ByteBuffer decompress(ByteBuffer compressed, int length) throws IOException;
+}
@@ -0,0 +1,616 @@
+package datathread.metastore;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import datathread.Identifier;
+import datathread.grammar.Elements;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Implementation of the Metastore interface that stores every distinct serialized object once, keyed by its content hash.
+ *
+ * Storage rules:
+ *
+ * 1. The JSON of an object is stored as a blob named by its SHA-256 hash, in blobs/ab/abcdef..., so objects with the
+ *    same content share one blob whatever their Identifier. Objects embedding their own id, as Elements do, are stored
+ *    without their top-level "id" field, which is kept in their reference instead, so they share a blob too.
+ * 2. A reference table maps each key to its reference: the hash of its content, followed by ':' and the URL-safe
+ *    Base64 of the JSON of the removed id, if any. Keys are the paths that FileMetastore would store the objects at,
+ *    relative to the base directory (e.g. domain1/domain2/name.my_class.json), as in SegmentMetastore.
+ *    The table is kept in memory and persisted as an append-only log, refs.log, of lines "+key reference" and "-key",
+ *    which is compacted when it grows much longer than the table.
+ * 3. Writing an object whose content hash is already referenced by its key does no I/O at all, and writing content
+ *    that is already stored for another key only appends a reference.
+ * 4. Blobs are never deleted on write or delete; gc removes the blobs that no key references anymore.
+ *
+ * Because a key references its content by hash, two stores, or two snapshots of one store, hold the same objects
+ * exactly when their rootHash is equal, and the keys that differ are found by comparing their references.
+ */
+public class ContentAddressedMetastore implements Metastore {
+    private static final String BLOB_FOLDER = "blobs";
+    private static final String REFS_FILE = "refs.log";
+
+    /**
+     * Top-level field holding the id of objects that embed it, which is kept out of their blob.
+     */
+    private static final String ID_FIELD = "id";
+
+    /**
+     * Length of a hex SHA-256 hash, at the start of every reference.
+     */
+    private static final int HASH_LENGTH = 64;
+
+    /**
+     * Number of stale lines tolerated in the reference log before it is compacted.
+     */
+    private static final int COMPACTION_SLACK = 1024;
+
+    private final Path baseDir;
+
+    /**
+     * Keys of the objects, relative to the base directory.
+     */
+    private final ObjectKeys objectKeys;
+    private final Path blobDir;
+    private final Path refsFile;
+
+    /**
+     * ObjectMapper instance for JSON serialization and deserialization.
+     */
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Cached readers and writers of the ObjectMapper.
+     */
+    private final JsonCodec codec;
+
+    /**
+     * Durability of the blob writes and the reference log appends.
+     */
+    private final Durability durability;
+
+    /**
+     * Writer of the blob files.
+     */
+    private final GroupCommit writer;
+
+    /**
+     * Guards the reference table: reads share it, writes, deletes and gc take it exclusively.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Guards the blob folder: writes share it while they store blobs and append their references, gc takes it exclusively.
+     * It is always taken before the reference table lock.
+     */
+    private final ReadWriteLock blobLock = new ReentrantReadWriteLock();
+
+    /**
+     * Reference of every key, sorted by key.
+     */
+    private final NavigableMap<String, String> refs = new TreeMap<>();
+
+    /**
+     * Number of keys referencing each hash.
+     */
+    private final Map<String, Integer> refCounts = new HashMap<>();
+
+    /**
+     * Number of lines in the reference log.
+     */
+    private int logLines;
+
+    /**
+     * Constructor to initialize the ContentAddressedMetastore with a base directory, an optional ObjectMapper and the
+     * durability of writes. The reference table of an existing store is loaded.
+     *
+     * @param baseDir the base directory holding the blobs and the reference log
+     * @param objectMapper the ObjectMapper instance for JSON operations
+     * @param durability how far a write is flushed to disk before it returns
+     * @throws IOException if the reference log cannot be read
+     */
+    public ContentAddressedMetastore(Path baseDir, ObjectMapper objectMapper, Durability durability) throws IOException {
+        this.baseDir = baseDir.toAbsolutePath().normalize();
+        this.objectKeys = new ObjectKeys(this.baseDir);
+        this.blobDir = this.baseDir.resolve(BLOB_FOLDER);
+        this.refsFile = this.baseDir.resolve(REFS_FILE);
+        this.objectMapper = objectMapper == null ? new ObjectMapper() : objectMapper;
+        this.durability = durability;
+        this.writer = new GroupCommit(durability, GroupCommit.DEFAULT_WINDOW);
+        Elements.configureObjectMapper(this.objectMapper);
+        this.codec = new JsonCodec(this.objectMapper);
+
+        Files.createDirectories(this.blobDir);
+        load();
+    }
+
+    /**
+     * Constructor to initialize the ContentAddressedMetastore with a base directory and a default ObjectMapper,
+     * leaving flushing to the operating system.
+     *
+     * @param baseDir the base directory holding the blobs and the reference log
+     * @throws IOException if the reference log cannot be read
+     */
+    public ContentAddressedMetastore(Path baseDir) throws IOException {
+        this(baseDir, null, Durability.NONE);
+    }
+
+    @Override
+    public <T> Optional<T> read(Identifier id, Class<T> tipe) {
+        String key = objectKeys.keyFor(id, tipe);
+        String ref;
+
+        lock.readLock().lock();
+        try {
+            ref = refs.get(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return ref == null ? Optional.empty() : decode(key, ref, tipe);
+    }
+
+    @Override
+    public boolean exists(Identifier id, Class<?> tipe) {
+        lock.readLock().lock();
+        try {
+            return refs.containsKey(objectKeys.keyFor(id, tipe));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the metadata of an object from its blob. The version is the reference of the object, so equal versions
+     * mean equal objects, across keys and across stores.
+     */
+    @Override
+    public Optional<ObjectStat> stat(Identifier id, Class<?> tipe) {
+        String ref;
+
+        lock.readLock().lock();
+        try {
+            ref = refs.get(objectKeys.keyFor(id, tipe));
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return Optional.ofNullable(ref).flatMap(found -> {
+            try {
+                return Optional.of(new ObjectStat(Files.size(blobPath(blobHash(found))), null, found));
+            } catch (IOException e) {
+                e.printStackTrace();
+                return Optional.empty();
+            }
+        });
+    }
+
+    @Override
+    public <T> List<T> readAll(Class<T> tipe) {
+        return readAll(tipe, new String[0]);
+    }
+
+    @Override
+    public <T> List<T> readAll(Class<T> tipe, String[] domainPrefix) {
+        List<Map.Entry<String, String>> matches;
+
+        lock.readLock().lock();
+        try {
+            matches = objectKeys.ofType(refs, tipe, domainPrefix)
+                    .map(entry -> Map.entry(entry.getKey(), entry.getValue()))
+                    .collect(Collectors.toList());
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return matches.stream()
+                .flatMap(entry -> decode(entry.getKey(), entry.getValue(), tipe).stream())
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public Optional<List<Identifier>> listIds(Class<?> tipe, String[] domainPrefix) {
+        lock.readLock().lock();
+        try {
+            return Optional.of(objectKeys.ofType(refs, tipe, domainPrefix)
+                    .flatMap(entry -> objectKeys.identifierOf(entry.getKey()).stream())
+                    .collect(Collectors.toList()));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public <T> Optional<String> write(Identifier id, T data) {
+        return writeAll(Collections.singletonMap(id, data));
+    }
+
+    /**
+     * Writes a batch of objects, hashing them first and then storing the new blobs in parallel, so that their commits
+     * are grouped. Blobs are written without holding the reference table lock, which is only taken to append the
+     * references. Objects whose content is unchanged are skipped.
+     */
+    @Override
+    public Optional<String> writeAll(Map<Identifier, ?> objects) {
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        Map<String, String> newRefs = new LinkedHashMap<>();
+        List<String> errors = new ArrayList<>();
+
+        objects.forEach((id, data) -> {
+            try {
+                String key = objectKeys.keyFor(id, data.getClass());
+                JsonNode tree = objectMapper.valueToTree(data);
+                String embeddedId = null;
+                if (tree instanceof ObjectNode && tree.has(ID_FIELD)) {
+                    embeddedId = objectMapper.writeValueAsString(((ObjectNode) tree).remove(ID_FIELD));
+                }
+
+                byte[] content = objectMapper.writeValueAsBytes(tree);
+                contents.put(key, content);
+                newRefs.put(key, toRef(hash(content), embeddedId));
+            } catch (IOException | IllegalArgumentException e) {
+                e.printStackTrace();
+                errors.add("Failed to store id " + id);
+            }
+        });
+
+        // gc is kept out until the references are appended, so it cannot delete a blob that is not referenced yet
+        blobLock.readLock().lock();
+        try {
+            Map<String, String> changed = new LinkedHashMap<>();
+            Map<String, byte[]> missing = new LinkedHashMap<>();
+
+            lock.readLock().lock();
+            try {
+                newRefs.forEach((key, ref) -> {
+                    if (!ref.equals(refs.get(key))) {
+                        changed.put(key, ref);
+                        if (refCounts.getOrDefault(blobHash(ref), 0) == 0) {
+                            missing.putIfAbsent(blobHash(ref), contents.get(key));
+                        }
+                    }
+                });
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            Set<String> failed = missing.entrySet().parallelStream()
+                    .filter(blob -> !storeBlob(blob.getKey(), blob.getValue()))
+                    .map(Map.Entry::getKey)
+                    .collect(Collectors.toSet());
+
+            changed.entrySet().removeIf(entry -> {
+                if (failed.contains(blobHash(entry.getValue()))) {
+                    errors.add("Failed to store the blob of " + entry.getKey());
+                    return true;
+                }
+                return false;
+            });
+
+            lock.writeLock().lock();
+            try {
+                changed.entrySet().removeIf(entry -> entry.getValue().equals(refs.get(entry.getKey())));
+                appendRefs(changed);
+            } catch (IOException e) {
+                e.printStackTrace();
+                errors.add("Failed to store objects in " + baseDir);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            blobLock.readLock().unlock();
+        }
+
+        return errors.isEmpty() ? Optional.empty() : Optional.of(String.join("\n", errors));
+    }
+
+    @Override
+    public Optional<String> delete(Identifier id) {
+        return deleteAll(Collections.singletonList(id));
+    }
+
+    /**
+     * Deletes a batch of objects by removing their references; their blobs stay until gc.
+     * As in FileMetastore, every metadata set stored for an Identifier is deleted whatever its type.
+     */
+    @Override
+    public Optional<String> deleteAll(Collection<Identifier> ids) {
+        List<String> errors = new ArrayList<>();
+
+        lock.writeLock().lock();
+        try {
+            Map<String, String> removed = new LinkedHashMap<>();
+            for (Identifier id : ids) {
+                List<String> keys = objectKeys.metadataSets(refs, id);
+
+                if (keys.isEmpty()) {
+                    errors.add("Failed to delete id " + id);
+                }
+                keys.forEach(key -> removed.put(key, null));
+            }
+
+            appendRefs(removed);
+        } catch (IOException e) {
+            e.printStackTrace();
+            errors.add("Failed to delete references in " + baseDir);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        return errors.isEmpty() ? Optional.empty() : Optional.of(String.join("\n", errors));
+    }
+
+    /**
+     * Returns the content hash of an object, which leaves out the id it embeds, if any.
+     *
+     * @param id the Identifier of the object
+     * @param tipe the class type of the object
+     * @return an Optional containing the SHA-256 hash of the stored JSON, or an empty Optional if not found
+     */
+    public Optional<String> contentHash(Identifier id, Class<?> tipe) {
+        lock.readLock().lock();
+        try {
+            return Optional.ofNullable(refs.get(objectKeys.keyFor(id, tipe))).map(ContentAddressedMetastore::blobHash);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the reference table, to compare with another snapshot key by key.
+     *
+     * @return the reference of every key, sorted by key
+     */
+    public NavigableMap<String, String> references() {
+        lock.readLock().lock();
+        try {
+            return Collections.unmodifiableNavigableMap(new TreeMap<>(refs));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a hash of the whole reference table. Two stores hold the same objects under the same keys exactly when
+     * their root hashes are equal.
+     *
+     * @return the SHA-256 hash of the sorted references
+     */
+    public String rootHash() {
+        MessageDigest digest = newDigest();
+
+        lock.readLock().lock();
+        try {
+            refs.forEach((key, ref) -> digest.update((key + " " + ref + "\n").getBytes(StandardCharsets.UTF_8)));
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Deletes the blobs that no key references, and temporary files left by interrupted writes.
+     *
+     * @return an Optional containing an error message, or an empty Optional if all unreferenced blobs were deleted
+     */
+    public Optional<String> gc() {
+        List<String> errors = new ArrayList<>();
+
+        blobLock.writeLock().lock();
+        lock.writeLock().lock();
+        try (Stream<Path> files = Files.walk(blobDir)) {
+            for (Path blob : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                if (refCounts.getOrDefault(blob.getFileName().toString(), 0) == 0) {
+                    try {
+                        Files.delete(blob);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        errors.add("Failed to delete blob " + blob);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            errors.add("Failed to list blobs of " + baseDir);
+        } finally {
+            lock.writeLock().unlock();
+            blobLock.writeLock().unlock();
+        }
+
+        return errors.isEmpty() ? Optional.empty() : Optional.of(String.join("\n", errors));
+    }
+
+    //// Reference log
+
+    /**
+     * Replays the reference log. A torn last line, e.g. after a crash, is ignored.
+     */
+    private void load() throws IOException {
+        if (!Files.exists(refsFile)) {
+            return;
+        }
+
+        for (String line : Files.readAllLines(refsFile, StandardCharsets.UTF_8)) {
+            logLines++;
+            if (line.startsWith("-")) {
+                setRef(line.substring(1), null);
+            } else if (line.startsWith("+")) {
+                int space = line.lastIndexOf(' ');
+                String ref = space < 0 ? "" : line.substring(space + 1);
+                if (ref.length() == HASH_LENGTH || (ref.length() > HASH_LENGTH && ref.charAt(HASH_LENGTH) == ':')) {
+                    setRef(line.substring(1, space), ref);
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies and appends reference changes, with the write lock held.
+     *
+     * @param changes the new reference of every changed key, or null for a deleted key
+     */
+    private void appendRefs(Map<String, String> changes) throws IOException {
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(refsFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            Writer out = Channels.newWriter(channel, StandardCharsets.UTF_8);
+            for (Map.Entry<String, String> change : changes.entrySet()) {
+                out.write(change.getValue() == null ? "-" + change.getKey() : "+" + change.getKey() + " " + change.getValue());
+                out.write('\n');
+            }
+            out.flush();
+
+            if (durability != Durability.NONE) {
+                channel.force(false);
+            }
+        }
+
+        changes.forEach(this::setRef);
+        logLines += changes.size();
+
+        if (logLines > 2 * refs.size() + COMPACTION_SLACK) {
+            compactRefs();
+        }
+    }
+
+    /**
+     * Rewrites the reference log with only the current references, replacing the old log atomically.
+     */
+    private void compactRefs() throws IOException {
+        StringBuilder content = new StringBuilder();
+        refs.forEach((key, ref) -> content.append('+').append(key).append(' ').append(ref).append('\n'));
+
+        Path tmp = refsFile.resolveSibling(REFS_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = StandardCharsets.UTF_8.encode(content.toString());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (durability != Durability.NONE) {
+                channel.force(false);
+            }
+        }
+
+        Files.move(tmp, refsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logLines = refs.size();
+    }
+
+    private void setRef(String key, String ref) {
+        String previous = ref == null ? refs.remove(key) : refs.put(key, ref);
+
+        if (previous != null) {
+            refCounts.computeIfPresent(blobHash(previous), (h, count) -> count == 1 ? null : count - 1);
+        }
+        if (ref != null) {
+            refCounts.merge(blobHash(ref), 1, Integer::sum);
+        }
+    }
+
+    private static String toRef(String hash, String embeddedId) {
+        return embeddedId == null
+                ? hash
+                : hash + ":" + Base64.getUrlEncoder().withoutPadding().encodeToString(embeddedId.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String blobHash(String ref) {
+        return ref.substring(0, HASH_LENGTH);
+    }
+
+    //// Blobs
+
+    /**
+     * Reads an object from its blob, putting back the id it embeds, if any.
+     */
+    private <T> Optional<T> decode(String key, String ref, Class<T> tipe) {
+        Path blob = blobPath(blobHash(ref));
+        try {
+            if (ref.length() == HASH_LENGTH) {
+                return codec.read(blob, tipe);
+            }
+
+            String embeddedId = new String(Base64.getUrlDecoder().decode(ref.substring(HASH_LENGTH + 1)), StandardCharsets.UTF_8);
+            ObjectNode tree = (ObjectNode) objectMapper.readTree(blob.toFile());
+            tree.set(ID_FIELD, objectMapper.readTree(embeddedId));
+            return Optional.ofNullable(objectMapper.treeToValue(tree, tipe));
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            System.err.println("Failed to read " + key);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Writes a blob unless it is already stored.
+     *
+     * @return true if the blob is stored
+     */
+    private boolean storeBlob(String hash, byte[] content) {
+        Path blob = blobPath(hash);
+        try {
+            if (!Files.exists(blob)) {
+                Files.createDirectories(blob.getParent());
+                writer.write(blob, ByteBuffer.wrap(content));
+            }
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private Path blobPath(String hash) {
+        return blobDir.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private static String hash(byte[] content) {
+        return toHex(newDigest().digest(content));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
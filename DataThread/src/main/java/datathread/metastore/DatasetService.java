@@ -3,7 +3,10 @@ package datathread.metastore;
 import datathread.Identifier;
 import datathread.grammar.Dataset;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Service class for managing Datasets in the Metastore.
@@ -22,13 +25,29 @@ public class DatasetService {
      */
     private final Metastore metastore;
 
+    /**
+     * Asynchronous view of the same data storage, used by the async variants.
+     */
+    private final AsyncMetastore asyncMetastore;
+
     /**
      * Constructor to initialize the DatasetService with a Metastore instance.
      *
      * @param metastore the Metastore instance to be used by this service
      */
     public DatasetService(Metastore metastore) {
+        this(metastore, AsyncMetastore.of(metastore));
+    }
+
+    /**
+     * Constructor to initialize the DatasetService with a Metastore instance and its asynchronous counterpart.
+     *
+     * @param metastore the Metastore instance to be used by this service
+     * @param asyncMetastore the AsyncMetastore instance to be used by the async variants
+     */
+    public DatasetService(Metastore metastore, AsyncMetastore asyncMetastore) {
         this.metastore = metastore;
+        this.asyncMetastore = asyncMetastore;
     }
 
     /**
@@ -45,4 +64,24 @@ public class DatasetService {
         // Return the Dataset wrapped in an Optional
         return Optional.ofNullable(dataset);
     }
+
+    /**
+     * Asynchronous variant of get.
+     *
+     * @param id the Identifier of the Dataset to be retrieved
+     * @return a future of an Optional containing the Dataset if found, or an empty Optional if not found
+     */
+    public CompletableFuture<Optional<Dataset>> getAsync(Identifier id) {
+        return asyncMetastore.read(id, Dataset.class);
+    }
+
+    /**
+     * Retrieves many Datasets at once with a single batched lookup.
+     *
+     * @param ids the Identifiers of the Datasets to be retrieved
+     * @return a future of a map from Identifier to Dataset, in the iteration order of ids, containing only the Datasets found
+     */
+    public CompletableFuture<Map<Identifier, Dataset>> getAllAsync(Collection<Identifier> ids) {
+        return asyncMetastore.readMany(ids, Dataset.class);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,262 @@
+package datathread.metastore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * CompressionCodec based on the JDK Deflater and Inflater, optionally with a preset dictionary.
+ *
+ * Metadata documents are small and share most of their text (property names, ids, type names), which plain deflate
+ * cannot exploit because every document is compressed on its own. A preset dictionary holding the common fragments
+ * lets each document refer back to them, which typically more than halves the size of small documents.
+ * Use train to build a dictionary from sample documents. The name of a codec with a dictionary includes the Adler-32
+ * checksum of the dictionary, so values are only decompressed with the dictionary they were compressed with.
+ */
+public class DeflateCodec implements CompressionCodec {
+    /**
+     * Name of the codec without dictionary.
+     */
+    public static final String NAME = "deflate";
+
+    /**
+     * Largest useful dictionary: deflate only refers back 32 KiB.
+     */
+    public static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    /**
+     * Length of the byte sequences counted by train.
+     */
+    private static final int DMER_SIZE = 8;
+
+    /**
+     * Length of the fragments selected by train.
+     */
+    private static final int SEGMENT_SIZE = 64;
+
+    private final int level;
+    private final byte[] dictionary;
+    private final String name;
+
+    /**
+     * Constructor to initialize a codec with the default compression level and no dictionary.
+     */
+    public DeflateCodec() {
+        this(Deflater.DEFAULT_COMPRESSION, null);
+    }
+
+    /**
+     * Constructor to initialize a codec with a compression level and an optional dictionary.
+     *
+     * @param level the compression level, from 0 to 9 or Deflater.DEFAULT_COMPRESSION
+     * @param dictionary the preset dictionary, or null for none
+     */
+    public DeflateCodec(int level, byte[] dictionary) {
+        if (dictionary != null && dictionary.length > MAX_DICTIONARY_SIZE) {
+            throw new IllegalArgumentException("Dictionary larger than " + MAX_DICTIONARY_SIZE + " bytes");
+        }
+
+        this.level = level;
+        this.dictionary = dictionary == null ? null : dictionary.clone();
+
+        if (dictionary == null) {
+            this.name = NAME;
+        } else {
+            Adler32 adler = new Adler32();
+            adler.update(dictionary);
+            this.name = NAME + "-" + Long.toHexString(adler.getValue());
+        }
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Returns a copy of the dictionary, to be saved alongside the store.
+     *
+     * @return the dictionary, or null if the codec has none
+     */
+    public byte[] dictionary() {
+        return dictionary == null ? null : dictionary.clone();
+    }
+
+    @Override
+    public ByteBuffer compress(ByteBuffer content) throws IOException {
+        Deflater deflater = new Deflater(level);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(content.duplicate());
+            deflater.finish();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, content.remaining() / 2));
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+
+            return ByteBuffer.wrap(out.toByteArray());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public ByteBuffer decompress(ByteBuffer compressed, int length) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed.duplicate());
+
+            byte[] out = new byte[length];
+            int written = 0;
+            while (!inflater.finished()) {
+                int count = inflater.inflate(out, written, length - written);
+                written += count;
+
+                if (count == 0) {
+                    if (inflater.needsDictionary()) {
+                        if (dictionary == null) {
+                            throw new IOException("Value was compressed with a dictionary");
+                        }
+                        inflater.setDictionary(dictionary);
+                    } else if (inflater.needsInput() || written == length) {
+                        break;
+                    }
+                }
+            }
+
+            if (!inflater.finished() || written != length) {
+                throw new IOException("Truncated compressed value");
+            }
+
+            return ByteBuffer.wrap(out);
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed value", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Builds a preset dictionary from sample documents.
+     *
+     * The samples are cut into overlapping fragments, and each fragment is scored by the number of samples sharing
+     * its 8-byte sequences. The best fragments are picked greedily, discounting sequences already covered, until the
+     * dictionary is full. The best fragments are placed last, where deflate reaches them with the shortest distances.
+     *
+     * @param samples the sample documents, ideally a few hundred representative objects
+     * @param size the maximum size of the dictionary, at most MAX_DICTIONARY_SIZE
+     * @return the dictionary, empty if the samples have nothing in common
+     */
+    public static byte[] train(Collection<byte[]> samples, int size) {
+        int capacity = Math.min(size, MAX_DICTIONARY_SIZE);
+
+        // Number of samples containing each sequence
+        Map<Long, Integer> frequencies = new HashMap<>();
+        for (byte[] sample : samples) {
+            Set<Long> seen = new HashSet<>();
+            for (int i = 0; i + DMER_SIZE <= sample.length; i++) {
+                seen.add(dmer(sample, i));
+            }
+            seen.forEach(dmer -> frequencies.merge(dmer, 1, Integer::sum));
+        }
+
+        // Scores only go down as sequences get covered, so a stale score is an upper bound and can be rechecked lazily
+        PriorityQueue<Fragment> candidates = new PriorityQueue<>(Comparator.comparingLong((Fragment fragment) -> fragment.score).reversed());
+        for (byte[] sample : samples) {
+            for (int start = 0; start + DMER_SIZE <= sample.length; start += SEGMENT_SIZE / 2) {
+                Fragment fragment = new Fragment(sample, start, Math.min(start + SEGMENT_SIZE, sample.length));
+                fragment.score = fragment.score(frequencies);
+                candidates.add(fragment);
+            }
+        }
+
+        List<Fragment> selected = new ArrayList<>();
+        int used = 0;
+        while (used < capacity && !candidates.isEmpty()) {
+            Fragment best = candidates.poll();
+            long score = best.score(frequencies);
+            if (score == 0) {
+                break;
+            }
+            if (!candidates.isEmpty() && score < candidates.peek().score) {
+                best.score = score;
+                candidates.add(best);
+                continue;
+            }
+
+            best.end = Math.min(best.end, best.start + capacity - used);
+            selected.add(best);
+            used += best.end - best.start;
+            for (int i = best.start; i + DMER_SIZE <= best.end; i++) {
+                frequencies.put(dmer(best.sample, i), 0);
+            }
+        }
+
+        byte[] result = new byte[used];
+        int offset = 0;
+        for (int i = selected.size() - 1; i >= 0; i--) {
+            Fragment fragment = selected.get(i);
+            System.arraycopy(fragment.sample, fragment.start, result, offset, fragment.end - fragment.start);
+            offset += fragment.end - fragment.start;
+        }
+
+        return result;
+    }
+
+    private static long dmer(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < DMER_SIZE; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    /**
+     * Candidate fragment of a sample for the dictionary.
+     */
+    private static class Fragment {
+        final byte[] sample;
+        final int start;
+        int end;
+        long score;
+
+        Fragment(byte[] sample, int start, int end) {
+            this.sample = sample;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Sums the frequencies of the distinct sequences of the fragment that occur in more than one sample.
+         */
+        long score(Map<Long, Integer> frequencies) {
+            Set<Long> seen = new HashSet<>();
+            long total = 0;
+            for (int i = start; i + DMER_SIZE <= end; i++) {
+                long dmer = dmer(sample, i);
+                int frequency = frequencies.getOrDefault(dmer, 0);
+                if (frequency > 1 && seen.add(dmer)) {
+                    total += frequency;
+                }
+            }
+            return total;
+        }
+    }
+}
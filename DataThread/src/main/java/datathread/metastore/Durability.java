@@ -0,0 +1,26 @@
+package datathread.metastore;
+
+/**
+ * How far a file-based Metastore goes to make a completed write survive a crash or power loss.
+ *
+ * Writes are always atomic: an object is written to a temporary file that is then renamed over the target,
+ * so readers and crashes see either the old or the new content, never a truncated file.
+ * The levels differ in when the data reaches the disk.
+ */
+public enum Durability {
+    /**
+     * Leave flushing to the operating system. A crash may lose recent writes, but never corrupts a file.
+     */
+    NONE,
+
+    /**
+     * Flush the file and its folder to disk before each write returns.
+     */
+    FSYNC,
+
+    /**
+     * Flush to disk before each write returns, but batch the writes that arrive within a short window so that
+     * their files are flushed together and each folder is flushed once per batch rather than once per write.
+     */
+    GROUP_COMMIT
+}
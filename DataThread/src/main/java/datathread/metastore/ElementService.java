@@ -4,7 +4,13 @@ import datathread.Identifier;
 import datathread.grammar.Element;
 import datathread.grammar.ElementType;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 /**
  * Service class for managing Elements in the Metastore.
@@ -24,13 +30,29 @@ public class ElementService {
      */
     private final Metastore metastore;
 
+    /**
+     * Asynchronous view of the same data storage, used by the async variants.
+     */
+    private final AsyncMetastore asyncMetastore;
+
     /**
      * Constructor to initialize the ElementService with a Metastore instance.
      *
      * @param metastore the Metastore instance to be used by this service
      */
     public ElementService(Metastore metastore) {
+        this(metastore, AsyncMetastore.of(metastore));
+    }
+
+    /**
+     * Constructor to initialize the ElementService with a Metastore instance and its asynchronous counterpart.
+     *
+     * @param metastore the Metastore instance to be used by this service
+     * @param asyncMetastore the AsyncMetastore instance to be used by the async variants
+     */
+    public ElementService(Metastore metastore, AsyncMetastore asyncMetastore) {
         this.metastore = metastore;
+        this.asyncMetastore = asyncMetastore;
     }
 
     /**
@@ -44,8 +66,9 @@ public class ElementService {
         Element element = metastore.read(id, Element.class)
                 .orElse(null);
 
-        // If the Element is found but its ElementType is null, attempt to retrieve and set the ElementType
-        if (element != null && element.getElementType() == null) {
+        // If the Element is found but its ElementType is null, attempt to retrieve and set the ElementType,
+        // probing first so that a missing override costs no read
+        if (element != null && element.getElementType() == null && metastore.exists(id, ElementType.class)) {
             Optional<ElementType> oet = getElementType(id);
 
             // If the ElementType is found, set it on the Element
@@ -56,6 +79,58 @@ public class ElementService {
         return Optional.ofNullable(element);
     }
 
+    /**
+     * Asynchronous variant of get.
+     *
+     * @param id the Identifier of the Element to be retrieved
+     * @return a future of an Optional containing the Element if found, or an empty Optional if not found
+     */
+    public CompletableFuture<Optional<Element>> getAsync(Identifier id) {
+        return asyncMetastore.read(id, Element.class)
+                .thenCompose(found -> {
+                    Element element = found.orElse(null);
+
+                    // If the Element is found but its ElementType is null, attempt to retrieve and set the ElementType,
+                    // probing first so that a missing override costs no read
+                    if (element != null && element.getElementType() == null) {
+                        return asyncMetastore.exists(id, ElementType.class)
+                                .thenCompose(exists -> exists
+                                        ? asyncMetastore.read(id, ElementType.class)
+                                        : CompletableFuture.completedFuture(Optional.<ElementType>empty()))
+                                .thenApply(oet -> {
+                                    oet.ifPresent(element::setElementType);
+                                    return found;
+                                });
+                    }
+
+                    return CompletableFuture.completedFuture(found);
+                });
+    }
+
+    /**
+     * Retrieves many Elements at once, overlapping all of their lookups.
+     *
+     * @param ids the Identifiers of the Elements to be retrieved
+     * @return a future of a map from Identifier to Element, in the iteration order of ids, containing only the Elements found
+     */
+    public CompletableFuture<Map<Identifier, Element>> getAllAsync(Collection<Identifier> ids) {
+        List<Identifier> distinct = ids.stream().distinct().collect(Collectors.toList());
+        List<CompletableFuture<Optional<Element>>> lookups = distinct.stream()
+                .map(this::getAsync)
+                .collect(Collectors.toList());
+
+        return CompletableFuture.allOf(lookups.toArray(new CompletableFuture<?>[0]))
+                .thenApply(done -> {
+                    Map<Identifier, Element> results = new LinkedHashMap<>();
+                    for (int i = 0; i < distinct.size(); i++) {
+                        Identifier id = distinct.get(i);
+                        lookups.get(i).join().ifPresent(element -> results.put(id, element));
+                    }
+
+                    return results;
+                });
+    }
+
     /**
      * Method to retrieve an ElementType by its Identifier.
      *
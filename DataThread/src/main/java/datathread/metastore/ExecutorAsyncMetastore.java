@@ -0,0 +1,109 @@
+package datathread.metastore;
+
+import datathread.Identifier;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Default AsyncMetastore adapter that runs the calls of any blocking Metastore on an executor.
+ *
+ * The default executor starts a virtual thread per task when the runtime supports them (Java 21+),
+ * so thousands of concurrent lookups only cost parked virtual threads while they wait on I/O.
+ * On older runtimes it falls back to a cached pool of daemon threads.
+ */
+public class ExecutorAsyncMetastore implements AsyncMetastore {
+    /**
+     * The blocking Metastore doing the actual work.
+     */
+    private final Metastore delegate;
+
+    /**
+     * Executor running the blocking calls.
+     */
+    private final Executor executor;
+
+    /**
+     * Constructor to initialize the adapter with a Metastore and the executor to run its calls on.
+     *
+     * @param delegate the blocking Metastore
+     * @param executor the executor running the blocking calls, or null for the default executor
+     */
+    public ExecutorAsyncMetastore(Metastore delegate, Executor executor) {
+        this.delegate = delegate;
+        this.executor = executor == null ? defaultExecutor() : executor;
+    }
+
+    @Override
+    public <T> CompletableFuture<Optional<T>> read(Identifier id, Class<T> tipe) {
+        return CompletableFuture.supplyAsync(() -> delegate.read(id, tipe), executor);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> exists(Identifier id, Class<?> tipe) {
+        return CompletableFuture.supplyAsync(() -> delegate.exists(id, tipe), executor);
+    }
+
+    @Override
+    public <T> CompletableFuture<Map<Identifier, T>> readMany(Collection<Identifier> ids, Class<T> tipe) {
+        // A single task, so the backend can still use its own batched lookup
+        return CompletableFuture.supplyAsync(() -> delegate.readMany(ids, tipe), executor);
+    }
+
+    @Override
+    public <T> CompletableFuture<List<T>> readAll(Class<T> tipe) {
+        return CompletableFuture.supplyAsync(() -> delegate.readAll(tipe), executor);
+    }
+
+    @Override
+    public <T> CompletableFuture<Optional<String>> write(Identifier id, T data) {
+        return CompletableFuture.supplyAsync(() -> delegate.write(id, data), executor);
+    }
+
+    @Override
+    public CompletableFuture<Optional<String>> delete(Identifier id) {
+        return CompletableFuture.supplyAsync(() -> delegate.delete(id), executor);
+    }
+
+    /**
+     * Returns the shared executor used when none is specified.
+     *
+     * @return the shared default executor
+     */
+    public static Executor defaultExecutor() {
+        return DefaultExecutorHolder.EXECUTOR;
+    }
+
+    /**
+     * Creates an executor that starts a new virtual thread for each task, or a cached daemon thread pool
+     * when virtual threads are not available.
+     *
+     * @return a new executor service
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "async-metastore");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Lazily creates the default executor on first use.
+     */
+    private static class DefaultExecutorHolder {
+        static final ExecutorService EXECUTOR = newVirtualThreadPerTaskExecutor();
+    }
+}
@@ -0,0 +1,93 @@
+package datathread.metastore;
+
+import datathread.Identifier;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Native asynchronous implementation of FederatedMetastore.
+ *
+ * Every call goes through the FederatedMetastore, so its write policy, precedence, circuit breakers and membership
+ * filters all apply. Lookups query every delegate at the same time on the executor, even when the FederatedMetastore
+ * itself queries them one after another, so the latency of a lookup is that of the slowest delegate rather than the
+ * sum over all delegates. Results are still combined in order of precedence, exactly as in FederatedMetastore.
+ *
+ * Only the requests to the delegates run on the executor. A read never blocks a thread while waiting for them, and
+ * the other calls, which wait for the delegates of the FederatedMetastore, run on the default executor, so a bounded
+ * executor is never exhausted by calls waiting on work queued behind them.
+ */
+public class FederatedAsyncMetastore implements AsyncMetastore {
+    /**
+     * FederatedMetastore the calls go through.
+     */
+    private final FederatedMetastore federated;
+
+    /**
+     * Executor running the concurrent lookups.
+     */
+    private final Executor executor;
+
+    /**
+     * Constructor to initialize the FederatedAsyncMetastore over a FederatedMetastore.
+     *
+     * @param federated the FederatedMetastore to adapt
+     * @param executor the executor running the lookups on the delegates
+     */
+    public FederatedAsyncMetastore(FederatedMetastore federated, Executor executor) {
+        this.federated = federated;
+        this.executor = executor;
+    }
+
+    /**
+     * Reads an object from all delegates concurrently and returns the result of the first delegate that has it.
+     */
+    @Override
+    public <T> CompletableFuture<Optional<T>> read(Identifier id, Class<T> tipe) {
+        return federated.readAsync(id, tipe, executor);
+    }
+
+    /**
+     * Checks all delegates concurrently for an object.
+     */
+    @Override
+    public CompletableFuture<Boolean> exists(Identifier id, Class<?> tipe) {
+        return federated.existsAsync(id, tipe, executor);
+    }
+
+    /**
+     * Reads many objects, keeping for each id the object of the earliest delegate.
+     */
+    @Override
+    public <T> CompletableFuture<Map<Identifier, T>> readMany(Collection<Identifier> ids, Class<T> tipe) {
+        return CompletableFuture.supplyAsync(() -> federated.readMany(ids, tipe), ExecutorAsyncMetastore.defaultExecutor());
+    }
+
+    /**
+     * Reads all objects from all delegates, each object from the earliest delegate that has it.
+     */
+    @Override
+    public <T> CompletableFuture<List<T>> readAll(Class<T> tipe) {
+        return CompletableFuture.supplyAsync(() -> federated.readAll(tipe), ExecutorAsyncMetastore.defaultExecutor());
+    }
+
+    /**
+     * Writes an object according to the write policy of the FederatedMetastore.
+     */
+    @Override
+    public <T> CompletableFuture<Optional<String>> write(Identifier id, T data) {
+        return CompletableFuture.supplyAsync(() -> federated.write(id, data), ExecutorAsyncMetastore.defaultExecutor());
+    }
+
+    /**
+     * Deletes an object according to the write policy of the FederatedMetastore.
+     */
+    @Override
+    public CompletableFuture<Optional<String>> delete(Identifier id) {
+        return CompletableFuture.supplyAsync(() -> federated.delete(id), ExecutorAsyncMetastore.defaultExecutor());
+    }
+}
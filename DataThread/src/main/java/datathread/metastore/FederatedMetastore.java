@@ -2,11 +2,33 @@ package datathread.metastore;
 
 import datathread.Identifier;
 
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Optional;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /**
  * FederatedMetastore class that delegates operations to multiple Metastore instances.
@@ -20,20 +42,138 @@ import java.util.stream.Collectors;
  * 3. **Scalability**: Distributing data across multiple metastore instances helps in scaling the system, as the load is shared among the instances.
  * 4. **Separation of Concerns**: Different metastore instances can be used for different types of data or different parts of the application, and FederatedMetastore provides a single interface to access all of them.
  * 5. **Flexibility**: It allows adding or removing metastore instances without changing the client code that interacts with the metastore.
+ *
+ * By default, point lookups (read, exists and stat) query the delegates one after another, so a miss costs the sum of
+ * their latencies. Given an executor, they query all delegates in parallel instead: the result of the first delegate
+ * that has the object still wins, so the lookup waits for the earlier delegates to miss, and the requests to later
+ * delegates are cancelled as soon as the winner is known. Requests can also be hedged: when a delegate has not
+ * answered within a percentile of its recent latencies, the request is issued again and the first answer is used.
+ *
+ * Delegates can be given precedence levels. Delegates with equal precedence are expected to hold the same objects,
+ * e.g. replicas, and are ordered by their median latency, so lookups go to the fastest one first. Each delegate can
+ * also be guarded by a CircuitBreaker: a delegate that keeps failing or is too slow is skipped until a probe call
+ * succeeds, and a delegate that throws counts as not having the object.
+ *
+ * When writes are accepted, the primary is always queried first, whatever its precedence or latency, so that a
+ * written object is read back from it.
+ *
+ * Lookups also skip the delegates whose mightContain rules the object out, e.g. a BloomFilterMetastore over an
+ * overlay that holds few objects, so most misses cost no probe of that store.
+ *
+ * Full reads (readAll and stream) return each object once, from the earliest delegate that has it. The delegates are
+ * first asked for the Identifiers they hold, which decides the winner of every Identifier, and each delegate then
+ * only deserializes the objects it won. The delegates are queried concurrently. A delegate that cannot list its
+ * Identifiers is read in full and its objects are all kept, since they cannot be matched with those of the others.
+ *
+ * Writes are refused unless a WritePolicy allows them: they can go to the primary, i.e. the first delegate, to all
+ * delegates with a quorum, or to the primary with asynchronous replication to the other delegates. Instances that
+ * replicate must be closed to stop the replication threads.
  */
-public class FederatedMetastore implements Metastore {
+public class FederatedMetastore implements Metastore, Closeable {
     /**
      * List of Metastore delegates.
      */
     private final List<Metastore> delegates;
 
     /**
-     * Constructor to initialize the FederatedMetastore with a list of delegates.
+     * Executor running the parallel lookups, or null to query the delegates one after another.
+     */
+    private final Executor executor;
+
+    /**
+     * Percentile of a delegate's latencies after which a lookup is hedged, or 0 to never hedge.
+     */
+    private final double hedgePercentile;
+
+    /**
+     * Recent lookup latencies of each delegate, in delegate order.
+     */
+    private final List<LatencyTracker> latencies;
+
+    /**
+     * How writes and deletes are applied to the delegates.
+     */
+    private final WritePolicy writePolicy;
+
+    /**
+     * Replication to each delegate but the primary, if the write policy replicates asynchronously.
+     */
+    private final List<Replicator> replicators;
+
+    /**
+     * Precedence level of each delegate, lower first, or null to follow the order of the delegates.
+     */
+    private final int[] precedence;
+
+    /**
+     * Circuit breaker of each delegate, in delegate order, with null elements for unguarded delegates.
+     */
+    private final List<CircuitBreaker> breakers;
+
+    /**
+     * Delegate indices in the order they are queried, refreshed periodically when latencies decide part of it.
+     */
+    private volatile List<Integer> order;
+    private volatile long orderedAt;
+
+    /**
+     * How often the order of delegates with equal precedence is recomputed from their latencies.
+     */
+    private static final long ORDER_REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Number of objects read from a delegate at once by stream.
+     */
+    static final int STREAM_CHUNK_SIZE = 256;
+
+    /**
+     * Prefix of the continuation tokens of pages merged by Identifier, which never starts a delegate index.
+     */
+    private static final String MERGED_TOKEN = "@";
+
+    /**
+     * Constructor to initialize the FederatedMetastore with a list of delegates, queried one after another.
+     * Use builder for the other settings.
      *
      * @param delegates the list of Metastore instances to delegate operations to
      */
     public FederatedMetastore(List<Metastore> delegates) {
-        this.delegates = delegates == null ? Collections.emptyList() : delegates;
+        this(builder(delegates));
+    }
+
+    private FederatedMetastore(Builder builder) {
+        this.delegates = builder.delegates == null ? Collections.emptyList() : builder.delegates;
+        if (builder.precedence != null && builder.precedence.length != this.delegates.size()) {
+            throw new IllegalArgumentException("Expected a precedence for each of the " + this.delegates.size() + " delegates");
+        }
+
+        this.precedence = builder.precedence == null ? null : builder.precedence.clone();
+        this.breakers = this.delegates.stream()
+                .map(delegate -> builder.circuitBreakers == null ? null : builder.circuitBreakers.get())
+                .collect(Collectors.toList());
+        this.order = IntStream.range(0, this.delegates.size()).boxed().collect(Collectors.toList());
+        this.executor = builder.executor;
+        this.hedgePercentile = builder.hedgePercentile;
+        this.latencies = this.delegates.stream()
+                .map(delegate -> new LatencyTracker())
+                .collect(Collectors.toList());
+        this.writePolicy = builder.writePolicy;
+        this.replicators = writePolicy != WritePolicy.PRIMARY_ASYNC_REPLICATION ? Collections.emptyList()
+                : IntStream.range(1, this.delegates.size())
+                        .mapToObj(i -> new Replicator(this.delegates.get(i), "FederatedMetastore-replicator " + i,
+                                builder.replicationCapacity, builder.replicationBatchSize, builder.replicationRetryDelay))
+                        .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns a builder of a FederatedMetastore over a list of delegates. By default the delegates are queried one
+     * after another in list order, without hedging or circuit breakers, and writes are refused.
+     *
+     * @param delegates the list of Metastore instances to delegate operations to, the first one being the primary
+     * @return the builder
+     */
+    public static Builder builder(List<Metastore> delegates) {
+        return new Builder(delegates);
     }
 
     /**
@@ -45,46 +185,308 @@ public class FederatedMetastore implements Metastore {
      * @return an Optional containing the object if found, or an empty Optional if not found
      */
     public <T> Optional<T> read(Identifier id, Class<T> tipe) {
-        // Stream through delegates and find the first non-empty result
-        return this.delegates.stream()
-                .flatMap(delegate -> delegate.read(id, tipe).stream())
-                .findFirst();
+        return lookup(id, tipe, delegate -> delegate.read(id, tipe), executor);
+    }
+
+    /**
+     * Reads an object like read, but without blocking: the delegates are queried in parallel on the given executor,
+     * even if this FederatedMetastore queries them one after another, and the returned future completes once the
+     * result is known. Used by FederatedAsyncMetastore.
+     */
+    <T> CompletableFuture<Optional<T>> readAsync(Identifier id, Class<T> tipe, Executor executor) {
+        return lookupAsync(id, tipe, delegate -> delegate.read(id, tipe), executor);
+    }
+
+    /**
+     * Checks whether any delegate has an object of the specified type.
+     *
+     * @param id the Identifier of the object
+     * @param tipe the class type of the object
+     * @return true if a delegate has the object, false otherwise
+     */
+    @Override
+    public boolean exists(Identifier id, Class<?> tipe) {
+        return lookup(id, tipe, delegate -> delegate.exists(id, tipe) ? Optional.of(Boolean.TRUE) : Optional.empty(), executor).isPresent();
+    }
+
+    /**
+     * Checks whether any delegate has an object like exists, but without blocking, querying the delegates in
+     * parallel on the given executor. Used by FederatedAsyncMetastore.
+     */
+    CompletableFuture<Boolean> existsAsync(Identifier id, Class<?> tipe, Executor executor) {
+        return lookupAsync(id, tipe, delegate -> delegate.exists(id, tipe) ? Optional.of(Boolean.TRUE) : Optional.<Boolean>empty(), executor)
+                .thenApply(Optional::isPresent);
+    }
+
+    /**
+     * Tells whether any delegate may have an object of the specified type.
+     *
+     * @param id the Identifier of the object
+     * @param tipe the class type of the object
+     * @return false if no delegate has the object, true if one may
+     */
+    @Override
+    public boolean mightContain(Identifier id, Class<?> tipe) {
+        return this.delegates.stream().anyMatch(delegate -> delegate.mightContain(id, tipe));
+    }
+
+    /**
+     * Returns the metadata of the object from the first delegate that has it, which is the one read would return.
+     *
+     * @param id the Identifier of the object
+     * @param tipe the class type of the object
+     * @return an Optional containing the metadata if found, or an empty Optional if not found
+     */
+    @Override
+    public Optional<ObjectStat> stat(Identifier id, Class<?> tipe) {
+        return lookup(id, tipe, delegate -> delegate.stat(id, tipe), executor);
+    }
+
+    /**
+     * Reads many objects of the specified type, asking each delegate in turn only for the ids still missing.
+     *
+     * @param ids the Identifiers of the objects to be read
+     * @param tipe the class type of the objects to be read
+     * @param <T> the type of the objects to be read
+     * @return a map from Identifier to object, in the iteration order of ids, containing only the objects found
+     */
+    @Override
+    public <T> Map<Identifier, T> readMany(Collection<Identifier> ids, Class<T> tipe) {
+        Map<Identifier, T> found = new HashMap<>();
+        Set<Identifier> missing = new LinkedHashSet<>(ids);
+
+        for (int index : order()) {
+            if (missing.isEmpty()) {
+                break;
+            }
+            if (!allowed(index)) {
+                continue;
+            }
+
+            Metastore delegate = this.delegates.get(index);
+            List<Identifier> candidates = missing.stream()
+                    .filter(id -> delegate.mightContain(id, tipe))
+                    .collect(Collectors.toList());
+            if (candidates.isEmpty()) {
+                continue;
+            }
+
+            Map<Identifier, T> batch = guarded(index, () -> delegate.readMany(candidates, tipe), Collections.emptyMap());
+            found.putAll(batch);
+            missing.removeAll(batch.keySet());
+        }
+
+        // Restore the caller's ordering
+        Map<Identifier, T> results = new LinkedHashMap<>();
+        ids.stream()
+                .filter(found::containsKey)
+                .forEach(id -> results.putIfAbsent(id, found.get(id)));
+
+        return results;
     }
 
     /**
-     * Reads all objects of the specified type from all delegates.
+     * Reads all objects of the specified type from all delegates, each object from the earliest delegate that has it.
      *
      * @param tipe the class type of the objects to be read
      * @param <T> the type of the objects to be read
-     * @return a list of all objects found
+     * @return a list of all objects found, in delegate order
      */
     public <T> List<T> readAll(Class<T> tipe) {
-        // Stream through delegates and collect all results into a list
-        return this.delegates.stream()
-                .flatMap(delegate -> delegate.readAll(tipe).stream())
-                .collect(Collectors.toList());
+        return merge(tipe, new String[0], delegate -> delegate.readAll(tipe));
+    }
+
+    /**
+     * Reads all objects of the specified type under a domain prefix from all delegates, each object from the earliest
+     * delegate that has it.
+     *
+     * @param tipe the class type of the objects to be read
+     * @param domainPrefix the leading domain segments to restrict the read to
+     * @param <T> the type of the objects to be read
+     * @return a list of all objects found under the domain prefix, in delegate order
+     */
+    @Override
+    public <T> List<T> readAll(Class<T> tipe, String[] domainPrefix) {
+        return merge(tipe, domainPrefix, delegate -> delegate.readAll(tipe, domainPrefix));
+    }
+
+    /**
+     * Lists the Identifiers held by any delegate, in delegate order and without duplicates.
+     *
+     * @param tipe the class type of the objects to be listed
+     * @param domainPrefix the leading domain segments to restrict the listing to
+     * @return an Optional containing the Identifiers, or an empty Optional if a delegate cannot list them
+     */
+    @Override
+    public Optional<List<Identifier>> listIds(Class<?> tipe, String[] domainPrefix) {
+        Map<Integer, Optional<List<Identifier>>> winners = winners(tipe, domainPrefix);
+        if (winners.values().stream().anyMatch(Optional::isEmpty)) {
+            return Optional.empty();
+        }
+
+        return Optional.of(winners.values().stream()
+                .flatMap(ids -> ids.get().stream())
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Streams all objects of the specified type from all delegates, one delegate after another, each object from the
+     * earliest delegate that has it. Nothing is listed or read before the stream is consumed: the delegates are then
+     * listed to decide the winner of every Identifier, and the objects won by a delegate are read on the executor in
+     * chunks of STREAM_CHUNK_SIZE as the stream reaches them, so stopping early or closing the stream stops the reads.
+     * Delegates that cannot list their Identifiers are streamed as a whole, so their objects are not deduplicated
+     * against the other delegates. Closing the returned stream closes their streams.
+     *
+     * @param tipe the class type of the objects to be read
+     * @param <T> the type of the objects to be read
+     * @return a lazily populated stream of all objects found
+     */
+    @Override
+    public <T> Stream<T> stream(Class<T> tipe) {
+        return Stream.of(tipe)
+                .flatMap(t -> winners(t, new String[0]).entrySet().stream())
+                .flatMap(entry -> {
+                    int index = entry.getKey();
+                    Metastore delegate = this.delegates.get(index);
+                    if (entry.getValue().isEmpty()) {
+                        return guarded(index, () -> delegate.stream(tipe), Stream.<T>empty());
+                    }
+
+                    List<Identifier> ids = entry.getValue().get();
+                    return IntStream.iterate(0, from -> from < ids.size(), from -> from + STREAM_CHUNK_SIZE)
+                            .boxed()
+                            .flatMap(from -> readWon(index, ids.subList(from, Math.min(from + STREAM_CHUNK_SIZE, ids.size())), tipe)
+                                    .join()
+                                    .stream());
+                });
+    }
+
+    /**
+     * Reads one page of objects of the specified type.
+     *
+     * When every delegate can list its Identifiers, the pages follow the order of Identifiers over all delegates, each
+     * object read from the earliest delegate that has it, and the continuation token is the last Identifier of the
+     * page. Every page asks each delegate concurrently for the Identifiers that follow the token, one more than the
+     * page holds, merges them, and reads the objects of the page from the delegates that won them.
+     *
+     * Otherwise the pages go through the delegates one after another, without deduplication, and the continuation
+     * token records the index of the delegate to resume from followed by that delegate's own token, so later pages
+     * never rescan earlier delegates.
+     *
+     * @param tipe the class type of the objects to be read
+     * @param limit the maximum number of objects in the page
+     * @param continuationToken the token of the previous page, or null to start from the beginning
+     * @param <T> the type of the objects to be read
+     * @return the page of objects, with a continuation token unless it is the last page
+     */
+    @Override
+    public <T> Page<T> readPage(Class<T> tipe, int limit, String continuationToken) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Page limit must be positive: " + limit);
+        }
+
+        boolean merged = continuationToken != null && continuationToken.startsWith(MERGED_TOKEN);
+        if (continuationToken == null || merged) {
+            Identifier after = merged ? Page.identifierOf(continuationToken.substring(MERGED_TOKEN.length())) : null;
+            Map<Integer, Optional<List<Identifier>>> windows = listAfter(tipe, after, limit + 1);
+            if (windows.values().stream().allMatch(Optional::isPresent)) {
+                return readMergedPage(windows, tipe, limit);
+            }
+            if (merged) {
+                throw new IllegalArgumentException("Invalid continuation token, the delegates cannot list their Identifiers: " + continuationToken);
+            }
+        }
+
+        int index = 0;
+        String delegateToken = null;
+
+        if (continuationToken != null) {
+            int separator = continuationToken.indexOf(':');
+            index = Integer.parseInt(separator < 0 ? continuationToken : continuationToken.substring(0, separator));
+            delegateToken = separator < 0 || separator == continuationToken.length() - 1
+                    ? null
+                    : continuationToken.substring(separator + 1);
+        }
+
+        List<T> items = new ArrayList<>();
+
+        while (index < this.delegates.size()) {
+            // Delegates left out by their circuit breaker are skipped
+            Metastore delegate = this.delegates.get(index);
+            int remaining = limit - items.size();
+            String token = delegateToken;
+            Page<T> page = allowed(index)
+                    ? guarded(index, () -> delegate.readPage(tipe, remaining, token), new Page<>(null, null))
+                    : new Page<>(null, null);
+            items.addAll(page.items());
+
+            if (page.hasNext()) {
+                delegateToken = page.continuationToken().get();
+            } else {
+                delegateToken = null;
+                index++;
+            }
+
+            if (items.size() >= limit) {
+                break;
+            }
+        }
+
+        String next = index < this.delegates.size()
+                ? index + ":" + (delegateToken == null ? "" : delegateToken)
+                : null;
+
+        return new Page<>(items, next);
     }
 
     /**
-     * Writes an object to the Metastore. This operation is not supported for FederatedMetastore.
+     * Writes an object according to the write policy.
      *
      * @param id the Identifier of the object to be written
      * @param data the object to be written
      * @param <T> the type of the object to be written
-     * @return an Optional containing a message indicating that the operation is not supported
+     * @return an Optional containing an error message, or an empty Optional if the write succeeded
      */
     public <T> Optional<String> write(Identifier id, T data) {
-        return Optional.of("Write is not supported for FederatedMetastore.");
+        return writeAll(Collections.singletonMap(id, data));
+    }
+
+    /**
+     * Writes a batch of objects according to the write policy. With asynchronous replication, the batch is only
+     * replicated if the primary stored it successfully.
+     *
+     * @param objects the objects to be written, keyed by their Identifier
+     * @return an Optional containing an error message, or an empty Optional if the write succeeded
+     */
+    @Override
+    public Optional<String> writeAll(Map<Identifier, ?> objects) {
+        if (writePolicy == WritePolicy.REJECT || this.delegates.isEmpty()) {
+            return Optional.of("Write is not supported for FederatedMetastore.");
+        }
+
+        switch (writePolicy) {
+            case QUORUM:
+                return quorum(delegate -> delegate.writeAll(objects));
+            case PRIMARY_ASYNC_REPLICATION:
+                Optional<String> result = primary().writeAll(objects);
+                return result.isPresent() ? result : replicate(replicator -> replicator.enqueueWrites(objects));
+            default:
+                return primary().writeAll(objects);
+        }
     }
 
     /**
-     * Deletes an object by its Identifier from all delegates.
+     * Deletes an object by its Identifier according to the write policy.
      *
      * @param id the Identifier of the object to be deleted
      * @return an Optional containing the result of the delete operations, or an empty Optional if no deletions occurred
      */
     @Override
     public Optional<String> delete(Identifier id) {
+        if (writePolicy == WritePolicy.QUORUM || writePolicy == WritePolicy.PRIMARY_ASYNC_REPLICATION) {
+            return deleteAll(Collections.singletonList(id));
+        }
+
         // Stream through delegates and collect non-empty results into a single string
         String result = this.delegates.stream()
                 .map(delegate -> delegate.delete(id))
@@ -96,6 +498,435 @@ public class FederatedMetastore implements Metastore {
         return result.isEmpty() ? Optional.empty() : Optional.of(result);
     }
 
+    /**
+     * Deletes a batch of objects by their Identifiers according to the write policy. By default, the whole batch is
+     * passed to each delegate. With asynchronous replication, the deletes are replicated even if the primary did not
+     * have the objects, since the other delegates may still have them.
+     *
+     * @param ids the Identifiers of the objects to be deleted
+     * @return an Optional containing the result of the delete operations, or an empty Optional if no deletions occurred
+     */
+    @Override
+    public Optional<String> deleteAll(Collection<Identifier> ids) {
+        if (writePolicy == WritePolicy.QUORUM) {
+            return quorum(delegate -> delegate.deleteAll(ids));
+        }
+        if (writePolicy == WritePolicy.PRIMARY_ASYNC_REPLICATION && !this.delegates.isEmpty()) {
+            Optional<String> result = primary().deleteAll(ids);
+            return Metastore.joinResults(Stream.of(result, replicate(replicator -> replicator.enqueueDeletes(ids))));
+        }
+
+        return Metastore.joinResults(this.delegates.stream()
+                .map(delegate -> delegate.deleteAll(ids)));
+    }
+
+    /**
+     * Returns the replication lag, i.e. how long the oldest change not yet replicated to every delegate has been
+     * waiting. It is always zero unless the write policy is PRIMARY_ASYNC_REPLICATION.
+     *
+     * @return the replication lag of the most lagging delegate
+     */
+    public Duration replicationLag() {
+        return this.replicators.stream()
+                .map(Replicator::lag)
+                .max(Duration::compareTo)
+                .orElse(Duration.ZERO);
+    }
+
+    /**
+     * Returns the number of changes waiting to be replicated, summed over the delegates.
+     *
+     * @return the replication backlog
+     */
+    public int replicationBacklog() {
+        return this.replicators.stream()
+                .mapToInt(Replicator::backlog)
+                .sum();
+    }
+
+    /**
+     * Stops the replication threads. Changes not yet replicated are dropped, so callers wanting them applied should
+     * wait for the replication backlog to drain first.
+     */
+    @Override
+    public void close() {
+        this.replicators.forEach(Replicator::close);
+    }
+
+    private Metastore primary() {
+        return this.delegates.get(0);
+    }
+
+    /**
+     * Runs a write on every delegate concurrently and returns once a majority including the primary succeeded, or
+     * can no longer succeed. The primary is required since reads give it precedence.
+     *
+     * @param call the write to run on a delegate
+     * @return an Optional containing the errors if no such majority succeeded, or an empty Optional otherwise
+     */
+    private Optional<String> quorum(Function<Metastore, Optional<String>> call) {
+        if (this.delegates.isEmpty()) {
+            return Optional.of("Write is not supported for FederatedMetastore.");
+        }
+
+        int needed = this.delegates.size() / 2 + 1;
+        int tolerated = this.delegates.size() - needed;
+        AtomicInteger acknowledged = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        CompletableFuture<Void> decided = new CompletableFuture<>();
+        List<CompletableFuture<Optional<String>>> writes = new ArrayList<>();
+
+        for (Metastore delegate : this.delegates) {
+            boolean isPrimary = writes.isEmpty();
+            writes.add(CompletableFuture.supplyAsync(() -> call.apply(delegate), bulkExecutor())
+                    .handle((result, error) -> error != null ? Optional.of(error.toString()) : result)
+                    .whenComplete((result, error) -> {
+                        if (result.isEmpty()) {
+                            if (acknowledged.incrementAndGet() == needed) {
+                                decided.complete(null);
+                            }
+                        } else {
+                            errors.add(result.get());
+                            if (failed.incrementAndGet() > tolerated || isPrimary) {
+                                decided.complete(null);
+                            }
+                        }
+                    }));
+        }
+
+        decided.join();
+        Optional<String> primaryResult = writes.get(0).join();
+        if (primaryResult.isPresent()) {
+            return Optional.of("Write to the primary failed: " + primaryResult.get());
+        }
+        if (acknowledged.get() >= needed) {
+            return Optional.empty();
+        }
+
+        synchronized (errors) {
+            return Optional.of("Write quorum of " + needed + " delegates not reached:\n" + String.join("\n", errors));
+        }
+    }
+
+    /**
+     * Queues a change for replication to every delegate but the primary.
+     *
+     * @return an Optional containing an error message if interrupted while waiting for room in a queue
+     */
+    private Optional<String> replicate(ReplicationTask task) {
+        try {
+            for (Replicator replicator : this.replicators) {
+                task.enqueue(replicator);
+            }
+            return Optional.empty();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Optional.of("Interrupted while queueing changes for replication");
+        }
+    }
+
+    @FunctionalInterface
+    private interface ReplicationTask {
+        void enqueue(Replicator replicator) throws InterruptedException;
+    }
+
+    /**
+     * Returns the first result found, in order of precedence, querying the delegates in parallel if there is an executor.
+     * Delegates that definitely lack the object are skipped.
+     *
+     * @param id the Identifier of the object looked up
+     * @param tipe the class type of the object looked up
+     * @param call the lookup to run on a delegate
+     * @param executor the executor running the lookups, or null to query the delegates one after another
+     * @param <V> the type of the result
+     * @return the result of the first delegate that has one, or an empty Optional
+     */
+    private <V> Optional<V> lookup(Identifier id, Class<?> tipe, Function<Metastore, Optional<V>> call, Executor executor) {
+        if (executor == null) {
+            for (int index : order()) {
+                if (!this.delegates.get(index).mightContain(id, tipe) || !allowed(index)) {
+                    continue;
+                }
+
+                long start = System.nanoTime();
+                try {
+                    Optional<V> found = call.apply(this.delegates.get(index));
+                    recordCall(index, System.nanoTime() - start, null);
+                    if (found.isPresent()) {
+                        return found;
+                    }
+                } catch (RuntimeException e) {
+                    recordCall(index, System.nanoTime() - start, e);
+                }
+            }
+            return Optional.empty();
+        }
+
+        CompletableFuture<Optional<V>> found = lookupAsync(id, tipe, call, executor);
+        try {
+            return found.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        } catch (ExecutionException | CancellationException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Looks up an object on the delegates in parallel without waiting for them. The returned future chains the
+     * answers in order of precedence, so it completes with the result of the first delegate that has one as soon as
+     * the earlier delegates have missed. Only the requests to the delegates run on the executor, so a bounded
+     * executor cannot deadlock on lookups waiting for each other.
+     *
+     * @param id the Identifier of the object looked up
+     * @param tipe the class type of the object looked up
+     * @param call the lookup to run on a delegate
+     * @param executor the executor running the requests to the delegates
+     * @param <V> the type of the result
+     * @return a future of the result of the first delegate that has one, or of an empty Optional
+     */
+    private <V> CompletableFuture<Optional<V>> lookupAsync(Identifier id, Class<?> tipe, Function<Metastore, Optional<V>> call, Executor executor) {
+        List<Lookup<V>> lookups = new ArrayList<>();
+        for (int index : order()) {
+            if (this.delegates.get(index).mightContain(id, tipe) && allowed(index)) {
+                Lookup<V> lookup = new Lookup<>(index, call, executor);
+                lookup.launch();
+                lookups.add(lookup);
+            }
+        }
+
+        CompletableFuture<Optional<V>> found = CompletableFuture.completedFuture(Optional.empty());
+        for (Lookup<V> lookup : lookups) {
+            found = found.thenCompose(value -> value.isPresent() ? CompletableFuture.completedFuture(value) : lookup.result);
+        }
+
+        return found.whenComplete((value, e) -> lookups.forEach(Lookup::cancel));
+    }
+
+    /**
+     * Reads the objects won by each delegate concurrently, falling back to a full read of the delegates that cannot
+     * list their Identifiers, and concatenates the results in order of precedence.
+     */
+    private <T> List<T> merge(Class<T> tipe, String[] domainPrefix, Function<Metastore, List<T>> readAll) {
+        List<CompletableFuture<List<T>>> reads = new ArrayList<>();
+        winners(tipe, domainPrefix).forEach((index, ids) -> {
+            Metastore delegate = this.delegates.get(index);
+            reads.add(ids.isPresent()
+                    ? readWon(index, ids.get(), tipe)
+                    : CompletableFuture.supplyAsync(() -> guarded(index, () -> readAll.apply(delegate), Collections.emptyList()), bulkExecutor()));
+        });
+
+        return reads.stream()
+                .flatMap(read -> read.join().stream())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Reads the objects won by a delegate in one batch on the executor, in the order of their Identifiers.
+     */
+    private <T> CompletableFuture<List<T>> readWon(int index, List<Identifier> ids, Class<T> tipe) {
+        Metastore delegate = this.delegates.get(index);
+        return CompletableFuture.supplyAsync(() -> guarded(index,
+                () -> new ArrayList<>(delegate.readMany(ids, tipe).values()), Collections.emptyList()), bulkExecutor());
+    }
+
+    /**
+     * Lists the Identifiers that follow an Identifier in every available delegate concurrently.
+     *
+     * @return the Identifiers listed by each available delegate, or an empty Optional if it cannot list them,
+     *         keyed by delegate index in order of precedence
+     */
+    private Map<Integer, Optional<List<Identifier>>> listAfter(Class<?> tipe, Identifier after, int limit) {
+        Map<Integer, CompletableFuture<Optional<List<Identifier>>>> listings = new LinkedHashMap<>();
+        for (int index : order()) {
+            if (allowed(index)) {
+                Metastore delegate = this.delegates.get(index);
+                listings.put(index, CompletableFuture.supplyAsync(() -> guarded(index,
+                        () -> delegate.listIdsAfter(tipe, after, limit), Optional.of(Collections.<Identifier>emptyList())), bulkExecutor()));
+            }
+        }
+
+        Map<Integer, Optional<List<Identifier>>> windows = new LinkedHashMap<>();
+        listings.forEach((index, listing) -> windows.put(index, listing.join()));
+        return windows;
+    }
+
+    /**
+     * Reads a page from the Identifiers each delegate listed after the token, merging them in the order of Identifiers.
+     * Every delegate listed one more Identifier than the page holds, so a delegate holding an Identifier of the page
+     * has listed it, and only those Identifiers need their winner settled.
+     */
+    private <T> Page<T> readMergedPage(Map<Integer, Optional<List<Identifier>>> windows, Class<T> tipe, int limit) {
+        // One extra Identifier tells whether there is a following page
+        List<Identifier> merged = windows.values().stream()
+                .flatMap(ids -> ids.get().stream())
+                .distinct()
+                .sorted(Page.ORDER)
+                .limit(limit + 1L)
+                .collect(Collectors.toList());
+        List<Identifier> taken = merged.subList(0, Math.min(limit, merged.size()));
+
+        Map<Integer, List<Identifier>> byDelegate = new LinkedHashMap<>();
+        Set<Identifier> assigned = new HashSet<>();
+        windows.forEach((index, ids) -> {
+            Set<Identifier> listed = new HashSet<>(ids.get());
+            List<Identifier> won = taken.stream()
+                    .filter(id -> listed.contains(id) && assigned.add(id))
+                    .collect(Collectors.toList());
+            if (!won.isEmpty()) {
+                byDelegate.put(index, won);
+            }
+        });
+
+        Map<Integer, CompletableFuture<Map<Identifier, T>>> reads = new LinkedHashMap<>();
+        byDelegate.forEach((index, ids) -> reads.put(index, CompletableFuture.supplyAsync(() -> guarded(index,
+                () -> this.delegates.get(index).readMany(ids, tipe), Collections.<Identifier, T>emptyMap()), bulkExecutor())));
+
+        Map<Identifier, T> found = new HashMap<>();
+        reads.values().forEach(read -> found.putAll(read.join()));
+        List<T> items = taken.stream()
+                .filter(found::containsKey)
+                .map(found::get)
+                .collect(Collectors.toList());
+
+        return new Page<>(items, merged.size() > limit ? MERGED_TOKEN + Page.tokenOf(taken.get(limit - 1)) : null);
+    }
+
+    /**
+     * Lists the Identifiers of every available delegate concurrently, and assigns each Identifier to the first
+     * delegate listing it in order of precedence.
+     *
+     * @return the Identifiers won by each available delegate, or an empty Optional if it cannot list them,
+     *         keyed by delegate index in order of precedence
+     */
+    private Map<Integer, Optional<List<Identifier>>> winners(Class<?> tipe, String[] domainPrefix) {
+        Map<Integer, CompletableFuture<Optional<List<Identifier>>>> listings = new LinkedHashMap<>();
+        for (int index : order()) {
+            if (allowed(index)) {
+                Metastore delegate = this.delegates.get(index);
+                listings.put(index, CompletableFuture.supplyAsync(() -> guarded(index,
+                        () -> delegate.listIds(tipe, domainPrefix), Optional.of(Collections.<Identifier>emptyList())), bulkExecutor()));
+            }
+        }
+
+        Set<Identifier> assigned = new HashSet<>();
+        Map<Integer, Optional<List<Identifier>>> winners = new LinkedHashMap<>();
+        listings.forEach((index, listing) -> winners.put(index, listing.join().map(ids -> ids.stream()
+                .filter(assigned::add)
+                .collect(Collectors.toList()))));
+
+        return winners;
+    }
+
+    /**
+     * Returns the indices of the delegates in the order they are queried: by precedence, and by median latency
+     * among delegates of equal precedence. When writes go through the primary, it always comes first, so that a
+     * written object is read back from it rather than from a delegate that has not caught up.
+     */
+    private List<Integer> order() {
+        if (precedence == null) {
+            return order;
+        }
+
+        long now = System.nanoTime();
+        List<Integer> current = order;
+        if (orderedAt != 0 && now - orderedAt < ORDER_REFRESH_NANOS) {
+            return current;
+        }
+
+        // Delegates without enough samples yet sort first, so that they get measured
+        long[] medians = latencies.stream().mapToLong(tracker -> tracker.percentile(50)).toArray();
+        boolean primaryFirst = writePolicy != WritePolicy.REJECT;
+        current = IntStream.range(0, this.delegates.size())
+                .boxed()
+                .sorted(Comparator.<Integer>comparingInt(i -> primaryFirst && i == 0 ? 0 : 1)
+                        .thenComparingInt(i -> precedence[i])
+                        .thenComparingLong(i -> medians[i]))
+                .collect(Collectors.toList());
+
+        order = current;
+        orderedAt = now;
+        return current;
+    }
+
+    private boolean allowed(int index) {
+        CircuitBreaker breaker = breakers.get(index);
+        return breaker == null || breaker.allowRequest();
+    }
+
+    /**
+     * Records the latency or failure of a lookup on a delegate. An error is only logged when it opens the circuit
+     * breaker of the delegate, or if the delegate has none.
+     */
+    private void recordCall(int index, long nanos, RuntimeException error) {
+        if (error == null) {
+            latencies.get(index).record(nanos);
+        }
+
+        CircuitBreaker breaker = breakers.get(index);
+        boolean opened = breaker != null && breaker.record(nanos, error != null);
+        if (error != null && (breaker == null || opened)) {
+            error.printStackTrace();
+        }
+        if (opened) {
+            System.err.println("Circuit breaker opened for delegate " + index + " of FederatedMetastore");
+        }
+    }
+
+    /**
+     * Runs a bulk call on a delegate, recording only whether it failed, since its duration says nothing about
+     * the latency of lookups.
+     *
+     * @return the result of the call, or the fallback if it failed
+     */
+    private <R> R guarded(int index, Supplier<R> call, R fallback) {
+        try {
+            R result = call.get();
+            recordCall(index, 0, null);
+            return result;
+        } catch (RuntimeException e) {
+            recordCall(index, 0, e);
+            return fallback;
+        }
+    }
+
+    private Executor bulkExecutor() {
+        return executor == null ? ExecutorAsyncMetastore.defaultExecutor() : executor;
+    }
+
+    /**
+     * Returns a percentile of the recent lookup latencies of a delegate.
+     *
+     * @param delegate the index of the delegate
+     * @param percentile the percentile, between 0 and 100
+     * @return an Optional containing the latency, or an empty Optional if too few lookups were measured
+     */
+    public Optional<Duration> latency(int delegate, double percentile) {
+        long nanos = latencies.get(delegate).percentile(percentile);
+        return nanos < 0 ? Optional.empty() : Optional.of(Duration.ofNanos(nanos));
+    }
+
+    /**
+     * Returns the circuit breaker of a delegate, to report its state and error rate.
+     *
+     * @param delegate the index of the delegate
+     * @return an Optional containing the circuit breaker, or an empty Optional if the delegate has none
+     */
+    public Optional<CircuitBreaker> circuitBreaker(int delegate) {
+        return Optional.ofNullable(breakers.get(delegate));
+    }
+
+    /**
+     * Returns the delegates, in order of precedence.
+     *
+     * @return the list of Metastore delegates
+     */
+    List<Metastore> getDelegates() {
+        return this.delegates;
+    }
+
     /**
      * Creates a new instance of FederatedMetastore with the provided list of delegates.
      *
@@ -105,4 +936,179 @@ public class FederatedMetastore implements Metastore {
     public static FederatedMetastore newInstance(List<Metastore> delegates) {
         return new FederatedMetastore(delegates);
     }
+
+    /**
+     * Settings of a FederatedMetastore, all optional but the delegates.
+     */
+    public static class Builder {
+        private final List<Metastore> delegates;
+        private int[] precedence;
+        private Supplier<CircuitBreaker> circuitBreakers;
+        private Executor executor;
+        private double hedgePercentile;
+        private WritePolicy writePolicy = WritePolicy.REJECT;
+        private int replicationCapacity = Replicator.DEFAULT_CAPACITY;
+        private int replicationBatchSize = Replicator.DEFAULT_BATCH_SIZE;
+        private Duration replicationRetryDelay = Replicator.DEFAULT_RETRY_DELAY;
+
+        private Builder(List<Metastore> delegates) {
+            this.delegates = delegates;
+        }
+
+        /**
+         * Sets the precedence level of each delegate. Delegates with equal precedence are ordered by latency.
+         *
+         * @param precedence the precedence level of each delegate, lower first, or null to follow the order of the delegates
+         * @return this builder
+         */
+        public Builder precedence(int... precedence) {
+            this.precedence = precedence;
+            return this;
+        }
+
+        /**
+         * Guards every delegate with its own circuit breaker.
+         *
+         * @param circuitBreakers creates the circuit breaker of each delegate, e.g. CircuitBreaker::new, or null for none
+         * @return this builder
+         */
+        public Builder circuitBreakers(Supplier<CircuitBreaker> circuitBreakers) {
+            this.circuitBreakers = circuitBreakers;
+            return this;
+        }
+
+        /**
+         * Queries the delegates in parallel.
+         *
+         * @param executor the executor running the lookups, e.g. ExecutorAsyncMetastore.defaultExecutor(),
+         *                 or null to query the delegates one after another
+         * @return this builder
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Issues a parallel lookup again when a delegate is slower than usual.
+         *
+         * @param hedgePercentile the percentile of a delegate's recent latencies after which a slow lookup is issued
+         *                        again, e.g. 95, or 0 to never hedge
+         * @return this builder
+         */
+        public Builder hedgePercentile(double hedgePercentile) {
+            this.hedgePercentile = hedgePercentile;
+            return this;
+        }
+
+        /**
+         * Sets how writes and deletes are applied to the delegates.
+         *
+         * @param writePolicy the write policy
+         * @return this builder
+         */
+        public Builder writePolicy(WritePolicy writePolicy) {
+            this.writePolicy = writePolicy;
+            return this;
+        }
+
+        /**
+         * Sets the replication of the PRIMARY_ASYNC_REPLICATION write policy.
+         *
+         * @param capacity the maximum number of changes queued for each replicated delegate
+         * @param batchSize the maximum number of changes sent to a replicated delegate at once
+         * @param retryDelay the delay before retrying a failed replication, doubled at each attempt
+         * @return this builder
+         */
+        public Builder replication(int capacity, int batchSize, Duration retryDelay) {
+            this.replicationCapacity = capacity;
+            this.replicationBatchSize = batchSize;
+            this.replicationRetryDelay = retryDelay;
+            return this;
+        }
+
+        /**
+         * Creates the FederatedMetastore.
+         *
+         * @return a new FederatedMetastore
+         * @throws IllegalArgumentException if the precedence levels do not match the delegates
+         */
+        public FederatedMetastore build() {
+            return new FederatedMetastore(this);
+        }
+    }
+
+    /**
+     * Lookup on one delegate, made of its first request and possibly a hedged one, whichever answers first.
+     */
+    private class Lookup<V> {
+        private final int index;
+        private final Function<Metastore, Optional<V>> call;
+        private final Executor executor;
+        private final CompletableFuture<Optional<V>> result = new CompletableFuture<>();
+        private final List<FutureTask<Void>> requests = new ArrayList<>();
+        private long launchedAt;
+        private boolean cancelled;
+
+        Lookup(int index, Function<Metastore, Optional<V>> call, Executor executor) {
+            this.index = index;
+            this.call = call;
+            this.executor = executor;
+        }
+
+        /**
+         * Issues the first request to the delegate, and schedules a hedged one for when it is slower than usual.
+         * A delegate that fails counts as not having the object, so the next delegates can still answer.
+         */
+        void launch() {
+            launchedAt = System.nanoTime();
+            request();
+
+            long delay = hedgePercentile > 0 ? latencies.get(index).percentile(hedgePercentile) : -1;
+            if (delay >= 0) {
+                CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS, executor).execute(this::hedge);
+            }
+        }
+
+        /**
+         * Issues the request again if the first one has not answered and the lookup is still needed.
+         */
+        private synchronized void hedge() {
+            if (!cancelled && !result.isDone()) {
+                request();
+            }
+        }
+
+        private synchronized void request() {
+            FutureTask<Void> request = new FutureTask<>(() -> {
+                long start = System.nanoTime();
+                try {
+                    Optional<V> value = call.apply(delegates.get(index));
+                    recordCall(index, System.nanoTime() - start, null);
+                    result.complete(value);
+                } catch (RuntimeException e) {
+                    recordCall(index, System.nanoTime() - start, e);
+                    result.complete(Optional.empty());
+                }
+            }, null);
+
+            requests.add(request);
+            executor.execute(request);
+        }
+
+        /**
+         * Cancels the requests that have not started yet. Running requests are left to finish and their answer is
+         * ignored: interrupting them would close the FileChannel they read, which VersionedMetastore and
+         * SegmentMetastore share between calls.
+         * A request abandoned while already slow still counts against the circuit breaker of the delegate.
+         */
+        synchronized void cancel() {
+            cancelled = true;
+            CircuitBreaker breaker = breakers.get(index);
+            if (!result.isDone() && breaker != null && breaker.recordAbandoned(System.nanoTime() - launchedAt)) {
+                System.err.println("Circuit breaker opened for slow delegate " + index + " of FederatedMetastore");
+            }
+            requests.forEach(request -> request.cancel(false));
+        }
+    }
 }
\ No newline at end of file
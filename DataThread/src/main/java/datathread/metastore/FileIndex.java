@@ -0,0 +1,300 @@
+package datathread.metastore;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * On-disk index of the files of a FileMetastore, so that listing a type does not need to walk the directory tree.
+ *
+ * The index lives in the ".index" folder of the base directory and holds one file per file style (e.g. element.idx),
+ * listing the files of that style in every StorageEncoding.
+ * Each file is an append-only log of lines "+path" and "-path", where path is the file of an object relative to
+ * the base directory with '/' separators. Replaying the log gives the current set of files of the type.
+ * When removals make a log much longer than the set it describes, it is rewritten in compacted form.
+ *
+ * The index only knows about changes made through the FileMetastore that owns it. If files are added or removed
+ * by other means, call rebuild to resynchronize it with a single scan.
+ */
+class FileIndex {
+    /**
+     * Name of the folder holding the index files, relative to the base directory.
+     */
+    static final String INDEX_FOLDER = ".index";
+
+    private static final String INDEX_SUFFIX = ".idx";
+
+    /**
+     * Number of stale lines tolerated in a log before it is compacted.
+     */
+    private static final int COMPACTION_SLACK = 1024;
+
+    private final Path baseDir;
+    private final Path indexDir;
+
+    /**
+     * Loaded entries by file style, guarded by this.
+     */
+    private final Map<String, NavigableSet<String>> entries = new HashMap<>();
+
+    /**
+     * Number of lines in each loaded log, guarded by this.
+     */
+    private final Map<String, Integer> logLines = new HashMap<>();
+
+    /**
+     * Constructor to initialize the index of a base directory.
+     * If no index exists yet, one is built from a scan on first use.
+     *
+     * @param baseDir the base directory of the FileMetastore
+     */
+    FileIndex(Path baseDir) {
+        this.baseDir = baseDir;
+        this.indexDir = baseDir.resolve(INDEX_FOLDER);
+    }
+
+    /**
+     * Lists the files of a file style, optionally restricted to a folder.
+     *
+     * @param fileStyle the file style of the type
+     * @param folder the folder to restrict the listing to, which must be the base directory or below it
+     * @return the absolute paths of the indexed files, sorted by relative path
+     */
+    synchronized List<Path> list(String fileStyle, Path folder) {
+        String prefix = folder.equals(baseDir) ? "" : toRelative(folder) + "/";
+        NavigableSet<String> paths = load(fileStyle);
+        Collection<String> matching = prefix.isEmpty()
+                ? paths
+                : paths.subSet(prefix, true, prefix + Character.MAX_VALUE, false);
+
+        return matching.stream()
+                .map(this::toAbsolute)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Records that files were written.
+     *
+     * @param files the absolute paths of the files written
+     */
+    synchronized void added(Collection<Path> files) {
+        record(files, '+');
+    }
+
+    /**
+     * Records that files were deleted.
+     *
+     * @param files the absolute paths of the files deleted
+     */
+    synchronized void removed(Collection<Path> files) {
+        record(files, '-');
+    }
+
+    /**
+     * Discards the index and rebuilds it from a scan of the base directory.
+     *
+     * @throws IOException if the base directory cannot be scanned or the index cannot be written
+     */
+    synchronized void rebuild() throws IOException {
+        Map<String, NavigableSet<String>> scanned = new HashMap<>();
+
+        if (Files.isDirectory(baseDir)) {
+            try (Stream<Path> files = Files.walk(baseDir)) {
+                files.filter(path -> !path.startsWith(indexDir))
+                        .filter(Files::isRegularFile)
+                        .forEach(path -> {
+                            String fileStyle = fileStyleOf(path.getFileName().toString());
+                            if (fileStyle != null) {
+                                scanned.computeIfAbsent(fileStyle, style -> new TreeSet<>()).add(toRelative(path));
+                            }
+                        });
+            }
+        }
+
+        Files.createDirectories(indexDir);
+        try (Stream<Path> stale = Files.list(indexDir)) {
+            for (Path file : stale.collect(Collectors.toList())) {
+                if (!scanned.containsKey(styleOfIndexFile(file))) {
+                    Files.delete(file);
+                }
+            }
+        }
+
+        entries.clear();
+        logLines.clear();
+        for (Map.Entry<String, NavigableSet<String>> entry : scanned.entrySet()) {
+            entries.put(entry.getKey(), entry.getValue());
+            compact(entry.getKey());
+        }
+    }
+
+    /**
+     * Returns the entries of a file style, reading its log on first use.
+     * A missing index folder means the index was never built, so a scan is done; a missing log in an existing
+     * index folder means there are no files of that style.
+     *
+     * @param fileStyle the file style
+     * @return the relative paths of the files of that style
+     */
+    private NavigableSet<String> load(String fileStyle) {
+        NavigableSet<String> loaded = entries.get(fileStyle);
+        if (loaded != null) {
+            return loaded;
+        }
+
+        try {
+            if (!Files.isDirectory(indexDir)) {
+                rebuild();
+                return entries.computeIfAbsent(fileStyle, style -> new TreeSet<>());
+            }
+
+            NavigableSet<String> paths = new TreeSet<>();
+            int lines = 0;
+            Path log = indexFile(fileStyle);
+
+            if (Files.exists(log)) {
+                for (String line : Files.readAllLines(log, StandardCharsets.UTF_8)) {
+                    if (line.length() < 2) {
+                        continue;
+                    }
+                    if (line.charAt(0) == '+') {
+                        paths.add(line.substring(1));
+                    } else if (line.charAt(0) == '-') {
+                        paths.remove(line.substring(1));
+                    }
+                    lines++;
+                }
+            }
+
+            entries.put(fileStyle, paths);
+            logLines.put(fileStyle, lines);
+            return paths;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new TreeSet<>();
+        }
+    }
+
+    /**
+     * Applies and appends a change for a set of files, grouped by file style.
+     *
+     * @param files the absolute paths of the changed files
+     * @param op '+' for files written, '-' for files deleted
+     */
+    private void record(Collection<Path> files, char op) {
+        Map<String, List<String>> byStyle = new HashMap<>();
+        files.forEach(path -> {
+            String fileStyle = fileStyleOf(path.getFileName().toString());
+            if (fileStyle != null) {
+                byStyle.computeIfAbsent(fileStyle, style -> new ArrayList<>()).add(toRelative(path));
+            }
+        });
+
+        byStyle.forEach((fileStyle, paths) -> {
+            NavigableSet<String> current = load(fileStyle);
+            List<String> changes = paths.stream()
+                    .filter(path -> op == '+' ? current.add(path) : current.remove(path))
+                    .collect(Collectors.toList());
+
+            if (changes.isEmpty()) {
+                return;
+            }
+
+            try {
+                Files.createDirectories(indexDir);
+                try (BufferedWriter writer = Files.newBufferedWriter(indexFile(fileStyle), StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    for (String path : changes) {
+                        writer.write(op);
+                        writer.write(path);
+                        writer.newLine();
+                    }
+                }
+
+                int lines = logLines.merge(fileStyle, changes.size(), Integer::sum);
+                if (lines > 2 * current.size() + COMPACTION_SLACK) {
+                    compact(fileStyle);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Rewrites the log of a file style with only its current entries, replacing the old log atomically.
+     *
+     * @param fileStyle the file style
+     * @throws IOException if the log cannot be written
+     */
+    private void compact(String fileStyle) throws IOException {
+        NavigableSet<String> paths = entries.get(fileStyle);
+        Path log = indexFile(fileStyle);
+        Path tmp = log.resolveSibling(log.getFileName() + ".tmp");
+
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (String path : paths) {
+                writer.write('+');
+                writer.write(path);
+                writer.newLine();
+            }
+        }
+
+        Files.move(tmp, log, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logLines.put(fileStyle, paths.size());
+    }
+
+    private Path indexFile(String fileStyle) {
+        return indexDir.resolve(fileStyle + INDEX_SUFFIX);
+    }
+
+    private static String styleOfIndexFile(Path file) {
+        String filename = file.getFileName().toString();
+        return filename.endsWith(INDEX_SUFFIX) ? filename.substring(0, filename.length() - INDEX_SUFFIX.length()) : null;
+    }
+
+    /**
+     * Extracts the file style from a file named name.file_style.json, or with the extension of another StorageEncoding.
+     *
+     * @param filename the file name
+     * @return the file style, or null if the file is not a metadata set
+     */
+    static String fileStyleOf(String filename) {
+        Optional<StorageEncoding> encoding = StorageEncoding.ofFilename(filename);
+        if (encoding.isEmpty()) {
+            return null;
+        }
+
+        String stem = filename.substring(0, filename.length() - encoding.get().extension().length() - 1);
+        int dot = stem.lastIndexOf('.');
+
+        return dot <= 0 ? null : stem.substring(dot + 1);
+    }
+
+    private String toRelative(Path path) {
+        Path relative = baseDir.relativize(path);
+
+        return IntStream.range(0, relative.getNameCount())
+                .mapToObj(i -> relative.getName(i).toString())
+                .collect(Collectors.joining("/"));
+    }
+
+    private Path toAbsolute(String relative) {
+        return baseDir.resolve(relative.replace("/", baseDir.getFileSystem().getSeparator()));
+    }
+}
@@ -1,18 +1,41 @@
 package datathread.metastore;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import datathread.Identifier;
 import datathread.grammar.Elements;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
+import java.util.zip.CRC32;
 
 /**
  * Implementation of the Metastore interface that uses the file system to store data objects.
@@ -27,8 +50,51 @@ import java.util.stream.Stream;
  *
  * For example, an Identifier with scheme "scheme", domain ["domain1", "domain2"], and name "name" for a class type "MyClass"
  * would be mapped to a file path: /baseDir/domain1/domain2/name.my_class.json
+ *
+ * The last extension is the StorageEncoding of the file. A FileMetastore writes in the encoding it was created with,
+ * but reads files of every encoding, so a store in the middle of a conversion, or mixing encodings by design, still
+ * resolves every object. Writing an object removes its files in the other encodings.
+ *
+ * Files can also be compressed with a CompressionCodec. Compressed files carry a header naming their codec and keep
+ * their name, so a store can be compressed, or switch codecs, without rewriting its existing files.
+ *
+ * Optionally the FileMetastore maintains a persistent index of its files per type (see FileIndex), kept up to date by
+ * write and delete. Listing a type through stream and readAll then reads the index instead of walking the directory tree,
+ * which matters for large or network-mounted stores.
+ *
+ * Very large domains can be spread over hashed fan-out folders: with a fan-out of 1, person/age.element.json is stored
+ * as person/@3a/age.element.json, where 3a is the first byte of the CRC32 of the name, and with a fan-out of 2 as
+ * person/@3a/@f0/age.element.json. Shard folders are skipped when resolving Identifiers, so the layout is transparent
+ * to every operation, and domain segments must not look like shard folders. A sharded store also finds objects in the
+ * flat layout, so reshard can migrate a live store. reshard records the fan-out in a .fan-out file at the root of the
+ * store, which a FileMetastore opened without an explicit fan-out follows.
+ *
+ * Writes are atomic: each object is written to a temporary file that is renamed over its target. The Durability
+ * level decides whether writes are also flushed to disk, one by one or in group commits.
  */
 public class FileMetastore implements Metastore {
+    /**
+     * Largest supported fan-out, giving 65536 shard folders per domain.
+     */
+    public static final int MAX_FAN_OUT = 2;
+
+    /**
+     * Prefix of the shard folder names.
+     */
+    static final String SHARD_PREFIX = "@";
+
+    /**
+     * Fan-out argument meaning the fan-out recorded in the store by reshard, or the flat layout if there is none.
+     */
+    public static final int STORED_FAN_OUT = -1;
+
+    /**
+     * Name of the file recording the fan-out of a store.
+     */
+    static final String FAN_OUT_FILE = ".fan-out";
+
+    private static final Pattern SHARD_FOLDER = Pattern.compile("@[0-9a-f]{2}");
+
     /**
      * Base directory for the file metastore.
      */
@@ -40,15 +106,130 @@ public class FileMetastore implements Metastore {
     private final ObjectMapper objectMapper;
 
     /**
-     * Constructor to initialize the FileMetastore with a base directory and an optional ObjectMapper.
+     * Encoding of the files written.
+     */
+    private final StorageEncoding encoding;
+
+    /**
+     * Compression of the files written, and decompression of the files read.
+     */
+    private final Compression compression;
+
+    /**
+     * Cached readers and writers of each encoding, created on first use.
+     */
+    private final Map<StorageEncoding, JsonCodec> codecs = new ConcurrentHashMap<>();
+
+    /**
+     * Index of the files per type, or null if listing walks the directory tree.
+     */
+    private final FileIndex index;
+
+    /**
+     * Writer replacing files atomically with the configured durability.
+     */
+    private final GroupCommit writer;
+
+    /**
+     * Number of levels of hashed shard folders under each domain folder, 0 for the flat layout.
+     */
+    private final int fanOut;
+
+    /**
+     * Constructor to initialize the FileMetastore with a base directory, an optional ObjectMapper, the choice of indexing,
+     * the durability of writes, the encoding of the files, their compression and the fan-out of the domain folders.
      *
      * @param baseDir the base directory for the file metastore
-     * @param objectMapper the ObjectMapper instance for JSON operations
+     * @param objectMapper the ObjectMapper instance for JSON operations; binary encodings use their own mapper
+     * @param indexed whether to maintain a persistent index of the files per type, built from a scan if not present yet
+     * @param durability how far a write is flushed to disk before it returns
+     * @param encoding the encoding of the files written
+     * @param compression the codec compressing the files written, or null to write them uncompressed;
+     *                    files compressed by it or by the default DeflateCodec are read in any case
+     * @param fanOut the number of levels of hashed shard folders under each domain folder, from 0 to MAX_FAN_OUT,
+     *               or STORED_FAN_OUT to follow the fan-out recorded in the store
      */
-    public FileMetastore(Path baseDir, ObjectMapper objectMapper) {
+    public FileMetastore(Path baseDir, ObjectMapper objectMapper, boolean indexed, Durability durability, StorageEncoding encoding,
+                         CompressionCodec compression, int fanOut) {
+        if (fanOut < STORED_FAN_OUT || fanOut > MAX_FAN_OUT) {
+            throw new IllegalArgumentException("Invalid fan-out: " + fanOut);
+        }
+
         this.baseDir = baseDir.toAbsolutePath().normalize();
         this.objectMapper = objectMapper == null ? new ObjectMapper() : objectMapper;
+        this.index = indexed ? new FileIndex(this.baseDir) : null;
+        this.writer = new GroupCommit(durability, GroupCommit.DEFAULT_WINDOW);
+        this.encoding = encoding;
+        this.compression = new Compression(compression);
+        this.fanOut = fanOut == STORED_FAN_OUT ? storedFanOut(this.baseDir) : fanOut;
         Elements.configureObjectMapper(this.objectMapper);
+        this.codecs.put(StorageEncoding.JSON, new JsonCodec(this.objectMapper));
+    }
+
+    /**
+     * Constructor to initialize the FileMetastore with a base directory, an optional ObjectMapper, the choice of indexing,
+     * the durability of writes, the encoding of the files and their compression, in the layout recorded in the store
+     * by reshard, or the flat layout if there is none.
+     *
+     * @param baseDir the base directory for the file metastore
+     * @param objectMapper the ObjectMapper instance for JSON operations; binary encodings use their own mapper
+     * @param indexed whether to maintain a persistent index of the files per type, built from a scan if not present yet
+     * @param durability how far a write is flushed to disk before it returns
+     * @param encoding the encoding of the files written
+     * @param compression the codec compressing the files written, or null to write them uncompressed;
+     *                    files compressed by it or by the default DeflateCodec are read in any case
+     */
+    public FileMetastore(Path baseDir, ObjectMapper objectMapper, boolean indexed, Durability durability, StorageEncoding encoding,
+                         CompressionCodec compression) {
+        this(baseDir, objectMapper, indexed, durability, encoding, compression, STORED_FAN_OUT);
+    }
+
+    /**
+     * Constructor to initialize the FileMetastore with a base directory, an optional ObjectMapper, the choice of indexing,
+     * the durability of writes and the encoding of the files, writing them uncompressed.
+     *
+     * @param baseDir the base directory for the file metastore
+     * @param objectMapper the ObjectMapper instance for JSON operations; binary encodings use their own mapper
+     * @param indexed whether to maintain a persistent index of the files per type, built from a scan if not present yet
+     * @param durability how far a write is flushed to disk before it returns
+     * @param encoding the encoding of the files written
+     */
+    public FileMetastore(Path baseDir, ObjectMapper objectMapper, boolean indexed, Durability durability, StorageEncoding encoding) {
+        this(baseDir, objectMapper, indexed, durability, encoding, null);
+    }
+
+    /**
+     * Constructor to initialize the FileMetastore with a base directory, an optional ObjectMapper, the choice of indexing
+     * and the durability of writes, storing JSON files.
+     *
+     * @param baseDir the base directory for the file metastore
+     * @param objectMapper the ObjectMapper instance for JSON operations
+     * @param indexed whether to maintain a persistent index of the files per type, built from a scan if not present yet
+     * @param durability how far a write is flushed to disk before it returns
+     */
+    public FileMetastore(Path baseDir, ObjectMapper objectMapper, boolean indexed, Durability durability) {
+        this(baseDir, objectMapper, indexed, durability, StorageEncoding.JSON);
+    }
+
+    /**
+     * Constructor to initialize the FileMetastore with a base directory, an optional ObjectMapper and the choice of indexing.
+     *
+     * @param baseDir the base directory for the file metastore
+     * @param objectMapper the ObjectMapper instance for JSON operations
+     * @param indexed whether to maintain a persistent index of the files per type, built from a scan if not present yet
+     */
+    public FileMetastore(Path baseDir, ObjectMapper objectMapper, boolean indexed) {
+        this(baseDir, objectMapper, indexed, Durability.NONE);
+    }
+
+    /**
+     * Constructor to initialize the FileMetastore with a base directory and an optional ObjectMapper.
+     *
+     * @param baseDir the base directory for the file metastore
+     * @param objectMapper the ObjectMapper instance for JSON operations
+     */
+    public FileMetastore(Path baseDir, ObjectMapper objectMapper) {
+        this(baseDir, objectMapper, false);
     }
 
     /**
@@ -69,8 +250,66 @@ public class FileMetastore implements Metastore {
      * @return an Optional containing the object if found, or an empty Optional if not found
      */
     public <T> Optional<T> read(Identifier id, Class<T> tipe) {
-        Path filePath = resolveForID(this.baseDir, id, tipe);
-        return loadFromFile(filePath, tipe);
+        return locate(id, tipe).flatMap(filePath -> loadFromFile(filePath, tipe));
+    }
+
+    /**
+     * Checks whether an object of the specified type exists, from the file system alone.
+     *
+     * @param id the Identifier of the object
+     * @param tipe the class type of the object
+     * @return true if the file of the object exists, false otherwise
+     */
+    @Override
+    public boolean exists(Identifier id, Class<?> tipe) {
+        return locate(id, tipe).isPresent();
+    }
+
+    /**
+     * Returns the metadata of an object of the specified type from its file attributes.
+     * The version is a tag of the modification time and size, in the style of an HTTP weak ETag.
+     *
+     * @param id the Identifier of the object
+     * @param tipe the class type of the object
+     * @return an Optional containing the metadata if the file exists, or an empty Optional if not found
+     */
+    @Override
+    public Optional<ObjectStat> stat(Identifier id, Class<?> tipe) {
+        Optional<Path> located = locate(id, tipe);
+        if (located.isEmpty()) {
+            return Optional.empty();
+        }
+
+        Path filePath = located.get();
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(filePath, BasicFileAttributes.class);
+            long modified = attributes.lastModifiedTime().toMillis();
+
+            return Optional.of(new ObjectStat(
+                    attributes.size(),
+                    attributes.lastModifiedTime().toInstant(),
+                    Long.toHexString(modified) + "-" + Long.toHexString(attributes.size())));
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Reads many objects of the specified type, loading the files in parallel.
+     *
+     * @param ids the Identifiers of the objects to be read
+     * @param tipe the class type of the objects to be read
+     * @param <T> the type of the objects to be read
+     * @return a map from Identifier to object, in the iteration order of ids, containing only the objects found
+     */
+    @Override
+    public <T> Map<Identifier, T> readMany(Collection<Identifier> ids, Class<T> tipe) {
+        return ids.parallelStream()
+                .flatMap(id -> read(id, tipe).stream().map(obj -> Map.entry(id, obj)))
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, LinkedHashMap::new));
     }
 
     /**
@@ -81,21 +320,349 @@ public class FileMetastore implements Metastore {
      * @return a list of all objects found
      */
     public <T> List<T> readAll(Class<T> metaType) {
+        try (Stream<T> stream = stream(metaType)) {
+            return stream.collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Reads all objects of the specified type under a domain prefix, walking only the matching sub-folder.
+     *
+     * @param metaType the class type of the objects to be read
+     * @param domainPrefix the leading domain segments to restrict the read to
+     * @param <T> the type of the objects to be read
+     * @return a list of all objects found under the domain prefix
+     */
+    @Override
+    public <T> List<T> readAll(Class<T> metaType, String[] domainPrefix) {
+        try (Stream<T> stream = stream(metaType, domainPrefix)) {
+            return stream.collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Lists the Identifiers of the files of the specified type under a domain prefix, from the index if the
+     * FileMetastore is indexed and by walking the matching sub-folder otherwise.
+     */
+    @Override
+    public Optional<List<Identifier>> listIds(Class<?> tipe, String[] domainPrefix) {
+        String fileSuffix = FileMetastore.classNameToFileStyle(tipe);
+        Path folder = resolveFolder(this.baseDir, domainPrefix);
+
+        if (index != null) {
+            return Optional.of(index.list(fileSuffix, folder).stream()
+                    .flatMap(path -> resolveIdentifier(this.baseDir, path).stream())
+                    .distinct()
+                    .collect(Collectors.toList()));
+        }
+
+        if (!Files.isDirectory(folder)) {
+            return Optional.of(Collections.emptyList());
+        }
+
+        try (Stream<Path> files = Files.walk(folder)) {
+            return Optional.of(files.filter(Files::isRegularFile)
+                    .filter(path -> fileSuffix.equals(FileIndex.fileStyleOf(path.getFileName().toString())))
+                    .flatMap(path -> resolveIdentifier(this.baseDir, path).stream())
+                    .distinct()
+                    .collect(Collectors.toList()));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Reads all objects of the specified type, traversing the domain folders and deserializing the files in parallel
+     * on the common ForkJoinPool.
+     *
+     * @param metaType the class type of the objects to be read
+     * @param ordered whether the objects must be returned in the order of readPage, rather than in file system order
+     * @param <T> the type of the objects to be read
+     * @return a list of all objects found
+     */
+    public <T> List<T> readAllParallel(Class<T> metaType, boolean ordered) {
+        return readAllParallel(metaType, new String[0], ordered, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Reads all objects of the specified type under a domain prefix, traversing the domain folders and deserializing
+     * the files in parallel. If the FileMetastore is indexed, the files are listed from the index and only deserialized
+     * in parallel. When ordered, every domain folder is still listed by its own task, in the order of readPage.
+     *
+     * @param metaType the class type of the objects to be read
+     * @param domainPrefix the leading domain segments to restrict the read to
+     * @param ordered whether the objects must be returned in the order of readPage, rather than in file system order
+     * @param pool the pool to read in
+     * @param <T> the type of the objects to be read
+     * @return a list of all objects found under the domain prefix
+     */
+    public <T> List<T> readAllParallel(Class<T> metaType, String[] domainPrefix, boolean ordered, ForkJoinPool pool) {
+        String fileStyle = FileMetastore.classNameToFileStyle(metaType);
+        Path folder = resolveFolder(this.baseDir, domainPrefix);
+        ParallelScan.Loader<T> loader = path -> readFile(path, metaType);
+
+        if (index != null) {
+            List<Path> files = ordered
+                    ? listInOrder(fileStyle, folder, null, Long.MAX_VALUE).stream().map(Map.Entry::getValue).collect(Collectors.toList())
+                    : index.list(fileStyle, folder);
+            return ParallelScan.readFiles(pool, files, loader);
+        }
+
+        if (ordered) {
+            // Each domain folder is listed by its own task, in the order of readPage
+            return ParallelScan.readAll(pool, folder, domain -> {
+                DomainListing listing = listDomain(domain, fileStyle);
+                return new ParallelScan.Listing(
+                        listing.objects.stream().map(Map.Entry::getValue).collect(Collectors.toList()),
+                        new ArrayList<>(listing.folders.values()));
+            }, loader);
+        }
+
+        return ParallelScan.readAll(pool, folder, name -> fileStyle.equals(FileIndex.fileStyleOf(name)), loader, false);
+    }
+
+    /**
+     * Streams all objects of the specified type, walking the directory tree and loading each file on demand.
+     * The underlying directory walk is released when the stream is closed.
+     *
+     * @param metaType the class type of the objects to be read
+     * @param <T> the type of the objects to be read
+     * @return a lazily populated stream of all objects found
+     */
+    @Override
+    public <T> Stream<T> stream(Class<T> metaType) {
+        return stream(metaType, new String[0]);
+    }
+
+    /**
+     * Streams all objects of the specified type under a domain prefix.
+     * The prefix is resolved to a sub-folder with the same escaping rules as resolveFile, and only that subtree is walked,
+     * or only the matching part of the index is read if the FileMetastore is indexed.
+     *
+     * @param metaType the class type of the objects to be read
+     * @param domainPrefix the leading domain segments to restrict the read to
+     * @param <T> the type of the objects to be read
+     * @return a lazily populated stream of all objects found under the domain prefix
+     */
+    public <T> Stream<T> stream(Class<T> metaType, String[] domainPrefix) {
         String fileSuffix = FileMetastore.classNameToFileStyle(metaType);
-        List<T> results = Collections.emptyList();
+        Path folder = resolveFolder(this.baseDir, domainPrefix);
 
-        try (Stream<Path> walk = Files.walk(baseDir)) {
-            results = walk.filter(Files::isRegularFile)
-                    .filter(path -> path.toString().endsWith(fileSuffix + ".json"))
-                    .flatMap(path -> loadFromFile(path, metaType).stream())
-                    .collect(Collectors.toList());
+        if (index != null) {
+            return index.list(fileSuffix, folder).stream()
+                    .flatMap(path -> loadFromFile(path, metaType).stream());
+        }
+
+        if (!Files.isDirectory(folder)) {
+            return Stream.empty();
+        }
+
+        try {
+            return Files.walk(folder)
+                    .filter(Files::isRegularFile)
+                    .filter(path -> fileSuffix.equals(FileIndex.fileStyleOf(path.getFileName().toString())))
+                    .flatMap(path -> loadFromFile(path, metaType).stream());
         } catch (IOException e) {
             e.printStackTrace();
+            return Stream.empty();
+        }
+    }
+
+    /**
+     * Reads one page of objects of the specified type.
+     *
+     * Objects are ordered by their resolved Identifier (see Page.ORDER): by domain, the objects of a domain before
+     * those of its sub-domains, and then by name, whatever the shard folders or file names they are stored under.
+     * The continuation token is the Identifier of the last object of the page. Indexed stores page through the
+     * index; otherwise the traversal skips the folders of domains before the token without listing them.
+     *
+     * @param metaType the class type of the objects to be read
+     * @param limit the maximum number of objects in the page
+     * @param continuationToken the token of the previous page, or null to start from the beginning
+     * @param <T> the type of the objects to be read
+     * @return the page of objects, with a continuation token unless it is the last page
+     */
+    @Override
+    public <T> Page<T> readPage(Class<T> metaType, int limit, String continuationToken) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Page limit must be positive: " + limit);
+        }
+
+        String fileStyle = FileMetastore.classNameToFileStyle(metaType);
+        Identifier after = continuationToken == null || continuationToken.isEmpty()
+                ? null
+                : Page.identifierOf(continuationToken);
+
+        // Collect one extra file to find out whether there is a following page
+        List<Map.Entry<Identifier, Path>> files = listInOrder(fileStyle, baseDir, after, limit + 1L);
+
+        List<T> items = files.stream()
+                .limit(limit)
+                .flatMap(file -> loadFromFile(file.getValue(), metaType).stream())
+                .collect(Collectors.toList());
+        String next = files.size() > limit ? Page.tokenOf(files.get(limit - 1).getKey()) : null;
+
+        return new Page<>(items, next);
+    }
+
+    /**
+     * Lists the Identifiers that follow an Identifier in the order of readPage, from the index if there is one and
+     * otherwise with the same traversal as readPage, which skips the folders of domains before it.
+     */
+    @Override
+    public Optional<List<Identifier>> listIdsAfter(Class<?> tipe, Identifier after, int limit) {
+        return Optional.of(listInOrder(FileMetastore.classNameToFileStyle(tipe), baseDir, after, limit).stream()
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Lists the files of a file style under a folder in the order of readPage, with their Identifiers.
+     *
+     * @param fileStyle the file style of the type being read
+     * @param folder the folder to list, which must be the base directory or below it
+     * @param after the Identifier to start after, or null to start from the beginning
+     * @param max the number of files to stop at
+     * @return the Identifiers and files, one file per Identifier
+     */
+    private List<Map.Entry<Identifier, Path>> listInOrder(String fileStyle, Path folder, Identifier after, long max) {
+        if (index != null) {
+            return index.list(fileStyle, folder).stream()
+                    .flatMap(path -> resolveIdentifier(this.baseDir, path).map(id -> Map.entry(id, path)).stream())
+                    .filter(entry -> after == null || Page.ORDER.compare(entry.getKey(), after) > 0)
+                    .sorted(Map.Entry.comparingByKey(Page.ORDER))
+                    .limit(max)
+                    .collect(Collectors.toList());
         }
 
+        List<Map.Entry<Identifier, Path>> results = new ArrayList<>();
+        if (!Files.isDirectory(folder)) {
+            return results;
+        }
+
+        Path relative = this.baseDir.relativize(folder);
+        String[] domain = folder.equals(this.baseDir)
+                ? new String[0]
+                : IntStream.range(0, relative.getNameCount())
+                        .mapToObj(i -> escape(relative.getName(i).toString()))
+                        .toArray(String[]::new);
+
+        try {
+            collectInOrder(folder, domain, after, fileStyle, max, results);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
         return results;
     }
 
+    /**
+     * Collects, in the order of readPage, the files of the given file style of a domain and its sub-domains.
+     *
+     * @param folder the folder of the domain
+     * @param domain the domain segments of the folder
+     * @param after the Identifier to start after, or null if everything under the folder follows it
+     * @param fileStyle the file style of the type being read
+     * @param max the number of files to stop at
+     * @param results the list collecting the files
+     * @throws IOException if a folder cannot be listed
+     */
+    private void collectInOrder(Path folder, String[] domain, Identifier after, String fileStyle, long max,
+                                List<Map.Entry<Identifier, Path>> results) throws IOException {
+        DomainListing listing = listDomain(folder, fileStyle);
+
+        // The objects of this domain come before those of its sub-domains, so they are skipped if the token is deeper
+        boolean tokenHere = after == null || after.domain().length == domain.length;
+        if (tokenHere) {
+            listing.objects.stream()
+                    .filter(entry -> after == null || Page.ORDER.compare(entry.getKey(), after) > 0)
+                    .limit(max - results.size())
+                    .forEach(results::add);
+        }
+
+        for (Map.Entry<String, Path> child : listing.folders.entrySet()) {
+            if (results.size() >= max) {
+                return;
+            }
+
+            String[] childDomain = Arrays.copyOf(domain, domain.length + 1);
+            childDomain[domain.length] = child.getKey();
+
+            if (tokenHere) {
+                collectInOrder(child.getValue(), childDomain, null, fileStyle, max, results);
+            } else {
+                int cmp = child.getKey().compareTo(after.domain()[domain.length]);
+
+                if (cmp == 0) {
+                    collectInOrder(child.getValue(), childDomain, after, fileStyle, max, results);
+                } else if (cmp > 0) {
+                    collectInOrder(child.getValue(), childDomain, null, fileStyle, max, results);
+                }
+            }
+        }
+    }
+
+    /**
+     * Lists a domain folder in the order of readPage: its objects of a file style, including those in its shard
+     * folders, and then its sub-domain folders.
+     *
+     * @param folder the folder of the domain
+     * @param fileStyle the file style of the type being read
+     * @return the listing of the domain
+     * @throws IOException if the folder cannot be listed
+     */
+    private DomainListing listDomain(Path folder, String fileStyle) throws IOException {
+        List<Path> files = new ArrayList<>();
+        List<Path> shards = new ArrayList<>();
+        TreeMap<String, Path> folders = new TreeMap<>();
+
+        try (Stream<Path> children = Files.list(folder)) {
+            children.forEach(child -> {
+                String name = child.getFileName().toString();
+                if (!Files.isDirectory(child)) {
+                    if (fileStyle.equals(FileIndex.fileStyleOf(name))) {
+                        files.add(child);
+                    }
+                } else if (SHARD_FOLDER.matcher(name).matches()) {
+                    shards.add(child);
+                } else if (!name.equals(FileIndex.INDEX_FOLDER)) {
+                    folders.put(escape(name), child);
+                }
+            });
+        }
+
+        // Shard folders are read last, so that an object also left in the flat layout is read from its shard
+        Map<Identifier, Path> objects = new HashMap<>();
+        for (Path file : files) {
+            resolveIdentifier(this.baseDir, file).ifPresent(id -> objects.putIfAbsent(id, file));
+        }
+        for (Path shard : shards) {
+            try (Stream<Path> sharded = Files.walk(shard)) {
+                sharded.filter(path -> fileStyle.equals(FileIndex.fileStyleOf(path.getFileName().toString())))
+                        .filter(Files::isRegularFile)
+                        .forEach(path -> resolveIdentifier(this.baseDir, path).ifPresent(id -> objects.put(id, path)));
+            }
+        }
+
+        List<Map.Entry<Identifier, Path>> sorted = objects.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey(Page.ORDER))
+                .collect(Collectors.toList());
+        return new DomainListing(sorted, folders);
+    }
+
+    /**
+     * Objects of a domain folder and its sub-domain folders, in the order of readPage.
+     */
+    private static class DomainListing {
+        final List<Map.Entry<Identifier, Path>> objects;
+        final NavigableMap<String, Path> folders;
+
+        DomainListing(List<Map.Entry<Identifier, Path>> objects, NavigableMap<String, Path> folders) {
+            this.objects = objects;
+            this.folders = folders;
+        }
+    }
+
     /**
      * Deletes an object by its Identifier.
      *
@@ -104,14 +671,84 @@ public class FileMetastore implements Metastore {
      */
     @Override
     public Optional<String> delete(Identifier id) {
-        try {
-            Path filePath = resolveForID(this.baseDir, id, Object.class);
-            Files.delete(filePath);
-            return Optional.empty();
-        } catch (IOException e) {
-            e.printStackTrace();
-            return Optional.of("Failed to delete id " + id);
+        return deleteAll(Collections.singletonList(id));
+    }
+
+    /**
+     * Deletes a batch of objects by their Identifiers.
+     *
+     * An Identifier does not carry a type, so every metadata set stored for it (e.g. name.element.json and
+     * name.element_info.smile) is deleted. Each folder is listed once per batch.
+     *
+     * @param ids the Identifiers of the objects to be deleted
+     * @return an Optional containing a message for every id that could not be deleted, or an empty Optional if all succeeded
+     */
+    @Override
+    public Optional<String> deleteAll(Collection<Identifier> ids) {
+        // Group the file name prefixes to delete by folder, looking in the flat layout too if sharded
+        Map<Path, Map<String, Identifier>> byFolder = new LinkedHashMap<>();
+        ids.forEach(id -> {
+            String prefix = unescape(id.name()) + ".";
+            for (Path folder : layoutFolders(resolveFolder(this.baseDir, id.domain()), unescape(id.name()))) {
+                byFolder.computeIfAbsent(folder, f -> new LinkedHashMap<>()).put(prefix, id);
+            }
+        });
+
+        Set<Identifier> deleted = new HashSet<>();
+
+        byFolder.forEach((folder, prefixes) -> {
+            List<Path> matches = Collections.emptyList();
+            List<Path> deletedFiles = new ArrayList<>();
+
+            if (Files.isDirectory(folder)) {
+                try (Stream<Path> files = Files.list(folder)) {
+                    matches = files
+                            .filter(file -> prefixes.containsKey(metadataSetPrefix(file.getFileName().toString())))
+                            .collect(Collectors.toList());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+
+            for (Path file : matches) {
+                try {
+                    Files.delete(file);
+                    deleted.add(prefixes.get(metadataSetPrefix(file.getFileName().toString())));
+                    deletedFiles.add(file);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+
+            if (index != null) {
+                index.removed(deletedFiles);
+            }
+        });
+
+        List<String> errors = ids.stream()
+                .filter(id -> !deleted.contains(id))
+                .map(id -> "Failed to delete id " + id)
+                .collect(Collectors.toList());
+
+        return errors.isEmpty() ? Optional.empty() : Optional.of(String.join("\n", errors));
+    }
+
+    /**
+     * Extracts the "name." prefix from a file named name.file_style.json, or with the extension of another StorageEncoding.
+     *
+     * @param filename the file name
+     * @return the prefix including the trailing dot, or null if the file is not a metadata set
+     */
+    private static String metadataSetPrefix(String filename) {
+        Optional<StorageEncoding> encoding = StorageEncoding.ofFilename(filename);
+        if (encoding.isEmpty()) {
+            return null;
         }
+
+        String stem = filename.substring(0, filename.length() - encoding.get().extension().length() - 1);
+        int dot = stem.lastIndexOf('.');
+
+        return dot <= 0 ? null : stem.substring(0, dot + 1);
     }
 
     /**
@@ -123,17 +760,249 @@ public class FileMetastore implements Metastore {
      * @return an Optional containing a message indicating the result of the write operation
      */
     public <T> Optional<String> write(Identifier id, T data) {
-        Path absPath = resolveForID(this.baseDir, id, data.getClass());
+        Path absPath = resolveForID(this.baseDir, id, data.getClass(), encoding, fanOut);
 
         try {
-            String json = this.objectMapper.writeValueAsString(data);
-
             Path folder = absPath.getParent();
             if (!Files.exists(folder)) {
                 Files.createDirectories(folder);
             }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return Optional.of("Failed to store id " + id);
+        }
+
+        Optional<String> result = store(id, data, absPath);
+        if (result.isEmpty()) {
+            List<Path> replaced = removeStaleCopies(absPath, unescape(id.name()));
+            if (index != null) {
+                index.added(Collections.singletonList(absPath));
+                index.removed(replaced);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Writes a batch of objects to the metastore.
+     * Each target folder is created once for the whole batch and the files are then written in parallel.
+     * With GROUP_COMMIT durability the parallel writes share flush batches, so a bulk load pays a few flush windows
+     * instead of one flush per object.
+     *
+     * @param objects the objects to be written, keyed by their Identifier
+     * @return an Optional containing a message for every object that could not be stored, or an empty Optional if all succeeded
+     */
+    @Override
+    public Optional<String> writeAll(Map<Identifier, ?> objects) {
+        Map<Identifier, Path> paths = new LinkedHashMap<>();
+        objects.forEach((id, data) -> paths.put(id, resolveForID(this.baseDir, id, data.getClass(), encoding, fanOut)));
+
+        paths.values().stream()
+                .map(Path::getParent)
+                .distinct()
+                .filter(folder -> !Files.exists(folder))
+                .forEach(folder -> {
+                    try {
+                        Files.createDirectories(folder);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                });
+
+        Map<Identifier, Optional<String>> results = objects.entrySet().parallelStream()
+                .collect(Collectors.toMap(Map.Entry::getKey, entry -> store(entry.getKey(), entry.getValue(), paths.get(entry.getKey()))));
+
+        List<Identifier> succeeded = results.entrySet().stream()
+                .filter(entry -> entry.getValue().isEmpty())
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+        List<Path> stored = succeeded.stream().map(paths::get).collect(Collectors.toList());
+        List<Path> replaced = succeeded.stream()
+                .flatMap(id -> removeStaleCopies(paths.get(id), unescape(id.name())).stream())
+                .collect(Collectors.toList());
+
+        if (index != null) {
+            index.added(stored);
+            index.removed(replaced);
+        }
+
+        return Metastore.joinResults(paths.keySet().stream().map(results::get));
+    }
+
+    /**
+     * Starts a change feed of the base directory with the default debounce period of 200 milliseconds.
+     *
+     * @param listener the consumer of the events
+     * @return the watcher, to be closed to stop watching
+     * @throws IOException if the directory cannot be watched
+     */
+    public FileWatcher watch(Consumer<MetastoreEvent> listener) throws IOException {
+        return watch(Duration.ofMillis(200), listener);
+    }
+
+    /**
+     * Starts a change feed of the base directory, reporting files created, modified or deleted by any process.
+     * If the FileMetastore is indexed, the index is updated from the events before they reach the listener,
+     * and rebuilt on overflow.
+     *
+     * @param debounce the quiet period after which a batch of changes is delivered
+     * @param listener the consumer of the events
+     * @return the watcher, to be closed to stop watching
+     * @throws IOException if the directory cannot be watched
+     */
+    public FileWatcher watch(Duration debounce, Consumer<MetastoreEvent> listener) throws IOException {
+        Consumer<MetastoreEvent> consumer = listener;
+
+        if (index != null) {
+            consumer = event -> {
+                if (event.kind() == MetastoreEvent.Kind.OVERFLOW) {
+                    rebuildIndex();
+                } else {
+                    // An event does not tell the encoding or layout, so the index follows the files present in any of them
+                    Map<Boolean, List<Path>> files = Arrays.stream(StorageEncoding.values())
+                            .map(fileEncoding -> resolveFile(this.baseDir, event.id.scheme(), event.id.domain(), event.id.name(),
+                                    event.fileStyle(), fileEncoding.extension()))
+                            .flatMap(file -> layoutFolders(file.getParent(), unescape(event.id.name())).stream()
+                                    .map(folder -> folder.resolve(file.getFileName())))
+                            .collect(Collectors.partitioningBy(Files::isRegularFile));
+                    index.removed(files.get(false));
+                    index.added(files.get(true));
+                }
+                listener.accept(event);
+            };
+        }
+
+        return new FileWatcher(this.baseDir, debounce, consumer);
+    }
+
+    /**
+     * Rebuilds the index of the files per type from a scan of the base directory.
+     * Use this after files were added or removed other than through this FileMetastore.
+     *
+     * @return an Optional containing an error message, or an empty Optional if the index was rebuilt
+     */
+    public Optional<String> rebuildIndex() {
+        if (index == null) {
+            return Optional.of("FileMetastore at " + baseDir + " is not indexed");
+        }
+
+        try {
+            index.rebuild();
+            return Optional.empty();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return Optional.of("Failed to rebuild index of " + baseDir);
+        }
+    }
+
+    /**
+     * Rewrites every file that is not in the target encoding into it, one file at a time.
+     * Files are converted from their document tree, so no class is needed for the metadata sets. Each converted file is
+     * written atomically before its source is deleted, so readers see every object throughout the conversion, and a
+     * conversion that stopped half way can simply be run again.
+     *
+     * This does not change the encoding written by this FileMetastore, which is set at construction.
+     *
+     * @param target the encoding to convert to
+     * @return an Optional containing a message for every file that could not be converted, or an empty Optional if all succeeded
+     */
+    public Optional<String> convert(StorageEncoding target) {
+        if (!Files.isDirectory(baseDir)) {
+            return Optional.empty();
+        }
+
+        List<Path> sources;
+        try (Stream<Path> files = Files.walk(baseDir)) {
+            sources = files
+                    .filter(path -> !path.startsWith(baseDir.resolve(FileIndex.INDEX_FOLDER)))
+                    .filter(Files::isRegularFile)
+                    .filter(path -> FileIndex.fileStyleOf(path.getFileName().toString()) != null)
+                    .filter(path -> StorageEncoding.ofFilename(path.getFileName().toString()).orElse(target) != target)
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return Optional.of("Failed to list files of " + baseDir);
+        }
+
+        List<String> errors = new ArrayList<>();
+        List<Path> converted = new ArrayList<>();
+        List<Path> removed = new ArrayList<>();
+
+        for (Path source : sources) {
+            String filename = source.getFileName().toString();
+            StorageEncoding from = StorageEncoding.ofFilename(filename).get();
+            Path destination = source.resolveSibling(
+                    filename.substring(0, filename.length() - from.extension().length()) + target.extension());
+
+            try {
+                JsonNode tree = readFile(source, JsonNode.class);
+                if (tree != null) {
+                    writer.write(destination, compression.frame(codec(target).write(tree)));
+                    converted.add(destination);
+                }
+                Files.deleteIfExists(source);
+                removed.add(source);
+            } catch (IOException e) {
+                e.printStackTrace();
+                errors.add("Failed to convert " + source);
+            }
+        }
+
+        if (index != null) {
+            index.added(converted);
+            index.removed(removed);
+        }
+
+        return errors.isEmpty() ? Optional.empty() : Optional.of(String.join("\n", errors));
+    }
+
+    /**
+     * Trains a compression dictionary on the stored objects, to be used with a DeflateCodec.
+     * The dictionary is specific to the content and encoding of the samples, so it should be trained on the encoding
+     * the store writes. It must be kept alongside the store: files compressed with it cannot be read without it.
+     *
+     * @param maxSamples the maximum number of files to sample, taken in directory order
+     * @param size the maximum size of the dictionary, at most DeflateCodec.MAX_DICTIONARY_SIZE
+     * @return the dictionary, empty if the store has no objects in common
+     */
+    public byte[] trainDictionary(int maxSamples, int size) {
+        List<byte[]> samples = new ArrayList<>();
+
+        if (Files.isDirectory(baseDir)) {
+            try (Stream<Path> files = Files.walk(baseDir)) {
+                files.filter(path -> !path.startsWith(baseDir.resolve(FileIndex.INDEX_FOLDER)))
+                        .filter(path -> FileIndex.fileStyleOf(path.getFileName().toString()) != null)
+                        .filter(path -> StorageEncoding.ofFilename(path.getFileName().toString()).orElse(null) == encoding)
+                        .filter(Files::isRegularFile)
+                        .limit(maxSamples)
+                        .forEach(path -> {
+                            try (InputStream in = compression.open(path)) {
+                                samples.add(in.readAllBytes());
+                            } catch (IOException e) {
+                                e.printStackTrace();
+                            }
+                        });
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
 
-            Files.write(absPath, json.getBytes());
+        return DeflateCodec.train(samples, size);
+    }
+
+    /**
+     * Serializes an object into a file whose folder already exists.
+     * The file is replaced atomically, so a crash never leaves a truncated file behind.
+     *
+     * @param id the Identifier of the object to be written
+     * @param data the object to be written
+     * @param absPath the file to write to
+     * @return an Optional containing an error message, or an empty Optional if the object was stored
+     */
+    private Optional<String> store(Identifier id, Object data, Path absPath) {
+        try {
+            writer.write(absPath, compression.frame(codec(encoding).write(data)));
 
             return Optional.empty();
         } catch (IOException e) {
@@ -142,6 +1011,237 @@ public class FileMetastore implements Metastore {
         }
     }
 
+    /**
+     * Finds the file of an object, in the encoding of this FileMetastore first and then in the others,
+     * and in the layout of this FileMetastore first and then in the flat layout.
+     *
+     * @param id the Identifier of the object
+     * @param tipe the class type of the object
+     * @return an Optional containing the file, or an empty Optional if there is none in any encoding
+     */
+    private Optional<Path> locate(Identifier id, Class<?> tipe) {
+        Path preferred = resolveForID(this.baseDir, id, tipe, encoding, fanOut);
+        if (Files.isRegularFile(preferred)) {
+            return Optional.of(preferred);
+        }
+
+        String filename = preferred.getFileName().toString();
+        String stem = filename.substring(0, filename.length() - encoding.extension().length());
+
+        return layoutFolders(domainFolder(preferred), unescape(id.name())).stream()
+                .flatMap(folder -> Arrays.stream(StorageEncoding.values()).map(other -> folder.resolve(stem + other.extension())))
+                .filter(path -> !path.equals(preferred))
+                .filter(Files::isRegularFile)
+                .findFirst();
+    }
+
+    /**
+     * Deletes the files of the same object and metadata set in the other encodings or in the flat layout,
+     * after it was written.
+     *
+     * @param absPath the file just written
+     * @param name the file name of the object
+     * @return the files deleted
+     */
+    private List<Path> removeStaleCopies(Path absPath, String name) {
+        String filename = absPath.getFileName().toString();
+        String stem = filename.substring(0, filename.length() - encoding.extension().length());
+        List<Path> deleted = new ArrayList<>();
+
+        for (Path folder : layoutFolders(domainFolder(absPath), name)) {
+            for (StorageEncoding other : StorageEncoding.values()) {
+                Path stale = folder.resolve(stem + other.extension());
+                if (stale.equals(absPath)) {
+                    continue;
+                }
+
+                try {
+                    if (Files.deleteIfExists(stale)) {
+                        deleted.add(stale);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        return deleted;
+    }
+
+    /**
+     * Returns the domain folder of a file in the layout of this FileMetastore.
+     *
+     * @param file the file
+     * @return the folder above its shard folders
+     */
+    private Path domainFolder(Path file) {
+        Path folder = file.getParent();
+        for (int level = 0; level < fanOut; level++) {
+            folder = folder.getParent();
+        }
+        return folder;
+    }
+
+    /**
+     * Returns the folders an object may be stored in: its shard folder, and its domain folder if sharded.
+     *
+     * @param domainFolder the domain folder of the object
+     * @param name the file name of the object
+     * @return the folders, the one of the layout of this FileMetastore first
+     */
+    private List<Path> layoutFolders(Path domainFolder, String name) {
+        return fanOut == 0
+                ? Collections.singletonList(domainFolder)
+                : Arrays.asList(shardFolder(domainFolder, name, fanOut), domainFolder);
+    }
+
+    /**
+     * Re-shards the store in place to the fan-out of this FileMetastore, moving every file that is in another layout.
+     *
+     * Files are moved one at a time with atomic renames, so no object is ever missing. A sharded FileMetastore also
+     * reads the flat layout, so a store can be sharded while in use; any other change of fan-out should be done while
+     * the store is not in use. Shard folders left empty are removed, and the index is rebuilt if the store is indexed.
+     * Once every file is moved, the fan-out is recorded in the store for the FileMetastores opened on it later.
+     *
+     * @return an Optional containing a message for every file that could not be moved, or an empty Optional if all succeeded
+     */
+    public Optional<String> reshard() {
+        if (!Files.isDirectory(baseDir)) {
+            return Optional.empty();
+        }
+
+        Path indexDir = baseDir.resolve(FileIndex.INDEX_FOLDER);
+        List<Path> files;
+        List<Path> folders;
+        try (Stream<Path> walk = Files.walk(baseDir)) {
+            Map<Boolean, List<Path>> entries = walk
+                    .filter(path -> !path.startsWith(indexDir))
+                    .collect(Collectors.partitioningBy(Files::isDirectory));
+            files = entries.get(false).stream()
+                    .filter(path -> metadataSetPrefix(path.getFileName().toString()) != null)
+                    .collect(Collectors.toList());
+            folders = entries.get(true);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return Optional.of("Failed to list files of " + baseDir);
+        }
+
+        List<String> errors = new ArrayList<>();
+
+        for (Path file : files) {
+            String filename = file.getFileName().toString();
+            String prefix = metadataSetPrefix(filename);
+            Path target = shardFolder(flatFolder(file.getParent()), prefix.substring(0, prefix.length() - 1), fanOut).resolve(filename);
+
+            if (target.equals(file)) {
+                continue;
+            }
+
+            try {
+                if (Files.exists(target)) {
+                    // Written in the new layout since the migration started, so the copy being moved is stale
+                    Files.delete(file);
+                } else {
+                    Files.createDirectories(target.getParent());
+                    Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                errors.add("Failed to move " + file);
+            }
+        }
+
+        // Deepest folders first, so that nested shard folders are emptied before their parents
+        folders.stream()
+                .filter(folder -> SHARD_FOLDER.matcher(folder.getFileName().toString()).matches())
+                .sorted(Comparator.comparingInt(Path::getNameCount).reversed())
+                .forEach(folder -> {
+                    try (Stream<Path> children = Files.list(folder)) {
+                        if (children.findAny().isEmpty()) {
+                            Files.delete(folder);
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                });
+
+        if (index != null) {
+            rebuildIndex().ifPresent(errors::add);
+        }
+
+        if (errors.isEmpty()) {
+            try {
+                Files.writeString(baseDir.resolve(FAN_OUT_FILE), Integer.toString(fanOut));
+            } catch (IOException e) {
+                e.printStackTrace();
+                errors.add("Failed to record the fan-out of " + baseDir);
+            }
+        }
+
+        return errors.isEmpty() ? Optional.empty() : Optional.of(String.join("\n", errors));
+    }
+
+    /**
+     * Reads the fan-out recorded in a store by reshard.
+     *
+     * @param baseDir the base directory of the store
+     * @return the fan-out, or 0 if none is recorded
+     */
+    static int storedFanOut(Path baseDir) {
+        Path file = baseDir.resolve(FAN_OUT_FILE);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+
+        try {
+            int fanOut = Integer.parseInt(Files.readString(file).trim());
+            if (fanOut >= 0 && fanOut <= MAX_FAN_OUT) {
+                return fanOut;
+            }
+            System.err.println("Ignoring invalid fan-out " + fanOut + " in " + file);
+        } catch (IOException | NumberFormatException e) {
+            e.printStackTrace();
+            System.err.println("Failed to read the fan-out of " + baseDir);
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the codec of an encoding. JSON uses the ObjectMapper of this FileMetastore, the binary encodings
+     * a mapper of their own with the same Elements configuration.
+     *
+     * @param fileEncoding the encoding
+     * @return the codec
+     */
+    private JsonCodec codec(StorageEncoding fileEncoding) {
+        return codecs.computeIfAbsent(fileEncoding, e -> new JsonCodec(e.newMapper()));
+    }
+
+    /**
+     * Reads the object stored in a file, decompressing it if needed and decoding it in the encoding of its extension.
+     *
+     * @param path the file
+     * @param tipe the class type of the object
+     * @param <T> the type of the object
+     * @return the object, or null for a JSON null
+     * @throws IOException if the file cannot be read or decoded
+     */
+    private <T> T readFile(Path path, Class<T> tipe) throws IOException {
+        try (InputStream in = compression.open(path)) {
+            return codecFor(path).read(in, tipe);
+        }
+    }
+
+    /**
+     * Returns the codec to read a file with, from its extension.
+     *
+     * @param path the file
+     * @return the codec
+     */
+    private JsonCodec codecFor(Path path) {
+        return codec(StorageEncoding.ofFilename(path.getFileName().toString()).orElse(StorageEncoding.JSON));
+    }
+
     //// Static helpers
 
     /**
@@ -197,7 +1297,69 @@ public class FileMetastore implements Metastore {
      * @return the resolved file path
      */
     public static Path resolveForID(Path baseDir, Identifier id, Class tipe) {
-        return resolveFile(baseDir, id.scheme(), id.domain(), id.name(), classNameToFileStyle(tipe));
+        return resolveForID(baseDir, id, tipe, StorageEncoding.JSON);
+    }
+
+    /**
+     * Resolves a file path for a given Identifier and type in a given encoding.
+     *
+     * @param baseDir the base directory
+     * @param id the Identifier
+     * @param tipe the class type
+     * @param encoding the encoding of the file
+     * @return the resolved file path
+     */
+    public static Path resolveForID(Path baseDir, Identifier id, Class tipe, StorageEncoding encoding) {
+        return resolveFile(baseDir, id.scheme(), id.domain(), id.name(), classNameToFileStyle(tipe), encoding.extension());
+    }
+
+    /**
+     * Resolves a file path for a given Identifier and type in a given encoding and fan-out.
+     *
+     * @param baseDir the base directory
+     * @param id the Identifier
+     * @param tipe the class type
+     * @param encoding the encoding of the file
+     * @param fanOut the number of levels of shard folders
+     * @return the resolved file path
+     */
+    public static Path resolveForID(Path baseDir, Identifier id, Class tipe, StorageEncoding encoding, int fanOut) {
+        Path flat = resolveForID(baseDir, id, tipe, encoding);
+        return fanOut == 0 ? flat : shardFolder(flat.getParent(), unescape(id.name()), fanOut).resolve(flat.getFileName());
+    }
+
+    /**
+     * Resolves the shard folder of an object under its domain folder.
+     *
+     * @param domainFolder the domain folder
+     * @param name the file name of the object, without file style and extension
+     * @param fanOut the number of levels of shard folders
+     * @return the shard folder, or the domain folder if fanOut is 0
+     */
+    static Path shardFolder(Path domainFolder, String name, int fanOut) {
+        CRC32 crc = new CRC32();
+        crc.update(name.getBytes(StandardCharsets.UTF_8));
+        long hash = crc.getValue();
+
+        Path folder = domainFolder;
+        for (int level = 0; level < fanOut; level++) {
+            folder = folder.resolve(String.format("%s%02x", SHARD_PREFIX, (hash >>> (24 - 8 * level)) & 0xff));
+        }
+        return folder;
+    }
+
+    /**
+     * Returns the domain folder of a folder that may be a shard folder.
+     *
+     * @param folder the folder
+     * @return the folder without its trailing shard folders
+     */
+    private static Path flatFolder(Path folder) {
+        Path result = folder;
+        while (result.getFileName() != null && SHARD_FOLDER.matcher(result.getFileName().toString()).matches()) {
+            result = result.getParent();
+        }
+        return result;
     }
 
     /**
@@ -211,10 +1373,25 @@ public class FileMetastore implements Metastore {
      * @return the resolved file path
      */
     public static Path resolveFile(Path baseDir, String schema, String[] domain, String name, String fileSuffix) {
+        return resolveFile(baseDir, schema, domain, name, fileSuffix, StorageEncoding.JSON.extension());
+    }
+
+    /**
+     * Resolves a file path for given parameters and file extension.
+     *
+     * @param baseDir the base directory
+     * @param schema the schema
+     * @param domain the domain
+     * @param name the name
+     * @param fileSuffix the file suffix
+     * @param extension the file extension of the encoding
+     * @return the resolved file path
+     */
+    public static Path resolveFile(Path baseDir, String schema, String[] domain, String name, String fileSuffix, String extension) {
         String[] folders = Arrays.stream(domain).map(FileMetastore::unescape).toArray(String[]::new);
         String filename = unescape(name);
 
-        Path path = baseDir.getFileSystem().getPath(".", folders).resolve(filename + "." + fileSuffix + ".json").normalize();
+        Path path = baseDir.getFileSystem().getPath(".", folders).resolve(filename + "." + fileSuffix + "." + extension).normalize();
         Path absPath = baseDir.resolve(path).normalize();
 
         if (!absPath.startsWith(baseDir)) {
@@ -225,7 +1402,56 @@ public class FileMetastore implements Metastore {
     }
 
     /**
-     * Loads an object from a file.
+     * Resolves the Identifier of an object from its file path, the reverse of resolveFile.
+     * A file path does not record the scheme, so the file style is used as the scheme, as in element:/person:age.
+     * Shard folders are not part of the domain.
+     *
+     * @param baseDir the base directory
+     * @param file the file path of the object
+     * @return an Optional containing the Identifier, or an empty Optional if the path is not a metadata file under baseDir
+     */
+    public static Optional<Identifier> resolveIdentifier(Path baseDir, Path file) {
+        String fileStyle = FileIndex.fileStyleOf(file.getFileName().toString());
+        Path relative = baseDir.relativize(file.toAbsolutePath().normalize());
+
+        if (fileStyle == null || relative.startsWith("..")) {
+            return Optional.empty();
+        }
+
+        String filename = file.getFileName().toString();
+        String extension = StorageEncoding.ofFilename(filename).get().extension();
+        String name = escape(filename.substring(0, filename.length() - fileStyle.length() - extension.length() - 2));
+        String[] domain = IntStream.range(0, relative.getNameCount() - 1)
+                .mapToObj(i -> relative.getName(i).toString())
+                .filter(folder -> !SHARD_FOLDER.matcher(folder).matches())
+                .map(FileMetastore::escape)
+                .toArray(String[]::new);
+
+        return Optional.of(new Identifier(fileStyle, domain, name));
+    }
+
+    /**
+     * Resolves the folder holding a domain, or a prefix of one.
+     *
+     * @param baseDir the base directory
+     * @param domain the domain segments
+     * @return the resolved folder path
+     */
+    public static Path resolveFolder(Path baseDir, String[] domain) {
+        String[] folders = Arrays.stream(domain).map(FileMetastore::unescape).toArray(String[]::new);
+
+        Path path = baseDir.getFileSystem().getPath(".", folders).normalize();
+        Path absPath = baseDir.resolve(path).normalize();
+
+        if (!absPath.startsWith(baseDir)) {
+            throw new IllegalArgumentException("Attempted directory traversal attack detected");
+        }
+
+        return absPath;
+    }
+
+    /**
+     * Loads an object from a file, in the encoding given by its extension, decompressing it if needed.
      *
      * @param path the file path
      * @param tipe the class type of the object to be loaded
@@ -234,13 +1460,9 @@ public class FileMetastore implements Metastore {
      */
     public <T> Optional<T> loadFromFile(Path path, Class<T> tipe) {
         try {
-            if (Files.exists(path)) {
-                byte[] bytes = Files.readAllBytes(path);
-                String json = new String(bytes);
-                T obj = this.objectMapper.readValue(json, tipe);
-
-                return Optional.ofNullable(obj);
-            }
+            return Optional.ofNullable(readFile(path, tipe));
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
         } catch (IOException e) {
             e.printStackTrace();
         }
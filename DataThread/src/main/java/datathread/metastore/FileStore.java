@@ -6,13 +6,20 @@ import datathread.Identifier;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class FileStore implements Metastore {
+    private static final JsonCodec CODEC = new JsonCodec(new ObjectMapper());
+    private static final GroupCommit WRITER = new GroupCommit(Durability.NONE, GroupCommit.DEFAULT_WINDOW);
+
     Path baseDir;
 
     public FileStore(Path baseDir) {
@@ -24,6 +31,14 @@ public class FileStore implements Metastore {
         return FileStore.loadFromFile(filePath, tipe);
     }
 
+    @Override
+    public <T> Map<Identifier, T> readMany(Collection<Identifier> ids, Class<T> tipe) {
+        return ids.parallelStream()
+            .filter(id -> Files.exists(resolveForID(this.baseDir, id, tipe)))
+            .flatMap(id -> read(id, tipe).stream().map(obj -> Map.entry(id, obj)))
+            .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, LinkedHashMap::new));
+    }
+
     public <T> List<T> readAll(Class<T> metaType) {
         String fileSuffix = FileStore.classNameToFileStyle(metaType);
         List<T> results = Collections.emptyList();
@@ -43,19 +58,51 @@ public class FileStore implements Metastore {
         return results;
     }
 
+    public <T> List<T> readAll(Class<T> metaType, String[] domainPrefix) {
+        String fileSuffix = FileStore.classNameToFileStyle(metaType);
+        Path folder = FileMetastore.resolveFolder(baseDir, domainPrefix);
+        List<T> results = Collections.emptyList();
+
+        if (!Files.isDirectory(folder)) {
+            return results;
+        }
+
+        try (Stream<Path> walk = Files.walk(folder)) {
+            results = walk.filter(Files::isRegularFile)
+                .filter(path -> path.toString().endsWith(fileSuffix + ".json"))
+                .map(path -> FileStore.loadFromFile(path, metaType))
+                .filter(Optional::isPresent)
+                .map(o -> o.get())
+                .collect(Collectors.toList())
+                ;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return results;
+    }
+
+    public <T> List<T> readAllParallel(Class<T> metaType, boolean ordered) {
+        return readAllParallel(metaType, new String[0], ordered, ForkJoinPool.commonPool());
+    }
+
+    public <T> List<T> readAllParallel(Class<T> metaType, String[] domainPrefix, boolean ordered, ForkJoinPool pool) {
+        String fileSuffix = FileStore.classNameToFileStyle(metaType);
+        Path folder = FileMetastore.resolveFolder(baseDir, domainPrefix);
+
+        return ParallelScan.readAll(pool, folder, name -> name.endsWith("." + fileSuffix + ".json"), path -> CODEC.read(path, metaType).orElse(null), ordered);
+    }
+
     public <T> Optional<String> write(Identifier id, T data) {
         Path absPath = resolveForID(this.baseDir, id, data.getClass());
 
         try {
-            ObjectMapper mapper = new ObjectMapper();
-            String json = mapper.writeValueAsString(data);
-
             Path folder = absPath.getParent();
             if(!Files.exists(folder)) {
                 Files.createDirectories(folder);
             }
 
-            Files.write(absPath, json.getBytes());
+            WRITER.write(absPath, CODEC.write(data));
 
             return Optional.empty();
         } catch (IOException e) {
@@ -81,12 +128,7 @@ public class FileStore implements Metastore {
 
     public static <T> Optional<T> loadFromFile(Path path, Class<T> tipe) {
         try {
-            byte[] bytes = Files.readAllBytes(path);
-            String json = new String(bytes);
-            ObjectMapper mapper = new ObjectMapper();
-            T obj = mapper.readValue(json, tipe);
-
-            return Optional.of(obj);
+            return CODEC.read(path, tipe);
         } catch (IOException e) {
             e.printStackTrace();
             return  Optional.empty();
@@ -0,0 +1,255 @@
+package datathread.metastore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Change feed of a FileMetastore directory, built on java.nio.file.WatchService.
+ *
+ * Features:
+ *
+ * 1. **Recursive**: every domain folder is watched, including folders created after the watcher started.
+ * 2. **Debounced**: events are delivered once the directory has been quiet for the debounce period, or at the latest
+ *    after ten debounce periods, so bursts such as a bulk write arrive as one batch.
+ * 3. **Coalesced**: the events of a file within a batch are merged, e.g. created then modified is reported as created,
+ *    and created then deleted is not reported at all.
+ * 4. **Typed**: only metadata files (name.file_style.json, or another StorageEncoding) are reported, as MetastoreEvents carrying their Identifier.
+ *
+ * Events are delivered on the watcher thread, in the order the files were first changed. If the operating system
+ * drops events, a single OVERFLOW event is delivered instead of the batch. Create instances with FileMetastore.watch
+ * and close them to stop watching.
+ */
+public class FileWatcher implements Closeable {
+    private final Path baseDir;
+    private final Consumer<MetastoreEvent> listener;
+    private final long debounceNanos;
+    private final WatchService watchService;
+    private final Thread thread;
+
+    /**
+     * Watched folders by key, only used by the watcher thread.
+     */
+    private final Map<WatchKey, Path> folders = new HashMap<>();
+
+    /**
+     * Coalesced changes of the current batch by file, only used by the watcher thread.
+     */
+    private final Map<Path, MetastoreEvent.Kind> pending = new LinkedHashMap<>();
+    private boolean overflow;
+    private long firstEventAt;
+    private long lastEventAt;
+
+    private volatile boolean closed;
+
+    /**
+     * Constructor to start watching a directory.
+     *
+     * @param baseDir the base directory of the FileMetastore
+     * @param debounce the quiet period after which a batch of changes is delivered
+     * @param listener the consumer of the events
+     * @throws IOException if the directory cannot be watched
+     */
+    FileWatcher(Path baseDir, Duration debounce, Consumer<MetastoreEvent> listener) throws IOException {
+        this.baseDir = baseDir;
+        this.listener = listener;
+        this.debounceNanos = debounce.toNanos();
+        this.watchService = baseDir.getFileSystem().newWatchService();
+
+        registerAll(baseDir, false);
+
+        this.thread = new Thread(this::run, "FileMetastore-watcher " + baseDir.getFileName());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Stops watching. Changes not delivered yet are discarded.
+     *
+     * @throws IOException if the watch service cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        watchService.close();
+        thread.interrupt();
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                WatchKey key;
+
+                if (pending.isEmpty() && !overflow) {
+                    key = watchService.take();
+                } else {
+                    long deadline = Math.min(lastEventAt + debounceNanos, firstEventAt + 10 * debounceNanos);
+                    long wait = deadline - System.nanoTime();
+                    key = wait > 0 ? watchService.poll(wait, TimeUnit.NANOSECONDS) : null;
+                }
+
+                if (key == null) {
+                    deliver();
+                } else {
+                    process(key);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * Adds the events of a key to the current batch.
+     */
+    private void process(WatchKey key) {
+        Path folder = folders.get(key);
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || folder == null) {
+                overflow = true;
+                touched();
+                continue;
+            }
+
+            Path path = folder.resolve((Path) event.context());
+
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                // Files may have been written before the folder was registered
+                registerAll(path, true);
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                record(path, MetastoreEvent.Kind.CREATED);
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_MODIFY) {
+                record(path, MetastoreEvent.Kind.MODIFIED);
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                record(path, MetastoreEvent.Kind.DELETED);
+            }
+        }
+
+        if (!key.reset()) {
+            folders.remove(key);
+        }
+    }
+
+    /**
+     * Registers a folder and its sub-folders, skipping the index folder.
+     *
+     * @param folder the folder to register
+     * @param reportFiles whether to report the files already in the folders as created
+     */
+    private void registerAll(Path folder, boolean reportFiles) {
+        Path indexFolder = baseDir.resolve(FileIndex.INDEX_FOLDER);
+
+        try {
+            try (Stream<Path> paths = Files.walk(folder)) {
+                for (Path path : paths.filter(Files::isDirectory).collect(Collectors.toList())) {
+                    if (!path.startsWith(indexFolder)) {
+                        WatchKey key = path.register(watchService,
+                                StandardWatchEventKinds.ENTRY_CREATE,
+                                StandardWatchEventKinds.ENTRY_MODIFY,
+                                StandardWatchEventKinds.ENTRY_DELETE);
+                        folders.put(key, path);
+                    }
+                }
+            }
+
+            // Listed after registering, so a file is either listed here or reported by its own event
+            if (reportFiles) {
+                try (Stream<Path> paths = Files.walk(folder)) {
+                    paths.filter(Files::isRegularFile)
+                            .forEach(path -> record(path, MetastoreEvent.Kind.CREATED));
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            e.printStackTrace();
+            overflow = true;
+            touched();
+        }
+    }
+
+    /**
+     * Merges a change of a file into the current batch.
+     */
+    private void record(Path path, MetastoreEvent.Kind kind) {
+        if (FileIndex.fileStyleOf(path.getFileName().toString()) == null) {
+            return;
+        }
+
+        touched();
+        MetastoreEvent.Kind previous = pending.get(path);
+        MetastoreEvent.Kind merged = merge(previous, kind);
+
+        if (merged == null) {
+            pending.remove(path);
+        } else {
+            pending.put(path, merged);
+        }
+    }
+
+    /**
+     * Merges two successive changes of a file.
+     *
+     * @param previous the change already in the batch, or null
+     * @param next the new change
+     * @return the combined change, or null if the changes cancel out
+     */
+    static MetastoreEvent.Kind merge(MetastoreEvent.Kind previous, MetastoreEvent.Kind next) {
+        if (previous == MetastoreEvent.Kind.CREATED) {
+            return next == MetastoreEvent.Kind.DELETED ? null : MetastoreEvent.Kind.CREATED;
+        }
+        if (previous == MetastoreEvent.Kind.DELETED && next == MetastoreEvent.Kind.CREATED) {
+            return MetastoreEvent.Kind.MODIFIED;
+        }
+        return next;
+    }
+
+    private void touched() {
+        long now = System.nanoTime();
+        if (pending.isEmpty() && !overflow) {
+            firstEventAt = now;
+        }
+        lastEventAt = now;
+    }
+
+    /**
+     * Delivers the current batch to the listener.
+     */
+    private void deliver() {
+        List<MetastoreEvent> events = new ArrayList<>();
+
+        if (overflow) {
+            events.add(new MetastoreEvent(MetastoreEvent.Kind.OVERFLOW, null, null));
+        } else {
+            pending.forEach((path, kind) -> FileMetastore.resolveIdentifier(baseDir, path)
+                    .ifPresent(id -> events.add(new MetastoreEvent(kind, id, FileIndex.fileStyleOf(path.getFileName().toString())))));
+        }
+
+        pending.clear();
+        overflow = false;
+
+        for (MetastoreEvent event : events) {
+            try {
+                listener.accept(event);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
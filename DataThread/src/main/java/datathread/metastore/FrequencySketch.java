@@ -0,0 +1,117 @@
+package datathread.metastore;
+
+/**
+ * Approximate access-frequency counter used by CachingMetastore to decide which entries are worth keeping.
+ *
+ * This is a count-min sketch with 4-bit saturating counters, as used by TinyLFU. It is sized from the number of
+ * entries the cache holds, not from its weight bound, and grows with ensureCapacity when more entries are admitted
+ * than expected. Every ten times that many accesses all counters are halved, so old popularity fades and the sketch
+ * follows a changing working set. Instances are not thread-safe; CachingMetastore only uses them while holding its lock.
+ */
+class FrequencySketch {
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final int[] SEEDS = {0x97cb3127, 0xb4b82e55, 0x8dc2b4a3, 0xe8a6d6a9};
+    private static final int MAXIMUM_SIZE = 1 << 24;
+
+    private byte[][] counters;
+    private int mask;
+    private int sampleSize;
+    private int size;
+    private int additions;
+
+    /**
+     * Constructor to initialize a sketch sized for the expected number of distinct hot keys.
+     *
+     * @param expectedSize the number of entries the cache is expected to hold
+     */
+    FrequencySketch(long expectedSize) {
+        allocate(expectedSize);
+    }
+
+    /**
+     * Grows the sketch when the cache holds more entries than it was sized for. Growing forgets the recorded
+     * frequencies, which is acceptable because it only happens a logarithmic number of times.
+     *
+     * @param expectedSize the number of entries the cache currently holds
+     */
+    void ensureCapacity(long expectedSize) {
+        if (expectedSize > size && size < MAXIMUM_SIZE) {
+            allocate(Math.max(expectedSize, 2L * size));
+        }
+    }
+
+    /**
+     * Records one access of a key.
+     *
+     * @param key the key accessed
+     */
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+
+        for (int row = 0; row < DEPTH; row++) {
+            int index = indexOf(hash, row);
+            if (counters[row][index] < MAX_COUNT) {
+                counters[row][index]++;
+                added = true;
+            }
+        }
+
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * Estimates how often a key was accessed recently.
+     *
+     * @param key the key to look up
+     * @return the estimated access count, between 0 and 15
+     */
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+
+        for (int row = 0; row < DEPTH; row++) {
+            frequency = Math.min(frequency, counters[row][indexOf(hash, row)]);
+        }
+
+        return frequency;
+    }
+
+    /**
+     * Halves every counter so that past accesses weigh less than recent ones.
+     */
+    private void reset() {
+        for (byte[] row : counters) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] = (byte) (row[i] >>> 1);
+            }
+        }
+        additions /= 2;
+    }
+
+    private void allocate(long expectedSize) {
+        int clamped = (int) Math.max(16, Math.min(expectedSize, MAXIMUM_SIZE));
+        int width = Integer.highestOneBit(clamped - 1) << 1;
+
+        this.counters = new byte[DEPTH][width];
+        this.mask = width - 1;
+        this.size = clamped;
+        this.sampleSize = 10 * clamped;
+        this.additions = 0;
+    }
+
+    private int indexOf(int hash, int row) {
+        int h = hash * SEEDS[row];
+        h ^= h >>> 17;
+        return h & mask;
+    }
+
+    private static int spread(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x45d9f3b;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,198 @@
+package datathread.metastore;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+/**
+ * Atomic file writes for FileMetastore, with the flushing required by a Durability level.
+ *
+ * For GROUP_COMMIT, the first writer to arrive becomes the leader of a batch: it waits for the flush window so that
+ * concurrent writers can join, then flushes all the temporary files of the batch in parallel, renames them into
+ * place and flushes each affected folder once. The other writers of the batch just wait for the leader. Writers
+ * arriving while a batch is being flushed start the next batch.
+ */
+class GroupCommit {
+    /**
+     * Default time a batch stays open for other writers to join.
+     */
+    static final Duration DEFAULT_WINDOW = Duration.ofMillis(2);
+
+    private final Durability durability;
+    private final long windowNanos;
+
+    /**
+     * Writes of the batch being collected, guarded by this.
+     */
+    private List<Pending> batch = new ArrayList<>();
+
+    /**
+     * Constructor to initialize the writer for a durability level.
+     *
+     * @param durability the durability level
+     * @param window the time a group commit batch stays open
+     */
+    GroupCommit(Durability durability, Duration window) {
+        this.durability = durability;
+        this.windowNanos = window.toNanos();
+    }
+
+    /**
+     * Replaces the content of a file atomically, returning once the content is as durable as required.
+     *
+     * @param target the file to write, whose folder must exist
+     * @param content the new content, from its position to its limit
+     * @throws IOException if the file cannot be written
+     */
+    void write(Path target, ByteBuffer content) throws IOException {
+        Path tmp = newTempFile(target);
+
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = content.duplicate();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                if (durability == Durability.FSYNC) {
+                    channel.force(true);
+                }
+            }
+
+            if (durability == Durability.GROUP_COMMIT) {
+                join(new Pending(tmp, target));
+            } else {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                if (durability == Durability.FSYNC) {
+                    forceFolder(target.getParent());
+                }
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Creates an empty temporary file next to a target, to be renamed over it.
+     * Unlike Files.createTempFile, which restricts the file to its owner, the file gets the default permissions,
+     * so the target keeps them once the temporary file replaces it.
+     *
+     * @param target the file the temporary file will replace
+     * @return the temporary file, with a random name hidden next to the target
+     * @throws IOException if the file cannot be created
+     */
+    static Path newTempFile(Path target) throws IOException {
+        while (true) {
+            Path tmp = target.resolveSibling("." + target.getFileName() + "." + Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36) + ".tmp");
+            try {
+                Files.newByteChannel(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE).close();
+                return tmp;
+            } catch (FileAlreadyExistsException e) {
+                // Try another name
+            }
+        }
+    }
+
+    /**
+     * Adds a write to the open batch, leading the batch if it is the first one, and waits until it is committed.
+     */
+    private void join(Pending pending) throws IOException {
+        boolean leader;
+        synchronized (this) {
+            leader = batch.isEmpty();
+            batch.add(pending);
+        }
+
+        if (leader) {
+            LockSupport.parkNanos(windowNanos);
+
+            List<Pending> committing;
+            synchronized (this) {
+                committing = batch;
+                batch = new ArrayList<>();
+            }
+            try {
+                commit(committing);
+            } finally {
+                IOException failed = new IOException("Group commit failed");
+                committing.forEach(other -> other.done.completeExceptionally(failed));
+            }
+        }
+
+        try {
+            pending.done.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Flushes, renames and completes the writes of a batch.
+     */
+    private static void commit(List<Pending> committing) {
+        committing.parallelStream().forEach(pending -> {
+            try (FileChannel channel = FileChannel.open(pending.tmp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+                Files.move(pending.tmp, pending.target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                pending.done.completeExceptionally(e);
+            }
+        });
+
+        committing.stream()
+                .filter(pending -> !pending.done.isDone())
+                .collect(Collectors.groupingBy(pending -> pending.target.getParent()))
+                .forEach((folder, writes) -> {
+                    try {
+                        forceFolder(folder);
+                        writes.forEach(pending -> pending.done.complete(null));
+                    } catch (IOException e) {
+                        writes.forEach(pending -> pending.done.completeExceptionally(e));
+                    }
+                });
+    }
+
+    /**
+     * Flushes a folder, so that the renames into it are durable.
+     * Some platforms, such as Windows, cannot open a folder for flushing; there the rename is left to the file system.
+     */
+    private static void forceFolder(Path folder) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(folder, StandardOpenOption.READ);
+        } catch (IOException | UncheckedIOException e) {
+            return;
+        }
+
+        try (FileChannel ch = channel) {
+            ch.force(true);
+        }
+    }
+
+    private static class Pending {
+        final Path tmp;
+        final Path target;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Pending(Path tmp, Path target) {
+            this.tmp = tmp;
+            this.target = target;
+        }
+    }
+}
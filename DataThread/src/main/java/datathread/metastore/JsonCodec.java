@@ -0,0 +1,188 @@
+package datathread.metastore;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared JSON I/O of the metastore backends, built to keep allocations low on full scans.
+ *
+ * 1. **Cached readers and writers**: an ObjectReader and ObjectWriter is created once per type and reused.
+ *    Both are immutable and thread-safe.
+ * 2. **No intermediate copies on read**: files are parsed from a stream and mapped segments from their buffer, instead
+ *    of being read into a byte array and then copied into a String.
+ * 3. **Pooled write buffers**: objects are serialized into a per-thread buffer that is reused across writes,
+ *    and the buffer is handed to the file writer as is.
+ *
+ * Parsing from bytes also means JSON is always read as UTF-8, whatever the platform charset.
+ */
+class JsonCodec {
+    /**
+     * Buffers that grew beyond this size are not kept, so one huge object does not pin memory in every thread.
+     */
+    private static final int MAX_POOLED_BUFFER = 1 << 20;
+
+    private static final ThreadLocal<PooledBuffer> BUFFERS = ThreadLocal.withInitial(PooledBuffer::new);
+
+    private final ObjectMapper mapper;
+    private final Map<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+    private final Map<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor to initialize the codec of an ObjectMapper, which must not be reconfigured afterwards.
+     *
+     * @param mapper the ObjectMapper to create the readers and writers from
+     */
+    JsonCodec(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    /**
+     * Returns the cached reader of a type.
+     *
+     * @param tipe the class type
+     * @return the reader
+     */
+    ObjectReader reader(Class<?> tipe) {
+        return readers.computeIfAbsent(tipe, mapper::readerFor);
+    }
+
+    /**
+     * Returns the cached writer of a type.
+     *
+     * @param tipe the class type
+     * @return the writer
+     */
+    ObjectWriter writer(Class<?> tipe) {
+        return writers.computeIfAbsent(tipe, mapper::writerFor);
+    }
+
+    /**
+     * Parses a file, streaming its content into the parser.
+     *
+     * @param path the file
+     * @param tipe the class type of the object
+     * @param <T> the type of the object
+     * @return an Optional containing the object, or an empty Optional if the file does not exist
+     * @throws IOException if the file cannot be read or parsed
+     */
+    <T> Optional<T> read(Path path, Class<T> tipe) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            return Optional.ofNullable(reader(tipe).readValue(in));
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Parses a stream.
+     *
+     * @param in the stream
+     * @param tipe the class type of the object
+     * @param <T> the type of the object
+     * @return the object, or null for a JSON null
+     * @throws IOException if the stream cannot be read or parsed
+     */
+    <T> T read(InputStream in, Class<T> tipe) throws IOException {
+        return reader(tipe).readValue(in);
+    }
+
+    /**
+     * Parses the remaining bytes of a buffer, such as a slice of a mapped file, without copying them.
+     *
+     * @param buffer the buffer, whose position is not changed
+     * @param tipe the class type of the object
+     * @param <T> the type of the object
+     * @return the object, or null for a JSON null
+     * @throws IOException if the bytes cannot be parsed
+     */
+    <T> T read(ByteBuffer buffer, Class<T> tipe) throws IOException {
+        if (buffer.hasArray()) {
+            return reader(tipe).readValue(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+
+        try (InputStream in = new ByteBufferBackedInputStream(buffer.duplicate())) {
+            return reader(tipe).readValue(in);
+        }
+    }
+
+    /**
+     * Parses a JSON string.
+     *
+     * @param json the JSON text
+     * @param tipe the class type of the object
+     * @param <T> the type of the object
+     * @return the object, or null for a JSON null
+     * @throws JsonProcessingException if the text cannot be parsed
+     */
+    <T> T read(String json, Class<T> tipe) throws JsonProcessingException {
+        return reader(tipe).readValue(json);
+    }
+
+    /**
+     * Serializes an object to a JSON string.
+     *
+     * @param data the object
+     * @return the JSON text
+     * @throws JsonProcessingException if the object cannot be serialized
+     */
+    String writeAsString(Object data) throws JsonProcessingException {
+        return writer(data.getClass()).writeValueAsString(data);
+    }
+
+    /**
+     * Serializes an object into the pooled buffer of the current thread.
+     * The returned buffer is only valid until the next call on the same thread, so it must be consumed right away.
+     *
+     * @param data the object
+     * @return a buffer wrapping the serialized bytes
+     * @throws IOException if the object cannot be serialized
+     */
+    ByteBuffer write(Object data) throws IOException {
+        PooledBuffer buffer = BUFFERS.get();
+        buffer.reset();
+        writer(data.getClass()).writeValue(buffer, data);
+
+        ByteBuffer bytes = buffer.wrap();
+        if (buffer.capacity() > MAX_POOLED_BUFFER) {
+            BUFFERS.remove();
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Growable buffer whose content can be wrapped without copying.
+     */
+    private static class PooledBuffer extends ByteArrayOutputStream {
+        PooledBuffer() {
+            super(8192);
+        }
+
+        ByteBuffer wrap() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+
+        @Override
+        public void close() {
+            // Jackson closes the target after writing; the buffer stays usable
+        }
+    }
+}
@@ -8,12 +8,19 @@ import datathread.Identifier;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class JsonLdMetastore implements Metastore {
     private final Path basePath;
@@ -40,16 +47,44 @@ public class JsonLdMetastore implements Metastore {
         }
     }
 
+    @Override
+    public boolean exists(Identifier id, Class<?> type) {
+        return resolveFile(id, getExtensionForType(type)).isFile();
+    }
+
+    @Override
+    public <T> Map<Identifier, T> readMany(Collection<Identifier> ids, Class<T> type) {
+        return ids.parallelStream()
+                .flatMap(id -> read(id, type).stream().map(obj -> Map.entry(id, obj)))
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, LinkedHashMap::new));
+    }
+
     @Override
     public <T> List<T> readAll(Class<T> type) {
+        return stream(type).collect(Collectors.toList());
+    }
+
+    @Override
+    public <T> List<T> readAll(Class<T> type, String[] domainPrefix) {
         String extension = getExtensionForType(type);
-        return findFiles(basePath.toFile(), extension).stream()
+        Path folder = resolveFolder(domainPrefix);
+
+        return findFiles(folder, extension).stream()
                 .map(file -> read(fileToId(file), type))
                 .filter(Optional::isPresent)
                 .map(Optional::get)
                 .collect(Collectors.toList());
     }
 
+    @Override
+    public <T> Stream<T> stream(Class<T> type) {
+        String extension = getExtensionForType(type);
+        return findFiles(basePath, extension).stream()
+                .map(file -> read(fileToId(file), type))
+                .filter(Optional::isPresent)
+                .map(Optional::get);
+    }
+
     @Override
     public <T> Optional<String> write(Identifier id, T data) {
         File file = resolveFile(id, getExtensionForType(data.getClass()));
@@ -107,16 +142,48 @@ public class JsonLdMetastore implements Metastore {
         return type.getSimpleName().toLowerCase();
     }
 
-    private List<File> findFiles(File directory, String extension) {
-        return java.util.Arrays.stream(directory.listFiles((dir, name) -> name.endsWith("." + extension + ".jsonld")))
-                .collect(Collectors.toList());
+    /**
+     * Resolves the folder of a domain prefix, refusing prefixes that would leave the base path.
+     */
+    private Path resolveFolder(String[] domainPrefix) {
+        Path base = basePath.toAbsolutePath().normalize();
+        Path folder = base.resolve(base.getFileSystem().getPath(".", domainPrefix)).normalize();
+
+        if (!folder.startsWith(base)) {
+            throw new IllegalArgumentException("Attempted directory traversal attack detected");
+        }
+
+        return folder;
+    }
+
+    /**
+     * Finds the files of a type in a folder and all of its subfolders.
+     */
+    private List<File> findFiles(Path directory, String extension) {
+        if (!Files.isDirectory(directory)) {
+            return Collections.emptyList();
+        }
+
+        String suffix = "." + extension + ".jsonld";
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(path -> path.getFileName().toString().endsWith(suffix))
+                    .map(Path::toFile)
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to list " + directory, e);
+        }
     }
 
     private Identifier fileToId(File file) {
         String[] parts = file.getName().split("\\.");
         String scheme = parts[1];
         String name = parts[0];
-        String[] domain = file.getParentFile().getPath().substring(basePath.toString().length() + 1).split(File.separator);
+        Path folder = basePath.toAbsolutePath().normalize().relativize(file.toPath().toAbsolutePath().normalize().getParent());
+        String[] domain = StreamSupport.stream(folder.spliterator(), false)
+                .map(Path::toString)
+                .filter(segment -> !segment.isEmpty())
+                .toArray(String[]::new);
 
         return new Identifier(scheme, domain, name);
     }
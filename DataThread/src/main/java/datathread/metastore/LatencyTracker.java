@@ -0,0 +1,54 @@
+package datathread.metastore;
+
+import java.util.Arrays;
+
+/**
+ * Sliding window of the latest call latencies of one Metastore, to estimate their percentiles.
+ *
+ * The window is small and fixed, so recording is a single array store and percentiles follow changes in latency
+ * within a few hundred calls. Percentiles are only reported once the window holds enough samples to be meaningful.
+ */
+class LatencyTracker {
+    /**
+     * Number of latencies kept.
+     */
+    static final int WINDOW = 256;
+
+    /**
+     * Number of samples below which no percentile is reported.
+     */
+    static final int MIN_SAMPLES = 16;
+
+    private final long[] samples = new long[WINDOW];
+    private long count;
+
+    /**
+     * Records the latency of a call.
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    synchronized void record(long nanos) {
+        samples[(int) (count % WINDOW)] = nanos;
+        count++;
+    }
+
+    /**
+     * Returns a percentile of the recorded latencies.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the latency in nanoseconds, or -1 if too few calls were recorded
+     */
+    long percentile(double percentile) {
+        long[] sorted;
+        synchronized (this) {
+            if (count < MIN_SAMPLES) {
+                return -1;
+            }
+            sorted = Arrays.copyOf(samples, (int) Math.min(count, WINDOW));
+        }
+
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(rank, sorted.length - 1))];
+    }
+}
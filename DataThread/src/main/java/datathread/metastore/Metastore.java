@@ -2,8 +2,13 @@ package datathread.metastore;
 
 import datathread.Identifier;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Interface for Metastore operations.
@@ -20,6 +25,59 @@ public interface Metastore {
      */
     public <T> Optional<T> read(Identifier id, Class<T> tipe);
 
+    /**
+     * Reads many objects of the specified type in one call.
+     * Implementations should override this with a batched lookup; the default simply reads each id in turn.
+     *
+     * @param ids the Identifiers of the objects to be read
+     * @param tipe the class type of the objects to be read
+     * @param <T> the type of the objects to be read
+     * @return a map from Identifier to object, in the iteration order of ids, containing only the objects found
+     */
+    public default <T> Map<Identifier, T> readMany(Collection<Identifier> ids, Class<T> tipe) {
+        Map<Identifier, T> results = new LinkedHashMap<>();
+        ids.forEach(id -> read(id, tipe).ifPresent(obj -> results.put(id, obj)));
+        return results;
+    }
+
+    /**
+     * Checks whether an object of the specified type exists, without deserializing it.
+     * Implementations should override this with a cheap probe; the default reads the object.
+     *
+     * @param id the Identifier of the object
+     * @param tipe the class type of the object
+     * @return true if the object exists, false otherwise
+     */
+    public default boolean exists(Identifier id, Class<?> tipe) {
+        return read(id, tipe).isPresent();
+    }
+
+    /**
+     * Tells whether an object of the specified type may exist, from in-memory state only, so callers can skip a store
+     * that definitely lacks it. It may answer true for a missing object, but never false for an existing one.
+     * The default does not know and answers true.
+     *
+     * @param id the Identifier of the object
+     * @param tipe the class type of the object
+     * @return false if the object definitely does not exist, true if it may
+     */
+    public default boolean mightContain(Identifier id, Class<?> tipe) {
+        return true;
+    }
+
+    /**
+     * Returns the size, modification time and version of an object of the specified type, without deserializing it.
+     * Implementations should override this with a cheap probe; the default reads the object
+     * and only reports its hash code as version.
+     *
+     * @param id the Identifier of the object
+     * @param tipe the class type of the object
+     * @return an Optional containing the metadata if the object exists, or an empty Optional if not found
+     */
+    public default Optional<ObjectStat> stat(Identifier id, Class<?> tipe) {
+        return read(id, tipe).map(obj -> new ObjectStat(-1, null, Integer.toHexString(obj.hashCode())));
+    }
+
     /**
      * Reads all objects of the specified type.
      *
@@ -29,6 +87,103 @@ public interface Metastore {
      */
     public <T> List<T> readAll(Class<T> tipe);
 
+    /**
+     * Reads all objects of the specified type whose Identifier domain starts with the given prefix.
+     * For example the prefix ["person"] matches the domains ["person"] and ["person", "address"], but not ["personnel"].
+     * The default implementation reads everything for an empty prefix, and otherwise reads the objects listed by
+     * listIds with readMany. Backends that can neither list nor filter their objects by domain must override it.
+     *
+     * @param tipe the class type of the objects to be read
+     * @param domainPrefix the leading domain segments to restrict the read to; an empty prefix reads everything
+     * @param <T> the type of the objects to be read
+     * @return a list of all objects found under the domain prefix
+     * @throws UnsupportedOperationException if the prefix is not empty and the backend cannot list its objects
+     */
+    public default <T> List<T> readAll(Class<T> tipe, String[] domainPrefix) {
+        if (domainPrefix.length == 0) {
+            return readAll(tipe);
+        }
+
+        List<Identifier> ids = listIds(tipe, domainPrefix).orElseThrow(() ->
+                new UnsupportedOperationException(getClass().getSimpleName() + " cannot read by domain prefix"));
+        return List.copyOf(readMany(ids, tipe).values());
+    }
+
+    /**
+     * Lists the Identifiers of all objects of the specified type under a domain prefix, without deserializing them,
+     * so callers can decide which objects to read before paying for it.
+     * As with FileMetastore.resolveIdentifier, the scheme of a listed Identifier is the file style of the type.
+     * Backends that cannot enumerate their objects return an empty Optional, which is the default.
+     *
+     * @param tipe the class type of the objects to be listed
+     * @param domainPrefix the leading domain segments to restrict the listing to; an empty prefix lists everything
+     * @return an Optional containing the Identifiers, or an empty Optional if the backend cannot list them
+     */
+    public default Optional<List<Identifier>> listIds(Class<?> tipe, String[] domainPrefix) {
+        return Optional.empty();
+    }
+
+    /**
+     * Lists the Identifiers of objects of the specified type that follow an Identifier in the order of pages
+     * (see Page.ORDER), so that several backends can be paged through together by merging their listings.
+     * The default implementation sorts the result of listIds; backends that keep their objects in that order
+     * should override it to list only what follows.
+     *
+     * @param tipe the class type of the objects to be listed
+     * @param after the Identifier to list from, exclusive, or null to list from the beginning
+     * @param limit the maximum number of Identifiers to list
+     * @return an Optional containing the Identifiers in page order, or an empty Optional if the backend cannot list them
+     */
+    public default Optional<List<Identifier>> listIdsAfter(Class<?> tipe, Identifier after, int limit) {
+        return listIds(tipe, new String[0]).map(ids -> ids.stream()
+                .filter(id -> after == null || Page.ORDER.compare(id, after) > 0)
+                .sorted(Page.ORDER)
+                .limit(limit)
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Streams all objects of the specified type, deserializing each one only when the stream reaches it.
+     * The stream may hold files or connections open, so callers should close it (e.g. with try-with-resources),
+     * which also allows them to stop early without enumerating the rest of the store.
+     * The default implementation streams over the result of readAll.
+     *
+     * @param tipe the class type of the objects to be read
+     * @param <T> the type of the objects to be read
+     * @return a lazily populated stream of all objects found
+     */
+    public default <T> Stream<T> stream(Class<T> tipe) {
+        return readAll(tipe).stream();
+    }
+
+    /**
+     * Reads one page of objects of the specified type, in a stable order by Identifier.
+     * Passing the continuation token of a page returns the objects that follow it.
+     * The default implementation uses the position in stream as the token, so it rescans the skipped objects
+     * and is only stable if the backend streams in a stable order.
+     *
+     * @param tipe the class type of the objects to be read
+     * @param limit the maximum number of objects in the page
+     * @param continuationToken the token of the previous page, or null to start from the beginning
+     * @param <T> the type of the objects to be read
+     * @return the page of objects, with a continuation token unless it is the last page
+     */
+    public default <T> Page<T> readPage(Class<T> tipe, int limit, String continuationToken) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Page limit must be positive: " + limit);
+        }
+
+        long offset = continuationToken == null ? 0 : Long.parseLong(continuationToken);
+
+        try (Stream<T> stream = stream(tipe)) {
+            List<T> items = stream.skip(offset).limit(limit + 1L).collect(Collectors.toList());
+
+            return items.size() > limit
+                    ? new Page<>(items.subList(0, limit), Long.toString(offset + limit))
+                    : new Page<>(items, null);
+        }
+    }
+
     /**
      * Writes an object to the Metastore.
      *
@@ -39,6 +194,18 @@ public interface Metastore {
      */
     public <T> Optional<String> write(Identifier id, T data);
 
+    /**
+     * Writes a batch of objects to the Metastore.
+     * Implementations should override this with a native batch; the default simply writes each object in turn.
+     *
+     * @param objects the objects to be written, keyed by their Identifier
+     * @return an Optional containing the messages of the individual write operations, or an empty Optional if there were none
+     */
+    public default Optional<String> writeAll(Map<Identifier, ?> objects) {
+        return joinResults(objects.entrySet().stream()
+                .map(entry -> write(entry.getKey(), entry.getValue())));
+    }
+
     /**
      * Deletes an object by its Identifier.
      *
@@ -46,4 +213,31 @@ public interface Metastore {
      * @return an Optional containing the result of the delete operation, or an empty Optional if no deletion occurred
      */
     public Optional<String> delete(Identifier id);
+
+    /**
+     * Deletes a batch of objects by their Identifiers.
+     * Implementations should override this with a native batch; the default simply deletes each object in turn.
+     *
+     * @param ids the Identifiers of the objects to be deleted
+     * @return an Optional containing the messages of the individual delete operations, or an empty Optional if there were none
+     */
+    public default Optional<String> deleteAll(Collection<Identifier> ids) {
+        return joinResults(ids.stream().map(this::delete));
+    }
+
+    /**
+     * Joins the non-empty messages of several operations into a single result.
+     *
+     * @param results the results of the individual operations
+     * @return an Optional containing the messages separated by newlines, or an empty Optional if there were none
+     */
+    static Optional<String> joinResults(Stream<Optional<String>> results) {
+        String result = results
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .filter(s -> !s.isEmpty())
+                .collect(Collectors.joining("\n"));
+
+        return result.isEmpty() ? Optional.empty() : Optional.of(result);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,70 @@
+package datathread.metastore;
+
+import datathread.Identifier;
+
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * A change to an object of a Metastore, as reported by a change feed such as FileMetastore.watch.
+ *
+ * The type is given as its file style (see FileMetastore.classNameToFileStyle) because the store only knows
+ * the file name, not the class it will be read as; use isOf to match it against a class. For the same reason the
+ * scheme of the Identifier is the file style too, as in FileMetastore.resolveIdentifier, so listeners should match
+ * objects by domain and name, as CachingMetastore.onChange does.
+ * An OVERFLOW event means changes were lost and carries no Identifier: listeners should rescan what they keep.
+ */
+public class MetastoreEvent {
+    /**
+     * Kind of change.
+     */
+    public enum Kind {
+        CREATED,
+        MODIFIED,
+        DELETED,
+        OVERFLOW
+    }
+
+    public final Kind kind;
+    public final Identifier id;
+    public final String fileStyle;
+
+    public MetastoreEvent(Kind kind, Identifier id, String fileStyle) {
+        this.kind = kind;
+        this.id = id;
+        this.fileStyle = fileStyle;
+    }
+
+    public Kind kind() { return this.kind; }
+    public Optional<Identifier> id() { return Optional.ofNullable(this.id); }
+    public String fileStyle() { return this.fileStyle; }
+
+    /**
+     * Checks whether the event concerns objects of a class.
+     *
+     * @param tipe the class type
+     * @return true if the file style of the event is the one of the class
+     */
+    public boolean isOf(Class<?> tipe) {
+        return fileStyle != null && fileStyle.equals(FileMetastore.classNameToFileStyle(tipe));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof MetastoreEvent)) return false;
+
+        MetastoreEvent other = (MetastoreEvent) o;
+        return kind == other.kind && Objects.equals(id, other.id) && Objects.equals(fileStyle, other.fileStyle);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(kind, id, fileStyle);
+    }
+
+    @Override
+    public String toString() {
+        return "MetastoreEvent{kind=" + kind + ", id=" + id + ", fileStyle=" + fileStyle + "}";
+    }
+}
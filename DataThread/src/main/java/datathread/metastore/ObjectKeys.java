@@ -0,0 +1,111 @@
+package datathread.metastore;
+
+import datathread.Identifier;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Keys of the key-value backends: SegmentMetastore, ContentAddressedMetastore and VersionedMetastore.
+ *
+ * A key is the path that FileMetastore would store an object at, relative to the base directory and with '/' as the
+ * separator, e.g. domain1/domain2/name.my_class.json. In a map sorted by key, the objects under a domain prefix, and
+ * the metadata sets of an Identifier, are therefore next to each other and are found with a range scan.
+ */
+class ObjectKeys {
+    private static final String EXTENSION = "." + StorageEncoding.JSON.extension();
+
+    private final Path baseDir;
+
+    /**
+     * Constructor to initialize the keys of a store.
+     *
+     * @param baseDir the normalized absolute base directory of the store
+     */
+    ObjectKeys(Path baseDir) {
+        this.baseDir = baseDir;
+    }
+
+    /**
+     * Returns the key of an object.
+     *
+     * @param id the Identifier of the object
+     * @param tipe the class type of the object
+     * @return the key
+     */
+    String keyFor(Identifier id, Class<?> tipe) {
+        return relativeKey(baseDir, FileMetastore.resolveFile(baseDir, id.scheme(), id.domain(), id.name(), FileMetastore.classNameToFileStyle(tipe)));
+    }
+
+    /**
+     * Returns the Identifier of the object stored under a key, the reverse of keyFor.
+     *
+     * @param key the key
+     * @return an Optional containing the Identifier, or an empty Optional if the key is not the key of a metadata file
+     */
+    Optional<Identifier> identifierOf(String key) {
+        return FileMetastore.resolveIdentifier(baseDir, baseDir.resolve(key));
+    }
+
+    /**
+     * Returns the entries of the objects of a type under a domain prefix, in key order. The stream reads the map
+     * lazily, so it must be consumed while the map is guarded.
+     *
+     * @param keys the map sorted by key
+     * @param tipe the class type of the objects
+     * @param domainPrefix the domain segments the objects are under, or an empty array for all objects
+     * @param <V> the type of the values of the map
+     * @return the matching entries
+     */
+    <V> Stream<Map.Entry<String, V>> ofType(NavigableMap<String, V> keys, Class<?> tipe, String[] domainPrefix) {
+        String suffix = "." + FileMetastore.classNameToFileStyle(tipe) + EXTENSION;
+        String folder = relativeKey(baseDir, FileMetastore.resolveFolder(baseDir, domainPrefix));
+        NavigableMap<String, V> candidates = folder.isEmpty() ? keys : range(keys, folder + "/");
+
+        return candidates.entrySet().stream().filter(entry -> entry.getKey().endsWith(suffix));
+    }
+
+    /**
+     * Returns the keys of every metadata set stored for an Identifier, whatever its type, as FileMetastore deletes them.
+     *
+     * @param keys the map sorted by key
+     * @param id the Identifier
+     * @param <V> the type of the values of the map
+     * @return the keys, in key order
+     */
+    <V> List<String> metadataSets(NavigableMap<String, V> keys, Identifier id) {
+        String folder = relativeKey(baseDir, FileMetastore.resolveFolder(baseDir, id.domain()));
+        String prefix = (folder.isEmpty() ? "" : folder + "/") + FileMetastore.unescape(id.name()) + ".";
+
+        // The rest of the key must be a single file style, so that the keys of "name.v2" are not taken for "name"
+        return range(keys, prefix).keySet().stream()
+                .filter(key -> key.indexOf('.', prefix.length()) == key.length() - EXTENSION.length())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the key of a file relative to a folder.
+     *
+     * @param base the folder
+     * @param path the file, under the folder
+     * @return the key
+     */
+    static String relativeKey(Path base, Path path) {
+        Path relative = base.relativize(path);
+
+        return IntStream.range(0, relative.getNameCount())
+                .mapToObj(i -> relative.getName(i).toString())
+                .filter(name -> !name.isEmpty())
+                .collect(Collectors.joining("/"));
+    }
+
+    private static <V> NavigableMap<String, V> range(NavigableMap<String, V> keys, String prefix) {
+        return keys.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+}
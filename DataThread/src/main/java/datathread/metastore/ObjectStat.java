@@ -0,0 +1,55 @@
+package datathread.metastore;
+
+import java.time.Instant;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Metadata about a stored object, obtained without deserializing it.
+ *
+ * The version changes whenever the stored content changes, so callers can compare versions
+ * to detect modifications. Depending on the backend it is a content hash or a size/modification-time tag.
+ */
+public class ObjectStat {
+    public final long size;
+    public final Instant lastModified;
+    public final String version;
+
+    /**
+     * Constructor to initialize an ObjectStat.
+     *
+     * @param size the stored size of the object, or -1 if unknown
+     * @param lastModified the time the object was last modified, or null if unknown
+     * @param version the content hash or version tag of the object
+     */
+    public ObjectStat(long size, Instant lastModified, String version) {
+        this.size = size;
+        this.lastModified = lastModified;
+        this.version = version;
+    }
+
+    public long size() { return this.size; }
+    public Optional<Instant> lastModified() { return Optional.ofNullable(this.lastModified); }
+    public String version() { return this.version; }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ObjectStat)) return false;
+
+        ObjectStat other = (ObjectStat) o;
+        return this.size == other.size
+                && Objects.equals(this.lastModified, other.lastModified)
+                && Objects.equals(this.version, other.version);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(this.size, this.lastModified, this.version);
+    }
+
+    @Override
+    public String toString() {
+        return "ObjectStat{size=" + size + ", lastModified=" + lastModified + ", version=" + version + "}";
+    }
+}
@@ -0,0 +1,89 @@
+package datathread.metastore;
+
+import datathread.Identifier;
+
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A single page of objects returned by {@link Metastore#readPage(Class, int, String)}.
+ *
+ * The continuation token is opaque to callers. It is passed back to readPage to resume
+ * immediately after the last object of this page, and is absent on the last page.
+ *
+ * @param <T> the type of the objects in the page
+ */
+public class Page<T> {
+    /**
+     * Order of objects in pages: by domain, segment by segment with shorter domains first, then by name and scheme.
+     */
+    static final Comparator<Identifier> ORDER = Comparator.comparing(Identifier::domain, Arrays::compare)
+            .thenComparing(Identifier::name)
+            .thenComparing(id -> Objects.toString(id.scheme(), ""));
+
+    private final List<T> items;
+    private final String continuationToken;
+
+    /**
+     * Constructor to initialize a Page with its items and the token of the following page.
+     *
+     * @param items the objects in this page
+     * @param continuationToken the token to resume from, or null if this is the last page
+     */
+    public Page(List<T> items, String continuationToken) {
+        this.items = items == null ? Collections.emptyList() : Collections.unmodifiableList(items);
+        this.continuationToken = continuationToken;
+    }
+
+    public List<T> items() { return this.items; }
+    public Optional<String> continuationToken() { return Optional.ofNullable(this.continuationToken); }
+
+    /**
+     * Checks whether another page follows this one.
+     *
+     * @return true if a continuation token is present, false otherwise
+     */
+    public boolean hasNext() {
+        return this.continuationToken != null;
+    }
+
+    /**
+     * Encodes an Identifier as a continuation token, for readers that resume after the last Identifier of a page.
+     *
+     * @param id the last Identifier of the page
+     * @return the token
+     */
+    static String tokenOf(Identifier id) {
+        return Stream.concat(Stream.concat(Stream.of(Objects.toString(id.scheme(), "")), Arrays.stream(id.domain())), Stream.of(id.name()))
+                .map(segment -> URLEncoder.encode(segment, StandardCharsets.UTF_8))
+                .collect(Collectors.joining("/"));
+    }
+
+    /**
+     * Decodes a continuation token written by tokenOf.
+     *
+     * @param token the token
+     * @return the Identifier it was made from
+     * @throws IllegalArgumentException if the token was not written by tokenOf
+     */
+    static Identifier identifierOf(String token) {
+        String[] segments = token.split("/", -1);
+        if (segments.length < 2) {
+            throw new IllegalArgumentException("Invalid continuation token: " + token);
+        }
+
+        String[] decoded = Arrays.stream(segments)
+                .map(segment -> URLDecoder.decode(segment, StandardCharsets.UTF_8))
+                .toArray(String[]::new);
+        return new Identifier(decoded[0], Arrays.copyOfRange(decoded, 1, decoded.length - 1), decoded[decoded.length - 1]);
+    }
+}
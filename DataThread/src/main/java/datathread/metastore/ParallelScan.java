@@ -0,0 +1,225 @@
+package datathread.metastore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Fork/join traversal of a one-file-per-object directory tree, used by the parallel readAll of FileMetastore and FileStore.
+ *
+ * Every domain folder is listed by its own task and its sub-folders are forked as further tasks, so both the
+ * directory listing and the deserialization spread over the pool. Folders with many files are split into chunks.
+ * All tasks share the Loader, which must be thread-safe; it decides how a file is decoded, e.g. from its extension
+ * in stores mixing StorageEncodings, or through decompression.
+ *
+ * The objects are returned in traversal order: the files of a folder, in the order they are listed, before its
+ * sub-folders, also in the order they are listed. When ordered, the files and the sub-folders are listed in name
+ * order; otherwise the listing order of the file system is kept, which saves the sorting. A Lister can list the
+ * folders in another order, e.g. the order of readPage in FileMetastore.
+ */
+@SuppressWarnings("serial") // Tasks are never serialized
+class ParallelScan<T> extends RecursiveTask<List<T>> {
+    /**
+     * Number of files deserialized by one task.
+     */
+    private static final int CHUNK_SIZE = 64;
+
+    private final Path folder;
+    private final List<Path> files;
+    private final Lister lister;
+    private final Loader<T> loader;
+
+    private ParallelScan(Path folder, List<Path> files, Lister lister, Loader<T> loader) {
+        this.folder = folder;
+        this.files = files;
+        this.lister = lister;
+        this.loader = loader;
+    }
+
+    /**
+     * Reads all objects under a folder whose file names are accepted by a filter.
+     *
+     * @param pool the pool to run the traversal in
+     * @param folder the folder to traverse
+     * @param fileFilter the filter on the file names to read
+     * @param loader the loader of the objects
+     * @param ordered whether the result must be in traversal order
+     * @param <T> the type of the objects
+     * @return the objects read, skipping files that cannot be read
+     */
+    static <T> List<T> readAll(ForkJoinPool pool, Path folder, Predicate<String> fileFilter, Loader<T> loader, boolean ordered) {
+        return readAll(pool, folder, byName(fileFilter, ordered), loader);
+    }
+
+    /**
+     * Reads all objects under a folder, listing every folder with a Lister, which decides which files are read and
+     * in which order the files and the sub-folders come.
+     *
+     * @param pool the pool to run the traversal in
+     * @param folder the folder to traverse
+     * @param lister the lister of the folders
+     * @param loader the loader of the objects
+     * @param <T> the type of the objects
+     * @return the objects read in traversal order, skipping files that cannot be read
+     */
+    static <T> List<T> readAll(ForkJoinPool pool, Path folder, Lister lister, Loader<T> loader) {
+        if (!Files.isDirectory(folder)) {
+            return new ArrayList<>();
+        }
+
+        return pool.invoke(new ParallelScan<>(folder, null, lister, loader));
+    }
+
+    /**
+     * Reads the objects of a list of files, in list order.
+     *
+     * @param pool the pool to read in
+     * @param files the files to read
+     * @param loader the loader of the objects
+     * @param <T> the type of the objects
+     * @return the objects read, skipping files that cannot be read
+     */
+    static <T> List<T> readFiles(ForkJoinPool pool, List<Path> files, Loader<T> loader) {
+        return pool.invoke(new ParallelScan<>(null, files, null, loader));
+    }
+
+    @Override
+    protected List<T> compute() {
+        return folder == null ? readChunk() : readFolder();
+    }
+
+    private List<T> readFolder() {
+        Listing listing;
+        try {
+            listing = lister.list(folder);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+        List<Path> matches = listing.files;
+
+        List<ParallelScan<T>> tasks = new ArrayList<>();
+        for (int i = CHUNK_SIZE; i < matches.size(); i += CHUNK_SIZE) {
+            tasks.add(new ParallelScan<>(null, matches.subList(i, Math.min(i + CHUNK_SIZE, matches.size())), lister, loader));
+        }
+        listing.folders.forEach(child -> tasks.add(new ParallelScan<>(child, null, lister, loader)));
+        tasks.forEach(ParallelScan::fork);
+
+        // The first chunk is read by this task while the others run
+        List<T> results = new ParallelScan<T>(null, matches.subList(0, Math.min(CHUNK_SIZE, matches.size())), lister, loader).readChunk();
+        for (ParallelScan<T> task : tasks) {
+            results.addAll(task.join());
+        }
+
+        return results;
+    }
+
+    private List<T> readChunk() {
+        if (files.size() > CHUNK_SIZE) {
+            List<ParallelScan<T>> tasks = new ArrayList<>();
+            for (int i = 0; i < files.size(); i += CHUNK_SIZE) {
+                tasks.add(new ParallelScan<>(null, files.subList(i, Math.min(i + CHUNK_SIZE, files.size())), lister, loader));
+            }
+            return invokeAll(tasks).stream()
+                    .flatMap(task -> task.join().stream())
+                    .collect(Collectors.toList());
+        }
+
+        List<T> results = new ArrayList<>(files.size());
+        for (Path file : files) {
+            try {
+                T obj = loader.load(file);
+                if (obj != null) {
+                    results.add(obj);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Returns a Lister reading the files whose names are accepted by a filter, skipping the index folder.
+     *
+     * @param fileFilter the filter on the file names to read
+     * @param ordered whether the files and the sub-folders are listed in name order
+     * @return the Lister
+     */
+    private static Lister byName(Predicate<String> fileFilter, boolean ordered) {
+        return folder -> {
+            List<Path> matches = new ArrayList<>();
+            List<Path> folders = new ArrayList<>();
+
+            try (Stream<Path> children = Files.list(folder)) {
+                Stream<Path> listing = ordered ? children.sorted(Comparator.comparing(path -> path.getFileName().toString())) : children;
+
+                listing.forEach(child -> {
+                    if (Files.isDirectory(child)) {
+                        if (!child.getFileName().toString().equals(FileIndex.INDEX_FOLDER)) {
+                            folders.add(child);
+                        }
+                    } else if (fileFilter.test(child.getFileName().toString())) {
+                        matches.add(child);
+                    }
+                });
+            }
+
+            return new Listing(matches, folders);
+        };
+    }
+
+    /**
+     * Files to read in a folder and sub-folders to traverse after them, each in traversal order.
+     */
+    static class Listing {
+        final List<Path> files;
+        final List<Path> folders;
+
+        Listing(List<Path> files, List<Path> folders) {
+            this.files = files;
+            this.folders = folders;
+        }
+    }
+
+    /**
+     * Lists a folder of the traversal.
+     */
+    @FunctionalInterface
+    interface Lister {
+        /**
+         * Lists the files to read in a folder and the sub-folders to traverse.
+         *
+         * @param folder the folder
+         * @return the listing
+         * @throws IOException if the folder cannot be listed
+         */
+        Listing list(Path folder) throws IOException;
+    }
+
+    /**
+     * Decodes the object stored in a file.
+     *
+     * @param <T> the type of the object
+     */
+    @FunctionalInterface
+    interface Loader<T> {
+        /**
+         * Loads the object stored in a file.
+         *
+         * @param file the file
+         * @return the object, or null to skip the file
+         * @throws IOException if the file cannot be read or decoded
+         */
+        T load(Path file) throws IOException;
+    }
+}
@@ -1,18 +1,31 @@
 package datathread.metastore;
 
 import datathread.Identifier;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.TupleQueryResult;
 import org.eclipse.rdf4j.repository.Repository;
 import org.eclipse.rdf4j.repository.RepositoryConnection;
 import org.eclipse.rdf4j.repository.sail.SailRepository;
 import org.eclipse.rdf4j.sail.memory.MemoryStore;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 public class RDFMetastore implements Metastore {
+    /**
+     * Maximum number of ids bound in a single VALUES clause by readMany.
+     */
+    static final int READ_MANY_BATCH_SIZE = 1000;
+
     private final Repository repository;
     private final ObjectMapper mapper;
 
@@ -43,10 +56,85 @@ public class RDFMetastore implements Metastore {
     }
 
     @Override
-    public <T> List<T> readAll(Class<T> type) {
+    public boolean exists(Identifier id, Class<?> type) {
+        try (RepositoryConnection conn = repository.getConnection()) {
+            return conn.prepareBooleanQuery(buildExistsQuery(id, type)).evaluate();
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to query RDF store", e);
+        }
+    }
+
+    /**
+     * Returns the metadata of an object, computed inside the store so the value itself is never transferred.
+     * The size is the length of the stored JSON and the version is its SHA-256 hash; no modification time is kept.
+     */
+    @Override
+    public Optional<ObjectStat> stat(Identifier id, Class<?> type) {
+        try (RepositoryConnection conn = repository.getConnection()) {
+            try (TupleQueryResult result = conn.prepareTupleQuery(buildStatQuery(id, type)).evaluate()) {
+                if (result.hasNext()) {
+                    BindingSet bs = result.next();
+                    return Optional.of(new ObjectStat(
+                            Long.parseLong(bs.getValue("size").stringValue()),
+                            null,
+                            bs.getValue("hash").stringValue()));
+                }
+                return Optional.empty();
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to query RDF store", e);
+        }
+    }
+
+    @Override
+    public <T> Map<Identifier, T> readMany(Collection<Identifier> ids, Class<T> type) {
+        Map<String, Identifier> byIri = new LinkedHashMap<>();
+        ids.forEach(id -> byIri.putIfAbsent(id.toString(), id));
+
+        Map<Identifier, T> found = new HashMap<>();
+        List<String> iris = new ArrayList<>(byIri.keySet());
+
         try (RepositoryConnection conn = repository.getConnection()) {
+            for (int start = 0; start < iris.size(); start += READ_MANY_BATCH_SIZE) {
+                List<String> batch = iris.subList(start, Math.min(start + READ_MANY_BATCH_SIZE, iris.size()));
+
+                try (TupleQueryResult result = conn.prepareTupleQuery(buildReadManyQuery(batch)).evaluate()) {
+                    while (result.hasNext()) {
+                        BindingSet bs = result.next();
+                        Identifier id = byIri.get(bs.getValue("id").stringValue());
+
+                        if (id != null && !found.containsKey(id)) {
+                            found.put(id, mapper.readValue(bs.getValue("value").stringValue(), type));
+                        }
+                    }
+                }
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to deserialize", e);
+        }
+
+        Map<Identifier, T> results = new LinkedHashMap<>();
+        byIri.values().stream()
+                .filter(found::containsKey)
+                .forEach(id -> results.put(id, found.get(id)));
+
+        return results;
+    }
+
+    @Override
+    public <T> List<T> readAll(Class<T> type) {
+        try (Stream<T> stream = stream(type)) {
+            return stream.collect(Collectors.toList());
+        }
+    }
+
+    @Override
+    public <T> Stream<T> stream(Class<T> type) {
+        RepositoryConnection conn = repository.getConnection();
+
+        try {
             String query = buildReadAllQuery(type);
-            var result = conn.prepareTupleQuery(query).evaluate();
+            TupleQueryResult result = conn.prepareTupleQuery(query).evaluate();
 
             return StreamSupport.stream(result.spliterator(), false)
                     .map(bs -> {
@@ -59,7 +147,64 @@ public class RDFMetastore implements Metastore {
                             throw new RuntimeException("Failed to readAll", e);
                         }
                     })
-                    .collect(Collectors.toList());
+                    .onClose(() -> {
+                        try {
+                            result.close();
+                        } finally {
+                            conn.close();
+                        }
+                    });
+        } catch (RuntimeException e) {
+            conn.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public <T> List<T> readAll(Class<T> type, String[] domainPrefix) {
+        try (RepositoryConnection conn = repository.getConnection()) {
+            String query = buildReadAllQuery(type, domainPrefix);
+
+            try (TupleQueryResult result = conn.prepareTupleQuery(query).evaluate()) {
+                List<T> results = new ArrayList<>();
+                while (result.hasNext()) {
+                    results.add(mapper.readValue(result.next().getValue("value").stringValue(), type));
+                }
+
+                return results;
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to readAll", e);
+        }
+    }
+
+    /**
+     * Reads one page of objects of the specified type, ordered by the string form of their Identifier.
+     * The continuation token is the last Identifier of the page and is used as a keyset cursor.
+     */
+    @Override
+    public <T> Page<T> readPage(Class<T> type, int limit, String continuationToken) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Page limit must be positive: " + limit);
+        }
+
+        List<String> ids = new ArrayList<>();
+        List<T> items = new ArrayList<>();
+
+        try (RepositoryConnection conn = repository.getConnection()) {
+            String query = buildReadPageQuery(type, limit + 1, continuationToken);
+
+            try (TupleQueryResult result = conn.prepareTupleQuery(query).evaluate()) {
+                while (result.hasNext() && ids.size() < limit) {
+                    BindingSet bs = result.next();
+                    ids.add(bs.getValue("id").stringValue());
+                    items.add(mapper.readValue(bs.getValue("value").stringValue(), type));
+                }
+
+                return new Page<>(items, result.hasNext() ? ids.get(ids.size() - 1) : null);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to readPage", e);
         }
     }
 
@@ -67,7 +212,7 @@ public class RDFMetastore implements Metastore {
     public <T> Optional<String> write(Identifier id, T data) {
         try (RepositoryConnection conn = repository.getConnection()) {
             String jsonValue = mapper.writeValueAsString(data);
-            String statement = buildInsertStatement(id, jsonValue);
+            String statement = buildInsertStatement(id, FileMetastore.classNameToFileStyle(data.getClass()), jsonValue);
 
             conn.prepareUpdate(statement).execute();
             return Optional.of(id.toString());
@@ -76,6 +221,39 @@ public class RDFMetastore implements Metastore {
         }
     }
 
+    /**
+     * Writes a batch of objects as a single INSERT DATA update inside one repository transaction.
+     */
+    @Override
+    public Optional<String> writeAll(Map<Identifier, ?> objects) {
+        if (objects.isEmpty()) {
+            return Optional.empty();
+        }
+
+        try (RepositoryConnection conn = repository.getConnection()) {
+            List<String> triples = new ArrayList<>();
+            for (Map.Entry<Identifier, ?> entry : objects.entrySet()) {
+                triples.add(buildTriples(
+                        entry.getKey(),
+                        FileMetastore.classNameToFileStyle(entry.getValue().getClass()),
+                        mapper.writeValueAsString(entry.getValue())));
+            }
+
+            conn.begin();
+            try {
+                conn.prepareUpdate("INSERT DATA { " + String.join(" . ", triples) + " }").execute();
+                conn.commit();
+            } catch (RuntimeException e) {
+                conn.rollback();
+                throw e;
+            }
+
+            return Optional.of(objects.keySet().stream().map(id -> id.toString()).collect(Collectors.joining("\n")));
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to write to RDF store", e);
+        }
+    }
+
     @Override
     public Optional<String> delete(Identifier id) {
         try (RepositoryConnection conn = repository.getConnection()) {
@@ -87,6 +265,35 @@ public class RDFMetastore implements Metastore {
         }
     }
 
+    /**
+     * Deletes a batch of objects with a single update inside one repository transaction.
+     */
+    @Override
+    public Optional<String> deleteAll(Collection<Identifier> ids) {
+        if (ids.isEmpty()) {
+            return Optional.empty();
+        }
+
+        try (RepositoryConnection conn = repository.getConnection()) {
+            String statement = ids.stream()
+                    .map(this::buildDeleteStatement)
+                    .collect(Collectors.joining(" ;\n"));
+
+            conn.begin();
+            try {
+                conn.prepareUpdate(statement).execute();
+                conn.commit();
+            } catch (RuntimeException e) {
+                conn.rollback();
+                throw e;
+            }
+
+            return Optional.of(ids.stream().map(id -> id.toString()).collect(Collectors.joining("\n")));
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to delete from RDF store", e);
+        }
+    }
+
     protected String buildReadQuery(Identifier id) {
         return String.format(
                 "SELECT ?value WHERE { <%s> <urn:datathread:value> ?value }",
@@ -94,11 +301,63 @@ public class RDFMetastore implements Metastore {
         );
     }
 
+    protected String buildExistsQuery(Identifier id, Class tipe) {
+        return String.format(
+                "ASK { <%s> <urn:datathread:type> %s ; <urn:datathread:value> ?value }",
+                id.toString(),
+                quoted(FileMetastore.classNameToFileStyle(tipe))
+        );
+    }
+
+    protected String buildStatQuery(Identifier id, Class tipe) {
+        return String.format(
+                "SELECT (STRLEN(?value) AS ?size) (SHA256(?value) AS ?hash) WHERE { <%s> <urn:datathread:type> %s ; <urn:datathread:value> ?value } LIMIT 1",
+                id.toString(),
+                quoted(FileMetastore.classNameToFileStyle(tipe))
+        );
+    }
+
+    protected String buildReadManyQuery(Collection<String> ids) {
+        return String.format(
+                "SELECT ?id ?value WHERE { VALUES ?id { %s } ?id <urn:datathread:value> ?value }",
+                ids.stream().map(id -> "<" + id + ">").collect(Collectors.joining(" "))
+        );
+    }
+
     protected String buildReadAllQuery(Class tipe) {
-        // TODO: How is the type of the data stored in the RDF store?
         return String.format(
-                "SELECT ?value WHERE { <%s> ?type ?value }",
-                tipe.toString()
+                "SELECT ?id ?value WHERE { ?id <urn:datathread:type> %s ; <urn:datathread:value> ?value }",
+                quoted(FileMetastore.classNameToFileStyle(tipe))
+        );
+    }
+
+    protected String buildReadAllQuery(Class tipe, String[] domainPrefix) {
+        if (domainPrefix.length == 0) {
+            return buildReadAllQuery(tipe);
+        }
+
+        // Identifiers are written as scheme:/domain/segments:name, so match the domain part
+        // exactly or followed by a further segment
+        String domain = String.join("/", domainPrefix);
+
+        return String.format(
+                "SELECT ?id ?value WHERE { ?id <urn:datathread:type> %s ; <urn:datathread:value> ?value . " +
+                        "BIND(STRAFTER(STR(?id), \":/\") AS ?domain) " +
+                        "FILTER(STRSTARTS(?domain, %s) || STRSTARTS(?domain, %s)) }",
+                quoted(FileMetastore.classNameToFileStyle(tipe)),
+                quoted(domain + ":"),
+                quoted(domain + "/")
+        );
+    }
+
+    protected String buildReadPageQuery(Class tipe, int limit, String afterId) {
+        String keyset = afterId == null ? "" : String.format("FILTER(STR(?id) > %s)", quoted(afterId));
+
+        return String.format(
+                "SELECT ?id ?value WHERE { ?id <urn:datathread:type> %s ; <urn:datathread:value> ?value . %s } ORDER BY STR(?id) LIMIT %d",
+                quoted(FileMetastore.classNameToFileStyle(tipe)),
+                keyset,
+                limit
         );
     }
 
@@ -110,6 +369,19 @@ public class RDFMetastore implements Metastore {
         );
     }
 
+    protected String buildInsertStatement(Identifier id, String type, String value) {
+        return "INSERT DATA { " + buildTriples(id, type, value) + " }";
+    }
+
+    protected String buildTriples(Identifier id, String type, String value) {
+        return String.format(
+                "<%s> <urn:datathread:type> %s ; <urn:datathread:value> %s",
+                id.toString(),
+                quoted(type),
+                quoted(value)
+        );
+    }
+
     protected String buildDeleteStatement(Identifier id) {
         return String.format(
                 "DELETE WHERE { <%s> ?p ?o }",
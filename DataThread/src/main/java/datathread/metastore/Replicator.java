@@ -0,0 +1,215 @@
+package datathread.metastore;
+
+import datathread.Identifier;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Background replication of the changes of a primary Metastore to one mirror.
+ *
+ * Changes are queued in a bounded queue, which blocks the writer when it is full, and applied by a daemon thread in
+ * batches: the changes waiting in the queue are coalesced by Identifier, the latest one winning, and sent with one
+ * writeAll and one deleteAll. A failed batch of writes is retried with exponential backoff, holding back the later
+ * changes so they are applied in order, and dropped with an error after MAX_ATTEMPTS. Failed deletes are not
+ * retried, since a mirror usually fails a delete because it does not have the object.
+ */
+class Replicator implements Closeable {
+    static final int DEFAULT_CAPACITY = 10_000;
+    static final int DEFAULT_BATCH_SIZE = 100;
+    static final Duration DEFAULT_RETRY_DELAY = Duration.ofMillis(100);
+    static final int MAX_ATTEMPTS = 5;
+
+    private final Metastore mirror;
+    private final int batchSize;
+    private final Duration retryDelay;
+    private final BlockingQueue<Change> queue;
+    private final Thread thread;
+
+    /**
+     * Oldest change of the batch being applied, or null between batches.
+     */
+    private volatile Change inFlight;
+
+    /**
+     * Number of changes queued or being applied.
+     */
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * Constructor to initialize a Replicator and start its thread.
+     *
+     * @param mirror the Metastore to replicate to
+     * @param name the name of the replication thread
+     * @param capacity the maximum number of queued changes
+     * @param batchSize the maximum number of changes applied at once
+     * @param retryDelay the delay before the first retry of a failed batch, doubled at each attempt
+     */
+    Replicator(Metastore mirror, String name, int capacity, int batchSize, Duration retryDelay) {
+        this.mirror = mirror;
+        this.batchSize = batchSize;
+        this.retryDelay = retryDelay;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queues written objects, waiting for room if the queue is full.
+     *
+     * @param objects the objects, keyed by their Identifier
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void enqueueWrites(Map<Identifier, ?> objects) throws InterruptedException {
+        for (Map.Entry<Identifier, ?> entry : objects.entrySet()) {
+            put(new Change(entry.getKey(), entry.getValue()));
+        }
+    }
+
+    /**
+     * Queues deleted Identifiers, waiting for room if the queue is full.
+     *
+     * @param ids the Identifiers
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void enqueueDeletes(Collection<Identifier> ids) throws InterruptedException {
+        for (Identifier id : ids) {
+            put(new Change(id, null));
+        }
+    }
+
+    private void put(Change change) throws InterruptedException {
+        pending.incrementAndGet();
+        try {
+            queue.put(change);
+        } catch (InterruptedException e) {
+            pending.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns how long the oldest change not yet applied to the mirror has been waiting.
+     *
+     * @return the replication lag, zero if the mirror is up to date
+     */
+    Duration lag() {
+        Change oldest = inFlight;
+        if (oldest == null) {
+            oldest = queue.peek();
+        }
+        return oldest == null ? Duration.ZERO : Duration.ofNanos(System.nanoTime() - oldest.enqueued);
+    }
+
+    /**
+     * Returns the number of changes not yet applied to the mirror.
+     *
+     * @return the number of queued and in-flight changes
+     */
+    int backlog() {
+        return pending.get();
+    }
+
+    /**
+     * Stops the replication thread. Changes still queued are not applied.
+     */
+    @Override
+    public void close() {
+        thread.interrupt();
+    }
+
+    private void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                List<Change> batch = new ArrayList<>();
+                batch.add(queue.take());
+                queue.drainTo(batch, batchSize - 1);
+
+                inFlight = batch.get(0);
+                apply(batch);
+                inFlight = null;
+                pending.addAndGet(-batch.size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void apply(List<Change> batch) throws InterruptedException {
+        Map<Identifier, Change> latest = new LinkedHashMap<>();
+        batch.forEach(change -> {
+            latest.remove(change.id);
+            latest.put(change.id, change);
+        });
+
+        Map<Identifier, Object> writes = new LinkedHashMap<>();
+        List<Identifier> deletes = new ArrayList<>();
+        latest.values().forEach(change -> {
+            if (change.data == null) {
+                deletes.add(change.id);
+            } else {
+                writes.put(change.id, change.data);
+            }
+        });
+
+        if (!writes.isEmpty()) {
+            long delay = retryDelay.toMillis();
+            for (int attempt = 1; ; attempt++) {
+                Optional<String> result = call(() -> mirror.writeAll(writes));
+                if (result.isEmpty()) {
+                    break;
+                }
+                if (attempt == MAX_ATTEMPTS) {
+                    System.err.println("Dropping " + writes.size() + " replicated writes after " + attempt + " attempts: " + result.get());
+                    break;
+                }
+
+                TimeUnit.MILLISECONDS.sleep(delay);
+                delay *= 2;
+            }
+        }
+
+        if (!deletes.isEmpty()) {
+            call(() -> mirror.deleteAll(deletes));
+        }
+    }
+
+    /**
+     * Runs a call on the mirror, turning an exception into an error message so the replication thread survives it.
+     */
+    private static Optional<String> call(Supplier<Optional<String>> call) {
+        try {
+            return call.get();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return Optional.of(e.toString());
+        }
+    }
+
+    /**
+     * Queued change: an object to write, or a deletion if data is null.
+     */
+    private static class Change {
+        final Identifier id;
+        final Object data;
+        final long enqueued = System.nanoTime();
+
+        Change(Identifier id, Object data) {
+            this.id = id;
+            this.data = data;
+        }
+    }
+}
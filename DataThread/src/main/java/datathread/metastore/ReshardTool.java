@@ -0,0 +1,35 @@
+package datathread.metastore;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
+
+/**
+ * Command line tool re-sharding a FileMetastore in place.
+ *
+ * Usage: ReshardTool --store folder --fan-out n
+ *
+ * Moves every file of the store into the layout with n levels of hashed shard folders, 0 restoring the flat layout.
+ * If the store has an index, it is rebuilt afterwards. The fan-out is recorded in the store, so FileMetastores opened
+ * on it later use the new layout without being told.
+ */
+public class ReshardTool {
+    public static void main(String[] args) {
+        Optional<Path> store = MetastoreFactory.getArgument("--store", args).map(folder -> Paths.get(folder.trim()));
+        Optional<Integer> fanOut = MetastoreFactory.getArgument("--fan-out", args).map(value -> Integer.parseInt(value.trim()));
+
+        if (store.isEmpty() || fanOut.isEmpty() || !Files.isDirectory(store.get())) {
+            System.out.println("Usage: ReshardTool --store <folder> --fan-out <0.." + FileMetastore.MAX_FAN_OUT + ">");
+            System.exit(2);
+        }
+
+        boolean indexed = Files.isDirectory(store.get().resolve(FileIndex.INDEX_FOLDER));
+        FileMetastore metastore = new FileMetastore(store.get(), null, indexed, Durability.NONE, StorageEncoding.JSON, null, fanOut.get());
+
+        Optional<String> errors = metastore.reshard();
+        errors.ifPresent(System.out::println);
+        System.out.println("ReshardTool " + (errors.isPresent() ? "finished with errors: " : "re-sharded: ") + store.get().toAbsolutePath());
+        System.exit(errors.isPresent() ? 1 : 0);
+    }
+}
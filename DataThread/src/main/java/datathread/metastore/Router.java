@@ -2,11 +2,14 @@ package datathread.metastore;
 
 import datathread.Identifier;
 
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class Router implements Metastore {
     private final Map<Class, Metastore> routes;
@@ -22,12 +25,53 @@ public class Router implements Metastore {
             .map(tipe::cast);
     }
 
+    @Override
+    public boolean exists(Identifier id, Class<?> tipe) {
+        return Optional.ofNullable(this.routes.get(tipe))
+            .map(h -> h.exists(id, tipe))
+            .orElse(false);
+    }
+
+    @Override
+    public Optional<ObjectStat> stat(Identifier id, Class<?> tipe) {
+        return Optional.ofNullable(this.routes.get(tipe))
+            .flatMap(h -> h.stat(id, tipe));
+    }
+
+    @Override
+    public <T> Map<Identifier, T> readMany(Collection<Identifier> ids, Class<T> tipe) {
+        return Optional.ofNullable(this.routes.get(tipe))
+            .map(h -> h.readMany(ids, tipe))
+            .orElseGet(LinkedHashMap::new);
+    }
+
     public <T> List<T> readAll(Class<T> tipe) {
         return Optional.ofNullable(this.routes.get(tipe))
             .map(h -> h.readAll(tipe))
             .orElse(Collections.emptyList());
     }
 
+    @Override
+    public <T> List<T> readAll(Class<T> tipe, String[] domainPrefix) {
+        return Optional.ofNullable(this.routes.get(tipe))
+            .map(h -> h.readAll(tipe, domainPrefix))
+            .orElse(Collections.emptyList());
+    }
+
+    @Override
+    public <T> Stream<T> stream(Class<T> tipe) {
+        return Optional.ofNullable(this.routes.get(tipe))
+            .map(h -> h.stream(tipe))
+            .orElseGet(Stream::empty);
+    }
+
+    @Override
+    public <T> Page<T> readPage(Class<T> tipe, int limit, String continuationToken) {
+        return Optional.ofNullable(this.routes.get(tipe))
+            .map(h -> h.readPage(tipe, limit, continuationToken))
+            .orElseGet(() -> new Page<>(Collections.emptyList(), null));
+    }
+
     public <T> Optional<String> write(Identifier id, T data) {
         Class tipe = data.getClass();
         Metastore handler = this.routes.get(tipe);
@@ -37,6 +81,25 @@ public class Router implements Metastore {
             : handler.write(id, data);
     }
 
+    /**
+     * Writes a batch of objects, grouping them by type so that each handler receives a single batch.
+     */
+    @Override
+    public Optional<String> writeAll(Map<Identifier, ?> objects) {
+        Map<Class, Map<Identifier, Object>> byType = new LinkedHashMap<>();
+        objects.forEach((id, data) ->
+            byType.computeIfAbsent(data.getClass(), tipe -> new LinkedHashMap<>()).put(id, data));
+
+        return Metastore.joinResults(byType.entrySet().stream()
+            .map(entry -> {
+                Metastore handler = this.routes.get(entry.getKey());
+
+                return (handler == null)
+                    ? Optional.of("No storage handler for type " + entry.getKey())
+                    : handler.writeAll(entry.getValue());
+            }));
+    }
+
     @Override
     public Optional<String> delete(Identifier id) {
         String result = this.routes.values().stream()
@@ -49,6 +112,12 @@ public class Router implements Metastore {
         return result.isEmpty() ? Optional.empty() : Optional.of(result);
     }
 
+    @Override
+    public Optional<String> deleteAll(Collection<Identifier> ids) {
+        return Metastore.joinResults(this.routes.values().stream()
+            .map(delegate -> delegate.deleteAll(ids)));
+    }
+
     public Optional<Metastore> getRoute(Class tipe) {
         return Optional.ofNullable(this.routes.get(tipe));
     }
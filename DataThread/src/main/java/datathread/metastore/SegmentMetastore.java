@@ -0,0 +1,1018 @@
+package datathread.metastore;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import datathread.Identifier;
+import datathread.grammar.Elements;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Implementation of the Metastore interface that packs objects into append-only segment files instead of one file per object.
+ *
+ * Objects are keyed by the path that FileMetastore would store them at, relative to the base directory
+ * (e.g. domain1/domain2/name.my_class.json), so both layouts hold the same objects under the same keys and
+ * can be converted into each other with importFrom and exportTo.
+ *
+ * Storage rules:
+ *
+ * 1. Records are appended to the active segment (segment-000001.seg, segment-000002.seg, ...) until it reaches the
+ *    maximum segment size, at which point it is sealed and a new one is started.
+ * 2. A record is a CRC32, the key and value lengths, the key and the JSON value. Deletes append a tombstone record.
+ *    Values may be compressed with a CompressionCodec, in which case they are framed as in FileMetastore, so exported
+ *    files stay readable by a FileMetastore with the same codec.
+ * 3. Every sealed segment gets a hint file (segment-000001.hint) listing the keys and offsets of its records, so opening
+ *    the store reads the small hint files and only scans the active segment.
+ * 4. An in-memory index maps each key to the location of its latest value. Reads go through FileChannel.map, so loading
+ *    a whole catalog is a sequence of reads from a few mapped files instead of one open() per object.
+ * 5. Overwritten and deleted records stay in their segment until compact rewrites the live records into new segments.
+ *    Compaction copies the records without blocking reads and writes, and can run periodically in the background.
+ * 6. A checkpoint file holds a snapshot of the index and the position in the log it was taken at. Opening the store
+ *    loads the checkpoint and only replays the records appended after it; without a valid checkpoint, the hint files
+ *    and the active segment are read instead. A checkpoint is written on close, after compaction and by the
+ *    background compactor.
+ *
+ * Segments are always replayed in id order, later records overriding earlier ones, so the store recovers correctly
+ * whatever point a write or a compaction was interrupted at.
+ * A torn record at the end of the active segment, e.g. after a crash, is detected by its CRC and truncated on open.
+ * Instances must be closed to release the segment files.
+ */
+public class SegmentMetastore implements Metastore, Closeable {
+    /**
+     * Default maximum size of a segment file.
+     */
+    public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String HINT_SUFFIX = ".hint";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int CHECKPOINT_VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int TOMBSTONE = -1;
+
+    /**
+     * Base directory holding the segment files.
+     */
+    private final Path baseDir;
+
+    /**
+     * Keys of the objects, relative to the base directory.
+     */
+    private final ObjectKeys objectKeys;
+
+    /**
+     * ObjectMapper instance for JSON serialization and deserialization.
+     */
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Cached readers of the ObjectMapper, parsing values straight from the mapped segments.
+     */
+    private final JsonCodec codec;
+
+    /**
+     * Compression of the values appended, and decompression of the values read.
+     */
+    private final Compression compression;
+
+    /**
+     * Size at which the active segment is sealed.
+     */
+    private final long maxSegmentSize;
+
+    /**
+     * Guards the segments and the index: reads share it, appends and compaction take it exclusively.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Open segments by id, the last one being the active segment.
+     */
+    private final NavigableMap<Integer, Segment> segments = new TreeMap<>();
+
+    /**
+     * Location of the latest value of every live key, sorted by key.
+     */
+    private final NavigableMap<String, Location> index = new TreeMap<>();
+
+    /**
+     * Total size of the records that are still live.
+     */
+    private long liveBytes;
+
+    /**
+     * Serializes compactions, which only hold the main lock at their start and end.
+     */
+    private final Lock compactionLock = new ReentrantLock();
+
+    /**
+     * Background compactor, or null if not started.
+     */
+    private ScheduledExecutorService compactor;
+
+    /**
+     * Constructor to initialize the SegmentMetastore with a base directory, an optional ObjectMapper, a maximum segment size
+     * and the compression of the values.
+     * Existing segments in the base directory are opened and indexed.
+     *
+     * @param baseDir the base directory holding the segment files
+     * @param objectMapper the ObjectMapper instance for JSON operations
+     * @param maxSegmentSize the size at which a segment is sealed, at most 1 GiB so that it can be mapped at once
+     * @param compression the codec compressing the values appended, or null to append them uncompressed
+     * @throws IOException if the segments cannot be opened
+     */
+    public SegmentMetastore(Path baseDir, ObjectMapper objectMapper, long maxSegmentSize, CompressionCodec compression) throws IOException {
+        if (maxSegmentSize <= HEADER_SIZE || maxSegmentSize > (1L << 30)) {
+            throw new IllegalArgumentException("Invalid segment size: " + maxSegmentSize);
+        }
+
+        this.baseDir = baseDir.toAbsolutePath().normalize();
+        this.objectKeys = new ObjectKeys(this.baseDir);
+        this.objectMapper = objectMapper == null ? new ObjectMapper() : objectMapper;
+        this.maxSegmentSize = maxSegmentSize;
+        this.compression = new Compression(compression);
+        Elements.configureObjectMapper(this.objectMapper);
+        this.codec = new JsonCodec(this.objectMapper);
+
+        Files.createDirectories(this.baseDir);
+        open();
+    }
+
+    /**
+     * Constructor to initialize the SegmentMetastore with a base directory, an optional ObjectMapper and a maximum segment size,
+     * appending values uncompressed.
+     *
+     * @param baseDir the base directory holding the segment files
+     * @param objectMapper the ObjectMapper instance for JSON operations
+     * @param maxSegmentSize the size at which a segment is sealed, at most 1 GiB so that it can be mapped at once
+     * @throws IOException if the segments cannot be opened
+     */
+    public SegmentMetastore(Path baseDir, ObjectMapper objectMapper, long maxSegmentSize) throws IOException {
+        this(baseDir, objectMapper, maxSegmentSize, null);
+    }
+
+    /**
+     * Constructor to initialize the SegmentMetastore with a base directory and a default ObjectMapper and segment size.
+     *
+     * @param baseDir the base directory holding the segment files
+     * @throws IOException if the segments cannot be opened
+     */
+    public SegmentMetastore(Path baseDir) throws IOException {
+        this(baseDir, null, DEFAULT_SEGMENT_SIZE);
+    }
+
+    @Override
+    public <T> Optional<T> read(Identifier id, Class<T> tipe) {
+        String key = objectKeys.keyFor(id, tipe);
+
+        lock.readLock().lock();
+        try {
+            Location location = index.get(key);
+            return location == null ? Optional.empty() : decode(key, location, tipe);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reads many objects of the specified type, visiting their records in storage order.
+     */
+    @Override
+    public <T> Map<Identifier, T> readMany(Collection<Identifier> ids, Class<T> tipe) {
+        Map<Identifier, T> found = new LinkedHashMap<>();
+
+        lock.readLock().lock();
+        try {
+            Map<Identifier, String> keys = new LinkedHashMap<>();
+            ids.forEach(id -> keys.put(id, objectKeys.keyFor(id, tipe)));
+
+            Map<String, T> values = new HashMap<>();
+            keys.values().stream()
+                    .distinct()
+                    .filter(index::containsKey)
+                    .sorted(Comparator.comparing(index::get))
+                    .forEach(key -> decode(key, index.get(key), tipe).ifPresent(obj -> values.put(key, obj)));
+
+            keys.forEach((id, key) -> {
+                T obj = values.get(key);
+                if (obj != null) {
+                    found.put(id, obj);
+                }
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return found;
+    }
+
+    @Override
+    public boolean exists(Identifier id, Class<?> tipe) {
+        lock.readLock().lock();
+        try {
+            return index.containsKey(objectKeys.keyFor(id, tipe));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reads all objects of the specified type, in storage order so that the segments are read sequentially.
+     */
+    @Override
+    public <T> List<T> readAll(Class<T> tipe) {
+        return readAll(tipe, new String[0]);
+    }
+
+    @Override
+    public <T> List<T> readAll(Class<T> tipe, String[] domainPrefix) {
+        lock.readLock().lock();
+        try {
+            return objectKeys.ofType(index, tipe, domainPrefix)
+                    .sorted(Map.Entry.comparingByValue())
+                    .flatMap(entry -> decode(entry.getKey(), entry.getValue(), tipe).stream())
+                    .collect(Collectors.toList());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<List<Identifier>> listIds(Class<?> tipe, String[] domainPrefix) {
+        lock.readLock().lock();
+        try {
+            return Optional.of(objectKeys.ofType(index, tipe, domainPrefix)
+                    .flatMap(entry -> objectKeys.identifierOf(entry.getKey()).stream())
+                    .collect(Collectors.toList()));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public <T> Optional<String> write(Identifier id, T data) {
+        return writeAll(Collections.singletonMap(id, data));
+    }
+
+    /**
+     * Writes a batch of objects, serializing them first and then appending all records under a single lock.
+     */
+    @Override
+    public Optional<String> writeAll(Map<Identifier, ?> objects) {
+        Map<String, byte[]> records = new LinkedHashMap<>();
+        List<String> errors = new ArrayList<>();
+
+        objects.forEach((id, data) -> {
+            try {
+                ByteBuffer value = compression.frame(ByteBuffer.wrap(objectMapper.writeValueAsBytes(data)));
+                byte[] bytes = new byte[value.remaining()];
+                value.get(bytes);
+                records.put(objectKeys.keyFor(id, data.getClass()), bytes);
+            } catch (IOException e) {
+                e.printStackTrace();
+                errors.add("Failed to store id " + id);
+            }
+        });
+
+        lock.writeLock().lock();
+        try {
+            for (Map.Entry<String, byte[]> record : records.entrySet()) {
+                append(record.getKey(), record.getValue());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            errors.add("Failed to store records in " + baseDir);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        return errors.isEmpty() ? Optional.empty() : Optional.of(String.join("\n", errors));
+    }
+
+    @Override
+    public Optional<String> delete(Identifier id) {
+        return deleteAll(Collections.singletonList(id));
+    }
+
+    /**
+     * Deletes a batch of objects by appending tombstones.
+     * As in FileMetastore, every metadata set stored for an Identifier is deleted whatever its type.
+     */
+    @Override
+    public Optional<String> deleteAll(Collection<Identifier> ids) {
+        List<String> errors = new ArrayList<>();
+
+        lock.writeLock().lock();
+        try {
+            for (Identifier id : ids) {
+                List<String> keys = objectKeys.metadataSets(index, id);
+
+                if (keys.isEmpty()) {
+                    errors.add("Failed to delete id " + id);
+                }
+                for (String key : keys) {
+                    append(key, null);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            errors.add("Failed to delete records in " + baseDir);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        return errors.isEmpty() ? Optional.empty() : Optional.of(String.join("\n", errors));
+    }
+
+    /**
+     * Returns the fraction of the stored bytes that belong to overwritten or deleted records.
+     *
+     * @return the garbage ratio, between 0 and 1
+     */
+    public double garbageRatio() {
+        lock.readLock().lock();
+        try {
+            long total = segments.values().stream().mapToLong(segment -> segment.size).sum();
+            return total == 0 ? 0.0 : 1.0 - (double) liveBytes / total;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrites the live records into new segments and deletes the old ones, reclaiming the space of overwritten
+     * and deleted records. Records keep their key order, so later full reads stay sequential.
+     *
+     * The active segment is sealed first, so everything written so far is compacted. The records are then copied
+     * without holding the lock, so reads and writes go on meanwhile; records overwritten or deleted during the copy
+     * keep their newer version. The compacted segments get ids between the old segments and a new active segment,
+     * so that a replay in id order is correct even if compaction is interrupted.
+     *
+     * @return an Optional containing an error message, or an empty Optional if the store was compacted
+     */
+    public Optional<String> compact() {
+        compactionLock.lock();
+        try {
+            List<Segment> old;
+            NavigableMap<String, Location> live;
+            int nextId;
+            int activeId;
+
+            lock.writeLock().lock();
+            try {
+                Segment active = segments.lastEntry().getValue();
+                seal(active);
+                old = new ArrayList<>(segments.values());
+                live = new TreeMap<>(index);
+
+                // Next-fit packing of the live records needs at most twice as many segments as the old ones
+                nextId = active.id + 1;
+                activeId = active.id + 2 * old.size() + 1;
+                newSegment(activeId);
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            List<Segment> compacted = new ArrayList<>();
+            Map<String, Location> moved = new HashMap<>();
+            Segment target = null;
+
+            for (Map.Entry<String, Location> entry : live.entrySet()) {
+                Location location = entry.getValue();
+                byte[] value = readBytes(findSegment(old, location.segment), location.valueOffset, location.valueLength);
+
+                if (target == null || (target.size > 0 && target.size + recordSize(entry.getKey(), value) > maxSegmentSize)) {
+                    if (target != null) {
+                        seal(target);
+                    }
+                    if (nextId >= activeId) {
+                        throw new IOException("Compacted records do not fit in " + old.size() + " segments");
+                    }
+                    target = new Segment(nextId, segmentPath(nextId), true);
+                    nextId++;
+                    compacted.add(target);
+                }
+
+                moved.put(entry.getKey(), writeRecord(target, entry.getKey(), value));
+            }
+            if (target != null) {
+                seal(target);
+            }
+
+            lock.writeLock().lock();
+            try {
+                compacted.forEach(segment -> segments.put(segment.id, segment));
+                moved.forEach((key, location) -> {
+                    Location current = index.get(key);
+                    if (current != null && current.compareTo(live.get(key)) == 0) {
+                        apply(key, location);
+                    }
+                });
+
+                writeCheckpoint();
+                for (Segment segment : old) {
+                    segments.remove(segment.id);
+                    segment.channel.close();
+                    Files.deleteIfExists(segment.path);
+                    Files.deleteIfExists(hintPath(segment.id));
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            return Optional.empty();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return Optional.of("Failed to compact " + baseDir);
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    /**
+     * Writes a checkpoint of the index, so that the next open only replays the records appended after it.
+     *
+     * @return an Optional containing an error message, or an empty Optional if the checkpoint was written
+     */
+    public Optional<String> checkpoint() {
+        lock.readLock().lock();
+        try {
+            writeCheckpoint();
+            return Optional.empty();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return Optional.of("Failed to checkpoint " + baseDir);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Starts compacting the store in the background: at every interval, the store is compacted if its garbage ratio
+     * exceeds the given maximum, and checkpointed otherwise. The compactor stops when the store is closed.
+     *
+     * @param interval the delay between two runs
+     * @param maxGarbageRatio the garbage ratio above which the store is compacted, between 0 and 1
+     */
+    public synchronized void startCompactor(Duration interval, double maxGarbageRatio) {
+        if (compactor != null) {
+            throw new IllegalStateException("Compactor already started for " + baseDir);
+        }
+
+        compactor = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "SegmentMetastore-compactor " + baseDir.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(() -> {
+            Optional<String> result = garbageRatio() > maxGarbageRatio ? compact() : checkpoint();
+            result.ifPresent(System.err::println);
+        }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Imports every object of a one-file-per-object FileMetastore directory, keeping their paths as keys.
+     *
+     * @param fileLayoutDir the base directory of the FileMetastore
+     * @return an Optional containing an error message, or an empty Optional if everything was imported
+     */
+    public Optional<String> importFrom(Path fileLayoutDir) {
+        Path source = fileLayoutDir.toAbsolutePath().normalize();
+        List<String> errors = new ArrayList<>();
+
+        lock.writeLock().lock();
+        try (Stream<Path> files = Files.walk(source)) {
+            for (Path file : files.filter(Files::isRegularFile).sorted().collect(Collectors.toList())) {
+                if (FileIndex.fileStyleOf(file.getFileName().toString()) == null) {
+                    continue;
+                }
+
+                try {
+                    append(ObjectKeys.relativeKey(source, file), Files.readAllBytes(file));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    errors.add("Failed to import " + file);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            errors.add("Failed to import " + source);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        return errors.isEmpty() ? Optional.empty() : Optional.of(String.join("\n", errors));
+    }
+
+    /**
+     * Exports every live object as one file per object, in the layout read by FileMetastore.
+     *
+     * @param fileLayoutDir the base directory of the FileMetastore to write to
+     * @return an Optional containing an error message, or an empty Optional if everything was exported
+     */
+    public Optional<String> exportTo(Path fileLayoutDir) {
+        Path target = fileLayoutDir.toAbsolutePath().normalize();
+        List<String> errors = new ArrayList<>();
+
+        lock.readLock().lock();
+        try {
+            index.entrySet().stream()
+                    .sorted(Map.Entry.comparingByValue())
+                    .forEach(entry -> {
+                        Path file = target.resolve(entry.getKey()).normalize();
+                        Location location = entry.getValue();
+
+                        try {
+                            if (!file.startsWith(target)) {
+                                throw new IOException("Key outside of the export folder: " + entry.getKey());
+                            }
+                            Files.createDirectories(file.getParent());
+                            Files.write(file, readBytes(segments.get(location.segment), location.valueOffset, location.valueLength));
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                            errors.add("Failed to export " + entry.getKey());
+                        }
+                    });
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return errors.isEmpty() ? Optional.empty() : Optional.of(String.join("\n", errors));
+    }
+
+    /**
+     * Stops the background compactor, writes a checkpoint and closes the segment files.
+     *
+     * @throws IOException if a segment cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (compactor != null) {
+                compactor.shutdown();
+                try {
+                    compactor.awaitTermination(1, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                compactor = null;
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (!segments.isEmpty()) {
+                writeCheckpoint();
+            }
+            for (Segment segment : segments.values()) {
+                segment.channel.close();
+            }
+            segments.clear();
+            index.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //// Segment handling
+
+    /**
+     * Opens the existing segments, and replays the records appended after the checkpoint if there is a valid one.
+     * Otherwise, loads the hint files of the sealed segments and scans the active one.
+     */
+    private void open() throws IOException {
+        List<Integer> ids;
+        try (Stream<Path> files = Files.list(baseDir)) {
+            ids = files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+
+        for (int i = 0; i < ids.size(); i++) {
+            int id = ids.get(i);
+            segments.put(id, new Segment(id, segmentPath(id), i == ids.size() - 1));
+        }
+
+        if (ids.isEmpty()) {
+            newSegment(1);
+            return;
+        }
+
+        Position resume = loadCheckpoint();
+        for (Segment segment : segments.values()) {
+            if (resume != null && segment.id < resume.segment) {
+                continue;
+            }
+
+            long from = resume != null && segment.id == resume.segment ? resume.offset : 0;
+            boolean active = segment == segments.lastEntry().getValue();
+            if (from == 0 && !active && Files.exists(hintPath(segment.id))) {
+                loadHints(segment);
+            } else {
+                scan(segment, from);
+            }
+        }
+    }
+
+    /**
+     * Loads the index from the checkpoint if it is intact and consistent with the segments.
+     *
+     * @return the position to replay the log from, or null if there is no valid checkpoint
+     */
+    private Position loadCheckpoint() {
+        Path file = baseDir.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+            if (bytes.length < 8) {
+                return null;
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length - 8);
+            if (ByteBuffer.wrap(bytes, bytes.length - 8, 8).getLong() != crc.getValue()) {
+                System.err.println("Ignoring corrupt checkpoint " + file);
+                return null;
+            }
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 8));
+            if (in.readInt() != CHECKPOINT_VERSION) {
+                return null;
+            }
+
+            Position position = new Position(in.readInt(), in.readLong());
+            Segment resumed = segments.get(position.segment);
+            if (resumed == null || resumed.size < position.offset) {
+                return null;
+            }
+
+            Map<String, Location> entries = new LinkedHashMap<>();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                Location location = new Location(in.readInt(), in.readLong(), in.readInt());
+                Segment segment = segments.get(location.segment);
+                if (segment == null || location.valueOffset + location.valueLength > segment.size) {
+                    return null;
+                }
+                entries.put(key, location);
+            }
+
+            entries.forEach(this::apply);
+            return position;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Writes a snapshot of the index and the end of the active segment, replacing the checkpoint atomically.
+     * The caller holds the lock.
+     */
+    private void writeCheckpoint() throws IOException {
+        Segment active = segments.lastEntry().getValue();
+        Path tmp = GroupCommit.newTempFile(baseDir.resolve(CHECKPOINT_FILE));
+
+        try {
+            active.channel.force(false);
+
+            CRC32 crc = new CRC32();
+            try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)), crc))) {
+                out.writeInt(CHECKPOINT_VERSION);
+                out.writeInt(active.id);
+                out.writeLong(active.size);
+                out.writeInt(index.size());
+                for (Map.Entry<String, Location> entry : index.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue().segment);
+                    out.writeLong(entry.getValue().valueOffset);
+                    out.writeInt(entry.getValue().valueLength);
+                }
+                out.flush();
+                out.writeLong(crc.getValue());
+            }
+
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(tmp, baseDir.resolve(CHECKPOINT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Indexes a segment from its hint file.
+     */
+    private void loadHints(Segment segment) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(hintPath(segment.id))))) {
+            while (true) {
+                String key;
+                try {
+                    key = in.readUTF();
+                } catch (EOFException e) {
+                    break;
+                }
+                long offset = in.readLong();
+                int length = in.readInt();
+                apply(key, length == TOMBSTONE ? null : new Location(segment.id, offset, length));
+            }
+        }
+    }
+
+    /**
+     * Indexes a segment by reading its records sequentially from an offset, truncating a torn record at its end.
+     */
+    private void scan(Segment segment, long from) throws IOException {
+        long offset = from;
+        ByteBuffer buffer = segment.map();
+
+        while (offset + HEADER_SIZE <= segment.size) {
+            int crc = buffer.getInt((int) offset);
+            int keyLength = buffer.getInt((int) offset + 4);
+            int valueLength = buffer.getInt((int) offset + 8);
+            long end = offset + HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+
+            if (keyLength <= 0 || valueLength < TOMBSTONE || end > segment.size) {
+                break;
+            }
+
+            byte[] record = new byte[(int) (end - offset - 4)];
+            ByteBuffer view = buffer.duplicate();
+            view.position((int) offset + 4);
+            view.get(record);
+            if (crc(record) != crc) {
+                break;
+            }
+
+            String key = new String(record, 8, keyLength, StandardCharsets.UTF_8);
+            apply(key, valueLength == TOMBSTONE ? null : new Location(segment.id, offset + HEADER_SIZE + keyLength, valueLength));
+            offset = end;
+        }
+
+        if (offset < segment.size) {
+            System.err.println("Truncating torn record at offset " + offset + " of " + segment.path);
+            segment.truncate(offset);
+        }
+    }
+
+    /**
+     * Appends a record to the active segment, sealing it first if the record does not fit.
+     *
+     * @param key the key of the record
+     * @param value the JSON value, or null for a tombstone
+     */
+    private void append(String key, byte[] value) throws IOException {
+        Segment active = segments.lastEntry().getValue();
+        if (active.size > 0 && active.size + recordSize(key, value) > maxSegmentSize) {
+            seal(active);
+            active = newSegment(active.id + 1);
+        }
+
+        apply(key, writeRecord(active, key, value));
+    }
+
+    /**
+     * Writes a record at the end of a segment.
+     *
+     * @param segment the segment to write to
+     * @param key the key of the record
+     * @param value the JSON value, or null for a tombstone
+     * @return the location of the value, or null for a tombstone
+     */
+    private Location writeRecord(Segment segment, String key, byte[] value) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int valueLength = value == null ? TOMBSTONE : value.length;
+        int recordSize = HEADER_SIZE + keyBytes.length + Math.max(valueLength, 0);
+
+        ByteBuffer body = ByteBuffer.allocate(recordSize - 4);
+        body.putInt(keyBytes.length).putInt(valueLength).put(keyBytes);
+        if (value != null) {
+            body.put(value);
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(recordSize);
+        record.putInt(crc(body.array())).put(body.array()).flip();
+
+        long offset = segment.size;
+        while (record.hasRemaining()) {
+            segment.channel.write(record, offset + record.position());
+        }
+        segment.size += recordSize;
+
+        return value == null ? null : new Location(segment.id, offset + HEADER_SIZE + keyBytes.length, valueLength);
+    }
+
+    private static int recordSize(String key, byte[] value) {
+        return HEADER_SIZE + key.getBytes(StandardCharsets.UTF_8).length + (value == null ? 0 : value.length);
+    }
+
+    /**
+     * Points a key to its latest location, or removes it for a tombstone.
+     */
+    private void apply(String key, Location location) {
+        Location previous = location == null ? index.remove(key) : index.put(key, location);
+
+        if (previous != null) {
+            liveBytes -= previous.recordSize(key);
+        }
+        if (location != null) {
+            liveBytes += location.recordSize(key);
+        }
+    }
+
+    /**
+     * Flushes a segment and writes its hint file, so it can be opened without a scan once it is no longer active.
+     */
+    private void seal(Segment active) throws IOException {
+        Path hint = hintPath(active.id);
+        Path tmp = hint.resolveSibling(hint.getFileName() + ".tmp");
+
+        active.channel.force(true);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            ByteBuffer buffer = active.map();
+            long offset = 0;
+
+            while (offset < active.size) {
+                int keyLength = buffer.getInt((int) offset + 4);
+                int valueLength = buffer.getInt((int) offset + 8);
+                byte[] key = new byte[keyLength];
+                ByteBuffer view = buffer.duplicate();
+                view.position((int) offset + HEADER_SIZE);
+                view.get(key);
+
+                out.writeUTF(new String(key, StandardCharsets.UTF_8));
+                out.writeLong(offset + HEADER_SIZE + keyLength);
+                out.writeInt(valueLength);
+                offset += HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+            }
+        }
+
+        Files.move(tmp, hint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Segment newSegment(int id) throws IOException {
+        Segment segment = new Segment(id, segmentPath(id), true);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private static Segment findSegment(List<Segment> segments, int id) {
+        return segments.stream().filter(segment -> segment.id == id).findFirst().orElseThrow();
+    }
+
+    private byte[] readBytes(Segment segment, long offset, int length) throws IOException {
+        ByteBuffer view = segment.map().duplicate();
+        view.position((int) offset);
+
+        byte[] bytes = new byte[length];
+        view.get(bytes);
+        return bytes;
+    }
+
+    private <T> Optional<T> decode(String key, Location location, Class<T> tipe) {
+        try {
+            ByteBuffer value = segments.get(location.segment).map().duplicate();
+            value.position((int) location.valueOffset);
+            value.limit((int) location.valueOffset + location.valueLength);
+
+            return Optional.ofNullable(codec.read(compression.unframe(value), tipe));
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Failed to read " + key);
+            return Optional.empty();
+        }
+    }
+
+    private Path segmentPath(int id) {
+        return baseDir.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    }
+
+    private Path hintPath(int id) {
+        return baseDir.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, id, HINT_SUFFIX));
+    }
+
+    private static int crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Position in the log, as the end of a segment at some point in time.
+     */
+    private static class Position {
+        final int segment;
+        final long offset;
+
+        Position(int segment, long offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Position of a value within the segments. Locations order by segment and offset, i.e. by storage order.
+     */
+    private static class Location implements Comparable<Location> {
+        final int segment;
+        final long valueOffset;
+        final int valueLength;
+
+        Location(int segment, long valueOffset, int valueLength) {
+            this.segment = segment;
+            this.valueOffset = valueOffset;
+            this.valueLength = valueLength;
+        }
+
+        long recordSize(String key) {
+            return HEADER_SIZE + key.getBytes(StandardCharsets.UTF_8).length + valueLength;
+        }
+
+        @Override
+        public int compareTo(Location other) {
+            int cmp = Integer.compare(segment, other.segment);
+            return cmp != 0 ? cmp : Long.compare(valueOffset, other.valueOffset);
+        }
+    }
+
+    /**
+     * An open segment file with its current size and a read-only mapping that is extended as the segment grows.
+     */
+    private static class Segment {
+        final int id;
+        final Path path;
+        final FileChannel channel;
+        long size;
+        private MappedByteBuffer mapped;
+
+        Segment(int id, Path path, boolean writable) throws IOException {
+            this.id = id;
+            this.path = path;
+            this.channel = writable
+                    ? FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                    : FileChannel.open(path, StandardOpenOption.READ);
+            this.size = channel.size();
+        }
+
+        /**
+         * Returns a mapping covering the whole segment, remapping if records were appended since the last one.
+         */
+        synchronized MappedByteBuffer map() throws IOException {
+            if (mapped == null || mapped.capacity() < size) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            return mapped;
+        }
+
+        void truncate(long newSize) throws IOException {
+            channel.truncate(newSize);
+            size = newSize;
+            mapped = null;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package datathread.metastore;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import datathread.grammar.Elements;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Encoding of the files of a file-based Metastore, recorded as the last file extension (e.g. name.element.smile).
+ *
+ * JSON is human readable. SMILE and CBOR are binary encodings of the same data model: files are smaller and faster to
+ * parse, at the cost of readability. All encodings are read through Jackson, so custom deserializers such as the
+ * ElementTypeDeserializer work the same on all of them.
+ */
+public enum StorageEncoding {
+    JSON("json"),
+    SMILE("smile"),
+    CBOR("cbor");
+
+    private final String extension;
+
+    StorageEncoding(String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * Returns the file extension of the encoding, without the dot.
+     *
+     * @return the file extension
+     */
+    public String extension() {
+        return extension;
+    }
+
+    /**
+     * Creates an ObjectMapper for the encoding, configured with Elements.configureObjectMapper.
+     *
+     * @return a new ObjectMapper
+     */
+    public ObjectMapper newMapper() {
+        ObjectMapper mapper;
+        switch (this) {
+            case SMILE:
+                mapper = new ObjectMapper(new SmileFactory());
+                break;
+            case CBOR:
+                mapper = new ObjectMapper(new CBORFactory());
+                break;
+            default:
+                mapper = new ObjectMapper();
+        }
+
+        Elements.configureObjectMapper(mapper);
+        return mapper;
+    }
+
+    /**
+     * Finds the encoding of a file from its name.
+     *
+     * @param filename the file name
+     * @return an Optional containing the encoding, or an empty Optional if the extension is not an encoding
+     */
+    public static Optional<StorageEncoding> ofFilename(String filename) {
+        return Arrays.stream(values())
+                .filter(encoding -> filename.endsWith("." + encoding.extension))
+                .findFirst();
+    }
+}
@@ -0,0 +1,770 @@
+package datathread.metastore;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import datathread.Identifier;
+import datathread.grammar.Dataset;
+import datathread.grammar.Elements;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+/**
+ * Implementation of the Metastore interface that keeps every revision of every object, so that the store can be read
+ * as it was at any earlier point.
+ *
+ * Storage rules:
+ *
+ * 1. Every write, delete, writeAll or deleteAll is a commit with the next revision number. Its changes are appended
+ *    to revisions.log as a single record with a CRC32, so a commit is either recovered whole or not at all.
+ * 2. Keys are the paths that FileMetastore would store the objects at, relative to the base directory
+ *    (e.g. domain1/domain2/name.my_class.json), as in SegmentMetastore. Each key maps to its revisions in memory,
+ *    each pointing to its value in the log. Values are never overwritten, and deletes are recorded as revisions too.
+ * 3. Datasets are labelled with their version, and each version maps to the revision of the store that wrote it,
+ *    so any object can be read as it was when a Dataset version was written.
+ * 4. prune drops the revisions that are no longer visible from a given revision on. It is recorded in the log as a
+ *    commit, and the log is rewritten without the pruned values the next time the store is opened, before any reader
+ *    holds positions in it.
+ *
+ * Reads never take a lock: a commit is only made visible, by advancing the current revision, once all of its changes
+ * are indexed. A Snapshot pins a revision, so a long scan sees one consistent state of the store while writers go on.
+ * Instances must be closed to release the log file.
+ */
+public class VersionedMetastore implements Metastore, Closeable {
+    private static final String LOG_FILE = "revisions.log";
+
+    /**
+     * Size of the CRC and length that precede every commit record.
+     */
+    private static final int HEADER_SIZE = 8;
+
+    private static final int TOMBSTONE = -1;
+
+    /**
+     * Key of the change recording a prune in a commit, with the oldest retained revision as its version.
+     * It is never the key of an object, since keys are paths.
+     */
+    private static final String PRUNE_KEY = "";
+
+    private final Path baseDir;
+
+    /**
+     * Keys of the objects, relative to the base directory.
+     */
+    private final ObjectKeys objectKeys;
+
+    /**
+     * ObjectMapper instance for JSON serialization and deserialization.
+     */
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Cached readers and writers of the ObjectMapper.
+     */
+    private final JsonCodec codec;
+
+    /**
+     * Whether commits are flushed to disk before they return.
+     */
+    private final Durability durability;
+
+    /**
+     * Revision log. It is only replaced while the store is opened, when a pruned log is rewritten.
+     */
+    private FileChannel log;
+
+    /**
+     * Serializes the commits; reads do not take it.
+     */
+    private final Lock commitLock = new ReentrantLock();
+
+    /**
+     * Revisions of every key, sorted by key and then by revision number.
+     */
+    private final NavigableMap<String, NavigableMap<Long, Revision>> history = new ConcurrentSkipListMap<>();
+
+    /**
+     * Latest revision of the store at which a Dataset was written with each version.
+     */
+    private final Map<String, Long> versions = new ConcurrentHashMap<>();
+
+    /**
+     * Oldest revision of the store that can still be read; the earlier ones were pruned.
+     */
+    private volatile long oldest;
+
+    /**
+     * Revision of the commit that recorded the last prune, or 0 if the store was never pruned.
+     */
+    private long prunedAt;
+
+    /**
+     * Latest visible revision. Revisions above it may already be indexed, but are not read until it is advanced.
+     */
+    private volatile long current;
+
+    /**
+     * End of the log, where the next commit is appended.
+     */
+    private long end;
+
+    /**
+     * Constructor to initialize the VersionedMetastore with a base directory, an optional ObjectMapper and the
+     * durability of commits. The revisions of an existing store are loaded.
+     *
+     * @param baseDir the base directory holding the revision log
+     * @param objectMapper the ObjectMapper instance for JSON operations
+     * @param durability whether commits are flushed to disk before they return
+     * @throws IOException if the revision log cannot be opened or read
+     */
+    public VersionedMetastore(Path baseDir, ObjectMapper objectMapper, Durability durability) throws IOException {
+        this.baseDir = baseDir.toAbsolutePath().normalize();
+        this.objectKeys = new ObjectKeys(this.baseDir);
+        this.objectMapper = objectMapper == null ? new ObjectMapper() : objectMapper;
+        this.durability = durability;
+        Elements.configureObjectMapper(this.objectMapper);
+        this.codec = new JsonCodec(this.objectMapper);
+
+        Files.createDirectories(this.baseDir);
+        this.log = FileChannel.open(this.baseDir.resolve(LOG_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (load()) {
+            compact();
+        }
+    }
+
+    /**
+     * Constructor to initialize the VersionedMetastore with a base directory and a default ObjectMapper,
+     * leaving flushing to the operating system.
+     *
+     * @param baseDir the base directory holding the revision log
+     * @throws IOException if the revision log cannot be opened or read
+     */
+    public VersionedMetastore(Path baseDir) throws IOException {
+        this(baseDir, null, Durability.NONE);
+    }
+
+    //// Current state
+
+    @Override
+    public <T> Optional<T> read(Identifier id, Class<T> tipe) {
+        return read(id, tipe, current);
+    }
+
+    @Override
+    public boolean exists(Identifier id, Class<?> tipe) {
+        return snapshot().exists(id, tipe);
+    }
+
+    @Override
+    public Optional<ObjectStat> stat(Identifier id, Class<?> tipe) {
+        return snapshot().stat(id, tipe);
+    }
+
+    @Override
+    public <T> List<T> readAll(Class<T> tipe) {
+        return snapshot().readAll(tipe);
+    }
+
+    @Override
+    public <T> List<T> readAll(Class<T> tipe, String[] domainPrefix) {
+        return snapshot().readAll(tipe, domainPrefix);
+    }
+
+    @Override
+    public Optional<List<Identifier>> listIds(Class<?> tipe, String[] domainPrefix) {
+        return snapshot().listIds(tipe, domainPrefix);
+    }
+
+    //// History
+
+    /**
+     * Returns the latest revision of the store.
+     *
+     * @return the revision number of the last commit, 0 for an empty store
+     */
+    public long revision() {
+        return current;
+    }
+
+    /**
+     * Reads an object as it was at a revision of the store.
+     *
+     * @param id the Identifier of the object
+     * @param tipe the class type of the object
+     * @param asOfRevision the revision of the store
+     * @param <T> the type of the object
+     * @return an Optional containing the object, or an empty Optional if it did not exist at that revision
+     *         or the revision was pruned
+     */
+    public <T> Optional<T> read(Identifier id, Class<T> tipe, long asOfRevision) {
+        String key = objectKeys.keyFor(id, tipe);
+        return lookup(key, Math.min(asOfRevision, current)).flatMap(revision -> decode(key, revision, tipe));
+    }
+
+    /**
+     * Reads an object as it was when a Dataset was last written with a version. The object can be of any type:
+     * it is read at the revision of the store of that write.
+     *
+     * @param id the Identifier of the object
+     * @param tipe the class type of the object
+     * @param asOfVersion the Dataset version
+     * @param <T> the type of the object
+     * @return an Optional containing the object, or an empty Optional if no Dataset was written with that version
+     *         or the object did not exist then
+     */
+    public <T> Optional<T> read(Identifier id, Class<T> tipe, String asOfVersion) {
+        return revisionOf(asOfVersion).flatMap(revision -> read(id, tipe, revision));
+    }
+
+    /**
+     * Returns the revision of the store at which a Dataset was last written with a version.
+     *
+     * @param version the Dataset version
+     * @return an Optional containing the revision number, or an empty Optional if no Dataset was written with that
+     *         version, or only at pruned revisions
+     */
+    public Optional<Long> revisionOf(String version) {
+        return Optional.ofNullable(versions.get(version));
+    }
+
+    /**
+     * Returns the revisions of the store at which an object was written or deleted.
+     *
+     * @param id the Identifier of the object
+     * @param tipe the class type of the object
+     * @return the revision numbers, oldest first
+     */
+    public List<Long> revisions(Identifier id, Class<?> tipe) {
+        NavigableMap<Long, Revision> revisions = history.get(objectKeys.keyFor(id, tipe));
+        return revisions == null ? Collections.emptyList() : new ArrayList<>(revisions.headMap(current, true).keySet());
+    }
+
+    /**
+     * Returns a read-only view of the store at its latest revision.
+     *
+     * @return the snapshot
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(current);
+    }
+
+    /**
+     * Returns a read-only view of the store at an earlier revision.
+     *
+     * @param revision the revision of the store, at most the latest one and not pruned
+     * @return the snapshot
+     */
+    public Snapshot snapshot(long revision) {
+        if (revision < oldest || revision > current) {
+            throw new IllegalArgumentException("No revision " + revision + " in " + baseDir);
+        }
+        return new Snapshot(revision);
+    }
+
+    //// Commits
+
+    @Override
+    public <T> Optional<String> write(Identifier id, T data) {
+        return writeAll(Collections.singletonMap(id, data));
+    }
+
+    /**
+     * Writes a batch of objects as a single commit, so readers see either none or all of them.
+     */
+    @Override
+    public Optional<String> writeAll(Map<Identifier, ?> objects) {
+        Map<String, Change> changes = new LinkedHashMap<>();
+        List<String> errors = new ArrayList<>();
+
+        objects.forEach((id, data) -> {
+            try {
+                String version = data instanceof Dataset ? ((Dataset) data).getVersion() : null;
+                changes.put(objectKeys.keyFor(id, data.getClass()), new Change(version, codec.writer(data.getClass()).writeValueAsBytes(data)));
+            } catch (IOException e) {
+                e.printStackTrace();
+                errors.add("Failed to store id " + id);
+            }
+        });
+
+        commit(changes).ifPresent(errors::add);
+        return errors.isEmpty() ? Optional.empty() : Optional.of(String.join("\n", errors));
+    }
+
+    @Override
+    public Optional<String> delete(Identifier id) {
+        return deleteAll(Collections.singletonList(id));
+    }
+
+    /**
+     * Deletes a batch of objects as a single commit. Their earlier revisions stay readable.
+     * As in FileMetastore, every metadata set stored for an Identifier is deleted whatever its type.
+     */
+    @Override
+    public Optional<String> deleteAll(Collection<Identifier> ids) {
+        List<String> errors = new ArrayList<>();
+
+        commitLock.lock();
+        try {
+            Map<String, Change> changes = new LinkedHashMap<>();
+            for (Identifier id : ids) {
+                List<String> keys = objectKeys.metadataSets(history, id).stream()
+                        .filter(key -> lookup(key, current).isPresent())
+                        .collect(Collectors.toList());
+
+                if (keys.isEmpty()) {
+                    errors.add("Failed to delete id " + id);
+                }
+                keys.forEach(key -> changes.put(key, new Change(null, null)));
+            }
+
+            commit(changes).ifPresent(errors::add);
+        } finally {
+            commitLock.unlock();
+        }
+
+        return errors.isEmpty() ? Optional.empty() : Optional.of(String.join("\n", errors));
+    }
+
+    /**
+     * Drops the revisions of the store before a revision, keeping everything that is still visible from it on:
+     * reads at that revision and later ones are unchanged, reads at earlier ones find nothing. The memory of the
+     * pruned revisions is released at once, and their space in the log the next time the store is opened.
+     * Snapshots taken before the pruned revision must not be used anymore.
+     *
+     * @param beforeRevision the oldest revision of the store to keep readable, at most the latest one
+     * @return an Optional containing an error message, or an empty Optional if the revisions were pruned
+     */
+    public Optional<String> prune(long beforeRevision) {
+        commitLock.lock();
+        try {
+            long before = Math.min(beforeRevision, current);
+            if (before <= oldest) {
+                return Optional.empty();
+            }
+            return commit(Collections.singletonMap(PRUNE_KEY, new Change(String.valueOf(before), null)));
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /**
+     * Closes the revision log.
+     *
+     * @throws IOException if the log cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        log.close();
+    }
+
+    /**
+     * Appends a commit to the log, indexes its revisions and then makes it visible.
+     *
+     * @param changes the new value of every changed key, with a null value for a deleted key
+     * @return an Optional containing an error message, or an empty Optional if the changes were committed
+     */
+    private Optional<String> commit(Map<String, Change> changes) {
+        if (changes.isEmpty()) {
+            return Optional.empty();
+        }
+
+        commitLock.lock();
+        try {
+            long number = current + 1;
+            Map<String, Revision> revisions = new LinkedHashMap<>();
+            ByteBuffer record = encode(number, System.currentTimeMillis(), changes, end, revisions);
+
+            while (record.hasRemaining()) {
+                log.write(record, end + record.position());
+            }
+            if (durability != Durability.NONE) {
+                log.force(false);
+            }
+            end += record.capacity();
+
+            revisions.forEach(this::index);
+            current = number;
+            revisions.forEach(this::apply);
+            return Optional.empty();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return Optional.of("Failed to commit to " + baseDir);
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /**
+     * Encodes a commit record, with its CRC and length.
+     *
+     * @param number the revision of the commit
+     * @param timestamp the time of the commit
+     * @param changes the new value of every changed key, with a null value for a deleted key
+     * @param at the position of the record in the log
+     * @param revisions receives the revision of every changed key
+     * @return the record, ready to be written
+     */
+    private ByteBuffer encode(long number, long timestamp, Map<String, Change> changes, long at, Map<String, Revision> revisions) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bytes);
+        body.writeLong(number);
+        body.writeLong(timestamp);
+        body.writeInt(changes.size());
+
+        for (Map.Entry<String, Change> entry : changes.entrySet()) {
+            Change change = entry.getValue();
+            body.writeUTF(entry.getKey());
+            body.writeUTF(change.version == null ? "" : change.version);
+            body.writeInt(change.value == null ? TOMBSTONE : change.value.length);
+
+            long offset = at + HEADER_SIZE + body.size();
+            if (change.value != null) {
+                body.write(change.value);
+            }
+            revisions.put(entry.getKey(), new Revision(number, timestamp, change.version, offset, change.value == null ? TOMBSTONE : change.value.length));
+        }
+        body.flush();
+
+        byte[] payload = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return ByteBuffer.allocate(HEADER_SIZE + payload.length)
+                .putInt((int) crc.getValue())
+                .putInt(payload.length)
+                .put(payload)
+                .flip();
+    }
+
+    /**
+     * Applies the effects of a visible commit other than the revisions of its keys: the version labels of the
+     * Datasets it wrote, or the prune it recorded.
+     */
+    private void apply(String key, Revision revision) {
+        if (PRUNE_KEY.equals(key)) {
+            pruneHistory(Long.parseLong(revision.version), revision.number);
+        } else if (revision.version != null) {
+            versions.put(revision.version, revision.number);
+        }
+    }
+
+    /**
+     * Drops the revisions that are not visible from a revision of the store on, with the commit lock held or while
+     * loading. Readers of pruned revisions are turned away first, so they never see a partly pruned history.
+     *
+     * @param before the oldest revision of the store to keep readable
+     * @param at the revision of the commit recording the prune
+     */
+    private void pruneHistory(long before, long at) {
+        oldest = before;
+        prunedAt = at;
+
+        Iterator<NavigableMap<Long, Revision>> it = history.values().iterator();
+        while (it.hasNext()) {
+            NavigableMap<Long, Revision> revisions = it.next();
+            Map.Entry<Long, Revision> visible = revisions.floorEntry(before);
+            if (visible == null) {
+                continue;
+            }
+
+            revisions.headMap(visible.getKey(), false).clear();
+            if (visible.getValue().isDeleted()) {
+                revisions.remove(visible.getKey());
+            }
+            if (revisions.isEmpty()) {
+                it.remove();
+            }
+        }
+
+        versions.values().removeIf(revision -> revision < before);
+    }
+
+    //// Revision log
+
+    /**
+     * Replays the revision log, truncating a torn or corrupt commit at its end, e.g. after a crash.
+     *
+     * @return whether the log still holds revisions that were pruned
+     */
+    private boolean load() throws IOException {
+        long size = log.size();
+        long offset = 0;
+        long loaded = 0;
+
+        while (offset + HEADER_SIZE <= size) {
+            ByteBuffer header = readFully(offset, HEADER_SIZE);
+            int checksum = header.getInt();
+            int length = header.getInt();
+            if (length < 0 || offset + HEADER_SIZE + length > size) {
+                break;
+            }
+
+            ByteBuffer payload = readFully(offset + HEADER_SIZE, length);
+            CRC32 crc = new CRC32();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+
+            DataInputStream body = new DataInputStream(new ByteArrayInputStream(payload.array()));
+            long number = body.readLong();
+            long timestamp = body.readLong();
+            int count = body.readInt();
+            Map<String, Revision> revisions = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                String key = body.readUTF();
+                String version = body.readUTF();
+                int valueLength = body.readInt();
+                long valueOffset = offset + HEADER_SIZE + (length - body.available());
+                if (valueLength > 0) {
+                    body.skipBytes(valueLength);
+                }
+                revisions.put(key, new Revision(number, timestamp, version.isEmpty() ? null : version, valueOffset, valueLength));
+            }
+
+            revisions.forEach(this::index);
+            current = number;
+            revisions.forEach(this::apply);
+            loaded += revisions.size();
+            offset += HEADER_SIZE + length;
+        }
+
+        if (offset < size) {
+            System.err.println("Truncating torn commit at " + offset + " in " + baseDir.resolve(LOG_FILE));
+            log.truncate(offset);
+        }
+        end = offset;
+
+        long retained = history.values().stream().mapToLong(Map::size).sum() + (prunedAt > 0 ? 1 : 0);
+        return loaded > retained;
+    }
+
+    /**
+     * Rewrites the revision log with only the revisions that were not pruned, keeping their commit numbers, and
+     * replaces the old log atomically. Only called while the store is opened, before any reader holds positions in the log.
+     */
+    private void compact() throws IOException {
+        NavigableMap<Long, Map<String, Revision>> commits = new TreeMap<>();
+        history.forEach((key, revisions) -> revisions.values()
+                .forEach(revision -> commits.computeIfAbsent(revision.number, n -> new LinkedHashMap<>()).put(key, revision)));
+        if (prunedAt > 0) {
+            // Keep the prune itself, so that the pruned revisions stay unreadable
+            commits.computeIfAbsent(prunedAt, n -> new LinkedHashMap<>())
+                    .put(PRUNE_KEY, new Revision(prunedAt, 0, String.valueOf(oldest), 0, TOMBSTONE));
+        }
+
+        Path logFile = baseDir.resolve(LOG_FILE);
+        Path tmp = GroupCommit.newTempFile(logFile);
+        List<Map.Entry<String, Revision>> indexed = new ArrayList<>();
+        long offset = 0;
+
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            for (Map<String, Revision> revisions : commits.values()) {
+                Map<String, Change> changes = new LinkedHashMap<>();
+                for (Map.Entry<String, Revision> entry : revisions.entrySet()) {
+                    Revision revision = entry.getValue();
+                    byte[] value = revision.isDeleted() ? null : readFully(revision.offset, revision.length).array();
+                    changes.put(entry.getKey(), new Change(revision.version, value));
+                }
+
+                Revision first = revisions.values().iterator().next();
+                Map<String, Revision> moved = new LinkedHashMap<>();
+                ByteBuffer record = encode(first.number, first.timestamp, changes, offset, moved);
+                while (record.hasRemaining()) {
+                    channel.write(record, offset + record.position());
+                }
+                offset += record.capacity();
+
+                indexed.addAll(moved.entrySet());
+            }
+            channel.force(false);
+        }
+
+        log.close();
+        Files.move(tmp, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log = FileChannel.open(logFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        end = offset;
+
+        history.clear();
+        indexed.forEach(entry -> index(entry.getKey(), entry.getValue()));
+    }
+
+    private void index(String key, Revision revision) {
+        if (PRUNE_KEY.equals(key)) {
+            return;
+        }
+        history.computeIfAbsent(key, k -> new ConcurrentSkipListMap<>()).put(revision.number, revision);
+    }
+
+    /**
+     * Returns the revision of a key that is visible at a revision of the store.
+     *
+     * @return an Optional containing the revision, or an empty Optional if the key did not exist or was deleted,
+     *         or the revision of the store was pruned
+     */
+    private Optional<Revision> lookup(String key, long asOf) {
+        if (asOf < oldest) {
+            return Optional.empty();
+        }
+
+        NavigableMap<Long, Revision> revisions = history.get(key);
+        Map.Entry<Long, Revision> entry = revisions == null ? null : revisions.floorEntry(asOf);
+
+        return entry == null || entry.getValue().isDeleted() ? Optional.empty() : Optional.of(entry.getValue());
+    }
+
+    private <T> Optional<T> decode(String key, Revision revision, Class<T> tipe) {
+        try {
+            return Optional.ofNullable(codec.read(readFully(revision.offset, revision.length), tipe));
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Failed to read " + key + " at revision " + revision.number);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Reads a range of the log with positional reads, which are safe to run concurrently with commits.
+     */
+    private ByteBuffer readFully(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (log.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of " + baseDir.resolve(LOG_FILE));
+            }
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Read-only view of the store at a fixed revision. Commits made after the snapshot was taken are not visible,
+     * so all reads through it are consistent with each other.
+     */
+    public class Snapshot implements Metastore {
+        private final long revision;
+
+        private Snapshot(long revision) {
+            this.revision = revision;
+        }
+
+        /**
+         * Returns the revision of the store this snapshot shows.
+         *
+         * @return the revision number
+         */
+        public long revision() {
+            return revision;
+        }
+
+        @Override
+        public <T> Optional<T> read(Identifier id, Class<T> tipe) {
+            return VersionedMetastore.this.read(id, tipe, revision);
+        }
+
+        @Override
+        public boolean exists(Identifier id, Class<?> tipe) {
+            return lookup(objectKeys.keyFor(id, tipe), revision).isPresent();
+        }
+
+        /**
+         * Returns the metadata of an object. The version is the revision of the store the object was last written at.
+         */
+        @Override
+        public Optional<ObjectStat> stat(Identifier id, Class<?> tipe) {
+            return lookup(objectKeys.keyFor(id, tipe), revision)
+                    .map(found -> new ObjectStat(found.length, Instant.ofEpochMilli(found.timestamp), String.valueOf(found.number)));
+        }
+
+        @Override
+        public <T> List<T> readAll(Class<T> tipe) {
+            return readAll(tipe, new String[0]);
+        }
+
+        @Override
+        public <T> List<T> readAll(Class<T> tipe, String[] domainPrefix) {
+            return objectKeys.ofType(history, tipe, domainPrefix)
+                    .flatMap(entry -> lookup(entry.getKey(), revision).flatMap(found -> decode(entry.getKey(), found, tipe)).stream())
+                    .collect(Collectors.toList());
+        }
+
+        @Override
+        public Optional<List<Identifier>> listIds(Class<?> tipe, String[] domainPrefix) {
+            return Optional.of(objectKeys.ofType(history, tipe, domainPrefix)
+                    .filter(entry -> lookup(entry.getKey(), revision).isPresent())
+                    .flatMap(entry -> objectKeys.identifierOf(entry.getKey()).stream())
+                    .collect(Collectors.toList()));
+        }
+
+        @Override
+        public <T> Optional<String> write(Identifier id, T data) {
+            return Optional.of("Snapshot at revision " + revision + " of " + baseDir + " is read-only");
+        }
+
+        @Override
+        public Optional<String> delete(Identifier id) {
+            return Optional.of("Snapshot at revision " + revision + " of " + baseDir + " is read-only");
+        }
+    }
+
+    /**
+     * New value of a key in a commit.
+     */
+    private static class Change {
+        final String version;
+        final byte[] value;
+
+        Change(String version, byte[] value) {
+            this.version = version;
+            this.value = value;
+        }
+    }
+
+    /**
+     * One revision of a key: the commit it belongs to and the position of its value in the log.
+     */
+    private static class Revision {
+        final long number;
+        final long timestamp;
+        final String version;
+        final long offset;
+        final int length;
+
+        Revision(long number, long timestamp, String version, long offset, int length) {
+            this.number = number;
+            this.timestamp = timestamp;
+            this.version = version;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        boolean isDeleted() {
+            return length == TOMBSTONE;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package datathread.metastore;
+
+/**
+ * How a FederatedMetastore handles writes and deletes.
+ *
+ * The primary is the first delegate, the one reads give precedence to, so an object written through the
+ * FederatedMetastore is read back right away whatever the policy.
+ */
+public enum WritePolicy {
+    /**
+     * Refuse writes. Deletes are applied to every delegate.
+     */
+    REJECT,
+
+    /**
+     * Write to the primary only. Deletes are applied to every delegate, so that no other delegate still shows the object.
+     */
+    PRIMARY,
+
+    /**
+     * Write and delete on every delegate concurrently, and succeed once a majority of them including the primary has
+     * acknowledged. The remaining delegates complete in the background.
+     */
+    QUORUM,
+
+    /**
+     * Write and delete on the primary, then replicate the change to the other delegates in the background.
+     * Changes are queued per delegate in a bounded queue, sent in batches and retried with backoff, so a slow or
+     * unavailable delegate adds no latency to writes until its queue is full.
+     */
+    PRIMARY_ASYNC_REPLICATION
+}
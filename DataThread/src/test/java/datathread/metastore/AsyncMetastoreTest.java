@@ -0,0 +1,125 @@
+package datathread.metastore;
+
+import datathread.Identifier;
+import datathread.grammar.Element;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class AsyncMetastoreTest {
+
+    @Test
+    public void testAdapterRead() throws Exception {
+        Metastore metastore = mock(Metastore.class);
+        Identifier id = new Identifier("element", new String[]{"domain"}, "name");
+        Element element = new Element();
+
+        when(metastore.read(id, Element.class)).thenReturn(Optional.of(element));
+
+        AsyncMetastore async = AsyncMetastore.of(metastore);
+
+        assertTrue(async instanceof ExecutorAsyncMetastore);
+        assertEquals(Optional.of(element), async.read(id, Element.class).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFederatedReadOverlapsDelegates() throws Exception {
+        Identifier id = new Identifier("element", new String[]{"domain"}, "name");
+        Element edited = new Element();
+        edited.setName("edited");
+        Element automated = new Element();
+        automated.setName("automated");
+
+        // Both delegates block until the other one has started, so this only completes if they run concurrently
+        CountDownLatch started = new CountDownLatch(2);
+        Metastore first = mock(Metastore.class);
+        Metastore second = mock(Metastore.class);
+        when(first.mightContain(id, Element.class)).thenReturn(true);
+        when(second.mightContain(id, Element.class)).thenReturn(true);
+        when(first.read(id, Element.class)).thenAnswer(invocation -> awaitBoth(started, Optional.of(edited)));
+        when(second.read(id, Element.class)).thenAnswer(invocation -> awaitBoth(started, Optional.of(automated)));
+
+        AsyncMetastore async = AsyncMetastore.of(new FederatedMetastore(Arrays.asList(first, second)));
+
+        assertTrue(async instanceof FederatedAsyncMetastore);
+        assertEquals(Optional.of(edited), async.read(id, Element.class).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFederatedReadOnSingleThread() throws Exception {
+        Identifier id = new Identifier("element", new String[]{"domain"}, "name");
+        Element automated = new Element();
+        automated.setName("automated");
+
+        Metastore first = mock(Metastore.class);
+        Metastore second = mock(Metastore.class);
+        when(first.mightContain(id, Element.class)).thenReturn(true);
+        when(second.mightContain(id, Element.class)).thenReturn(true);
+        when(first.read(id, Element.class)).thenReturn(Optional.empty());
+        when(second.read(id, Element.class)).thenReturn(Optional.of(automated));
+
+        // A read waiting on the executor for its own lookups would never complete on a single thread
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            AsyncMetastore async = AsyncMetastore.of(new FederatedMetastore(Arrays.asList(first, second)), executor);
+
+            assertEquals(Optional.of(automated), async.read(id, Element.class).get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFederatedReadManyPrecedence() throws Exception {
+        Identifier id1 = new Identifier("element", new String[]{"domain"}, "one");
+        Identifier id2 = new Identifier("element", new String[]{"domain"}, "two");
+        Element edited = new Element();
+        edited.setName("edited");
+        Element automated = new Element();
+        automated.setName("automated");
+
+        Metastore first = mock(Metastore.class);
+        Metastore second = mock(Metastore.class);
+        when(first.mightContain(any(), any())).thenReturn(true);
+        when(second.mightContain(any(), any())).thenReturn(true);
+        when(first.readMany(List.of(id1, id2), Element.class)).thenReturn(Map.of(id2, edited));
+        when(second.readMany(List.of(id1), Element.class)).thenReturn(Map.of(id1, automated));
+
+        AsyncMetastore async = AsyncMetastore.of(new FederatedMetastore(Arrays.asList(first, second)));
+        Map<Identifier, Element> result = async.readMany(List.of(id1, id2), Element.class).get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of(id1, id2), List.copyOf(result.keySet()));
+        assertEquals("automated", result.get(id1).getName());
+        assertEquals("edited", result.get(id2).getName());
+    }
+
+    @Test
+    public void testFederatedWriteFollowsPolicy() throws Exception {
+        Identifier id = new Identifier("element", new String[]{"domain"}, "name");
+        Element element = new Element();
+        Metastore primary = mock(Metastore.class);
+        Metastore mirror = mock(Metastore.class);
+        when(primary.writeAll(Map.of(id, element))).thenReturn(Optional.empty());
+
+        AsyncMetastore async = AsyncMetastore.of(FederatedMetastore.builder(Arrays.asList(primary, mirror)).writePolicy(WritePolicy.PRIMARY).build());
+
+        assertEquals(Optional.empty(), async.write(id, element).get(5, TimeUnit.SECONDS));
+        verify(mirror, never()).writeAll(any());
+    }
+
+    private static <T> T awaitBoth(CountDownLatch started, T result) throws InterruptedException {
+        started.countDown();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return result;
+    }
+}
@@ -0,0 +1,106 @@
+package datathread.metastore;
+
+import datathread.Identifier;
+import datathread.grammar.Element;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BloomFilterMetastoreTest {
+
+    private final Identifier age = new Identifier("element", new String[]{"person"}, "age");
+    private final Identifier name = new Identifier("element", new String[]{"person", "details"}, "name");
+    private final Identifier height = new Identifier("element", new String[]{"person"}, "height");
+
+    @Test
+    public void testSkipsMissingObjects(@TempDir Path tempDir) {
+        FileMetastore store = new FileMetastore(tempDir.resolve("store"));
+        store.write(age, getElement("Age"));
+
+        try (BloomFilterMetastore filtered = new BloomFilterMetastore(store, null, List.of(Element.class))) {
+            assertEquals("Age", filtered.read(age, Element.class).get().getName());
+            assertFalse(filtered.read(height, Element.class).isPresent());
+            assertFalse(filtered.exists(height, Element.class));
+            assertEquals(2, filtered.skipped());
+
+            // Written objects are added to the filter, deleted ones only stop being found by the delegate
+            assertFalse(filtered.write(name, getElement("Name")).isPresent());
+            assertTrue(filtered.mightContain(name, Element.class));
+            assertEquals("Name", filtered.read(name, Element.class).get().getName());
+
+            filtered.delete(age);
+            assertFalse(filtered.read(age, Element.class).isPresent());
+
+            filtered.rebuild();
+            assertFalse(filtered.mightContain(age, Element.class));
+            assertTrue(filtered.mightContain(name, Element.class));
+        }
+    }
+
+    @Test
+    public void testFilterSavedOnClose(@TempDir Path tempDir) {
+        Path filterFile = tempDir.resolve("bloom");
+        FileMetastore store = new FileMetastore(tempDir.resolve("store"));
+        store.write(age, getElement("Age"));
+
+        // A key only known to the filter shows whether the saved filter is used rather than rebuilt
+        Identifier ghost = new Identifier("element", new String[]{"person"}, "ghost");
+        try (BloomFilterMetastore filtered = new BloomFilterMetastore(store, filterFile, List.of(Element.class))) {
+            filtered.onChange(new MetastoreEvent(MetastoreEvent.Kind.CREATED, ghost, "element"));
+        }
+        assertTrue(Files.exists(filterFile));
+
+        // The store did not change, so the saved filter is used
+        try (BloomFilterMetastore filtered = new BloomFilterMetastore(store, filterFile, List.of(Element.class))) {
+            assertFalse(Files.exists(filterFile));
+            assertTrue(filtered.mightContain(age, Element.class));
+            assertTrue(filtered.mightContain(ghost, Element.class));
+        }
+
+        // An object written behind its back changes the store, so the saved filter is rebuilt
+        store.write(height, getElement("Height"));
+        try (BloomFilterMetastore filtered = new BloomFilterMetastore(store, filterFile, List.of(Element.class))) {
+            assertTrue(filtered.mightContain(age, Element.class));
+            assertTrue(filtered.mightContain(height, Element.class));
+            assertFalse(filtered.mightContain(ghost, Element.class));
+        }
+
+        // A filter saved for other types is rebuilt
+        try (BloomFilterMetastore filtered = new BloomFilterMetastore(store, filterFile, List.of(Element.class, String.class))) {
+            assertTrue(filtered.mightContain(height, Element.class));
+        }
+    }
+
+    @Test
+    public void testFollowsFilesAddedToTheStore(@TempDir Path tempDir) throws InterruptedException {
+        FileMetastore store = new FileMetastore(tempDir.resolve("store"));
+        store.write(age, getElement("Age"));
+
+        try (BloomFilterMetastore filtered = new BloomFilterMetastore(store, null, List.of(Element.class))) {
+            assertFalse(filtered.mightContain(name, Element.class));
+
+            // Written behind the filter's back, and picked up from the change feed of the store
+            store.write(name, getElement("Name"));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (!filtered.mightContain(name, Element.class) && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            assertTrue(filtered.mightContain(name, Element.class));
+        }
+    }
+
+    private Element getElement(String elementName) {
+        Element element = new Element();
+        element.setId("element:person:age");
+        element.setName(elementName);
+        return element;
+    }
+}
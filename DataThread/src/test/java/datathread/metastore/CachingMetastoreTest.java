@@ -0,0 +1,145 @@
+package datathread.metastore;
+
+import datathread.Identifier;
+import datathread.grammar.Element;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class CachingMetastoreTest {
+
+    @Mock
+    private Metastore delegate;
+    private AtomicLong clock;
+    private CachingMetastore cachingMetastore;
+
+    private final Identifier id1 = new Identifier("scheme", new String[]{"domain"}, "name1");
+    private final Identifier id2 = new Identifier("scheme", new String[]{"domain"}, "name2");
+    private final Identifier id3 = new Identifier("scheme", new String[]{"domain"}, "name3");
+
+    @BeforeEach
+    public void setUp() {
+        clock = new AtomicLong();
+        cachingMetastore = new CachingMetastore(delegate, 2, null, Map.of(Element.class, Duration.ofSeconds(10)), clock::get);
+    }
+
+    @Test
+    public void testReadIsCached() {
+        Element element = new Element();
+        when(delegate.read(id1, Element.class)).thenReturn(Optional.of(element));
+
+        assertSame(element, cachingMetastore.read(id1, Element.class).get());
+        assertSame(element, cachingMetastore.read(id1, Element.class).get());
+
+        verify(delegate, times(1)).read(id1, Element.class);
+        assertEquals(1, cachingMetastore.stats().hits());
+        assertEquals(1, cachingMetastore.stats().misses());
+    }
+
+    @Test
+    public void testWriteAndDeleteInvalidate() {
+        Element element = new Element();
+        when(delegate.read(id1, Element.class)).thenReturn(Optional.of(element));
+        when(delegate.write(id1, element)).thenReturn(Optional.empty());
+        when(delegate.delete(id1)).thenReturn(Optional.empty());
+
+        cachingMetastore.read(id1, Element.class);
+        cachingMetastore.write(id1, element);
+        cachingMetastore.read(id1, Element.class);
+        cachingMetastore.delete(id1);
+        cachingMetastore.read(id1, Element.class);
+
+        verify(delegate, times(3)).read(id1, Element.class);
+        assertEquals(0, cachingMetastore.stats().hits());
+    }
+
+    @Test
+    public void testChangeEventsInvalidate() {
+        Element element = new Element();
+        when(delegate.read(id1, Element.class)).thenReturn(Optional.of(element));
+        when(delegate.read(id2, Element.class)).thenReturn(Optional.of(element));
+
+        // Change feeds of file-based stores give the file style as scheme
+        cachingMetastore.read(id1, Element.class);
+        cachingMetastore.onChange(new MetastoreEvent(MetastoreEvent.Kind.MODIFIED,
+                new Identifier("element", new String[]{"domain"}, "name1"), "element"));
+        cachingMetastore.read(id1, Element.class);
+
+        cachingMetastore.read(id2, Element.class);
+        cachingMetastore.onChange(new MetastoreEvent(MetastoreEvent.Kind.OVERFLOW, null, null));
+        cachingMetastore.read(id1, Element.class);
+        cachingMetastore.read(id2, Element.class);
+
+        verify(delegate, times(3)).read(id1, Element.class);
+        verify(delegate, times(2)).read(id2, Element.class);
+        assertEquals(0, cachingMetastore.stats().hits());
+    }
+
+    @Test
+    public void testTimeToLive() {
+        Element element = new Element();
+        when(delegate.read(id1, Element.class)).thenReturn(Optional.of(element));
+
+        cachingMetastore.read(id1, Element.class);
+        clock.addAndGet(Duration.ofSeconds(5).toNanos());
+        cachingMetastore.read(id1, Element.class);
+        clock.addAndGet(Duration.ofSeconds(6).toNanos());
+        cachingMetastore.read(id1, Element.class);
+
+        verify(delegate, times(2)).read(id1, Element.class);
+    }
+
+    @Test
+    public void testBoundedSize() {
+        when(delegate.read(id1, Element.class)).thenReturn(Optional.of(new Element()));
+        when(delegate.read(id2, Element.class)).thenReturn(Optional.of(new Element()));
+        when(delegate.read(id3, Element.class)).thenReturn(Optional.of(new Element()));
+
+        cachingMetastore.read(id1, Element.class);
+        cachingMetastore.read(id2, Element.class);
+        cachingMetastore.read(id1, Element.class);
+
+        // A single read of id3 is not enough to displace the entries
+        cachingMetastore.read(id3, Element.class);
+        assertEquals(2, cachingMetastore.stats().size());
+        assertEquals(0, cachingMetastore.stats().evictions());
+
+        // Once id3 is more popular than the least recently used entry it replaces it
+        cachingMetastore.read(id3, Element.class);
+        assertEquals(2, cachingMetastore.stats().size());
+        assertEquals(1, cachingMetastore.stats().evictions());
+
+        cachingMetastore.read(id3, Element.class);
+        verify(delegate, times(2)).read(id3, Element.class);
+    }
+
+    @Test
+    public void testReadManyLoadsOnlyMisses() {
+        Element element1 = new Element();
+        Element element2 = new Element();
+        when(delegate.read(id1, Element.class)).thenReturn(Optional.of(element1));
+        when(delegate.readMany(List.of(id2), Element.class)).thenReturn(Map.of(id2, element2));
+
+        cachingMetastore.read(id1, Element.class);
+        Map<Identifier, Element> result = cachingMetastore.readMany(List.of(id2, id1), Element.class);
+
+        assertEquals(List.of(id2, id1), List.copyOf(result.keySet()));
+        assertSame(element1, result.get(id1));
+        assertSame(element2, result.get(id2));
+    }
+}
@@ -0,0 +1,82 @@
+package datathread.metastore;
+
+import datathread.Identifier;
+import datathread.grammar.Element;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ContentAddressedMetastoreTest {
+
+    private final Identifier age = new Identifier("element", new String[]{"person"}, "age");
+    private final Identifier name = new Identifier("element", new String[]{"person", "details"}, "name");
+
+    @Test
+    public void testDeduplicatedWrites(@TempDir Path tempDir) throws IOException {
+        ContentAddressedMetastore store = new ContentAddressedMetastore(tempDir);
+
+        // Elements embed their own id, which is kept out of the blob so that equal content is still shared
+        assertFalse(store.writeAll(Map.of(age, getElement(age, "Age"), name, getElement(name, "Age"))).isPresent());
+        assertEquals(1, countBlobs(tempDir));
+        assertEquals(store.contentHash(age, Element.class), store.contentHash(name, Element.class));
+        assertNotEquals(store.references().get("person/age.element.json"), store.references().get("person/details/name.element.json"));
+        assertEquals("Age", store.read(name, Element.class).get().getName());
+        assertEquals("element:person/details:name", store.read(name, Element.class).get().getId());
+        assertEquals("element:person:age", new ContentAddressedMetastore(tempDir).read(age, Element.class).get().getId());
+        assertEquals(1, store.readAll(Element.class, new String[]{"person", "details"}).size());
+
+        // Unchanged content does not touch the disk
+        long logSize = Files.size(tempDir.resolve("refs.log"));
+        assertFalse(store.write(age, getElement(age, "Age")).isPresent());
+        assertEquals(logSize, Files.size(tempDir.resolve("refs.log")));
+
+        assertFalse(store.write(age, getElement(age, "Age2")).isPresent());
+        assertEquals(2, countBlobs(tempDir));
+        assertEquals(2, new ContentAddressedMetastore(tempDir).readAll(Element.class).size());
+    }
+
+    @Test
+    public void testGcAndRootHash(@TempDir Path tempDir) throws IOException {
+        ContentAddressedMetastore store = new ContentAddressedMetastore(tempDir.resolve("a"));
+        ContentAddressedMetastore other = new ContentAddressedMetastore(tempDir.resolve("b"));
+
+        store.writeAll(Map.of(age, getElement(age, "Age"), name, getElement(name, "Name")));
+        other.write(name, getElement(name, "Name"));
+        assertNotEquals(store.rootHash(), other.rootHash());
+
+        other.write(age, getElement(age, "Age"));
+        assertEquals(store.rootHash(), other.rootHash());
+
+        assertFalse(store.delete(name).isPresent());
+        assertFalse(store.exists(name, Element.class));
+        assertEquals(2, countBlobs(tempDir.resolve("a")));
+        assertFalse(store.gc().isPresent());
+        assertEquals(1, countBlobs(tempDir.resolve("a")));
+        assertEquals("Age", new ContentAddressedMetastore(tempDir.resolve("a")).read(age, Element.class).get().getName());
+        assertEquals(Set.of("person/age.element.json"), store.references().keySet());
+    }
+
+    private static long countBlobs(Path baseDir) throws IOException {
+        try (Stream<Path> files = Files.walk(baseDir.resolve("blobs"))) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+
+    private Element getElement(Identifier id, String elementName) {
+        Element element = new Element();
+        element.setId(id.scheme() + ":" + String.join("/", id.domain()) + ":" + id.name());
+        element.setName(elementName);
+        return element;
+    }
+}
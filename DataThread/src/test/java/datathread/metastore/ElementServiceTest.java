@@ -7,7 +7,10 @@ import datathread.grammar.Elements;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -30,6 +33,7 @@ public class ElementServiceTest {
         ElementType elementType = new Elements.Text();
 
         when(metastore.read(id, Element.class)).thenReturn(Optional.of(element));
+        when(metastore.exists(id, ElementType.class)).thenReturn(true);
         when(metastore.read(id, ElementType.class)).thenReturn(Optional.of(elementType));
 
         Optional<Element> result = elementService.get(id);
@@ -39,6 +43,41 @@ public class ElementServiceTest {
         assertNotNull(result.get().getElementType());
     }
 
+    @Test
+    public void testGetSkipsMissingOverride() {
+        Identifier id = new Identifier("element", new String[]{"domain"}, "test");
+
+        when(metastore.read(id, Element.class)).thenReturn(Optional.of(new Element()));
+        when(metastore.exists(id, ElementType.class)).thenReturn(false);
+
+        Optional<Element> result = elementService.get(id);
+
+        assertTrue(result.isPresent());
+        verify(metastore, never()).read(id, ElementType.class);
+    }
+
+    @Test
+    public void testGetAllAsync() throws Exception {
+        Identifier id1 = new Identifier("element", new String[]{"domain"}, "one");
+        Identifier id2 = new Identifier("element", new String[]{"domain"}, "two");
+        Identifier missing = new Identifier("element", new String[]{"domain"}, "missing");
+        ElementType elementType = new Elements.Text();
+
+        when(metastore.read(id1, Element.class)).thenReturn(Optional.of(new Element()));
+        when(metastore.read(id2, Element.class)).thenReturn(Optional.of(new Element()));
+        when(metastore.read(missing, Element.class)).thenReturn(Optional.empty());
+        when(metastore.exists(id1, ElementType.class)).thenReturn(true);
+        when(metastore.exists(id2, ElementType.class)).thenReturn(false);
+        when(metastore.read(id1, ElementType.class)).thenReturn(Optional.of(elementType));
+
+        Map<Identifier, Element> result = elementService.getAllAsync(List.of(id1, missing, id2)).get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of(id1, id2), List.copyOf(result.keySet()));
+        assertEquals(elementType, result.get(id1).getElementType());
+        assertNull(result.get(id2).getElementType());
+        verify(metastore, never()).read(id2, ElementType.class);
+    }
+
     @Test
     public void testGetElementType() {
         Element element = TestUtils.basicTextElement("test", "domain");
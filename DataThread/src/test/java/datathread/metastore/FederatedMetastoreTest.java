@@ -5,16 +5,38 @@ import datathread.grammar.Element;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 @ExtendWith(MockitoExtension.class)
 public class FederatedMetastoreTest {
@@ -27,6 +49,9 @@ public class FederatedMetastoreTest {
 
     @BeforeEach
     public void setUp() {
+        // Mocks answer false to default methods, which would rule out every object
+        lenient().when(delegate1.mightContain(any(), any())).thenReturn(true);
+        lenient().when(delegate2.mightContain(any(), any())).thenReturn(true);
         federatedMetastore = new FederatedMetastore(Arrays.asList(delegate1, delegate2));
     }
 
@@ -44,6 +69,176 @@ public class FederatedMetastoreTest {
         assertEquals(element, result.get());
     }
 
+    @Test
+    public void testParallelRead() {
+        Identifier id = new Identifier("scheme", new String[]{"domain"}, "name");
+        Element element = new Element();
+        CountDownLatch secondQueried = new CountDownLatch(1);
+        ExecutorService executor = ExecutorAsyncMetastore.newVirtualThreadPerTaskExecutor();
+
+        // The first delegate only misses once the second one was queried, which a sequential read never does
+        when(delegate1.read(id, Element.class)).thenAnswer(invocation -> {
+            assertTrue(secondQueried.await(5, TimeUnit.SECONDS));
+            return Optional.empty();
+        });
+        when(delegate2.read(id, Element.class)).thenAnswer(invocation -> {
+            secondQueried.countDown();
+            return Optional.of(element);
+        });
+
+        FederatedMetastore parallel = FederatedMetastore.builder(Arrays.asList(delegate1, delegate2)).executor(executor).build();
+        assertEquals(element, parallel.read(id, Element.class).orElseThrow());
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testHedgedRead() {
+        Identifier id = new Identifier("scheme", new String[]{"domain"}, "name");
+        Element element = new Element();
+        AtomicInteger calls = new AtomicInteger();
+        ExecutorService executor = ExecutorAsyncMetastore.newVirtualThreadPerTaskExecutor();
+
+        // Once the latencies are known, one request stalls and only its hedged copy answers
+        when(delegate1.read(id, Element.class)).thenAnswer(invocation -> {
+            if (calls.incrementAndGet() == LatencyTracker.MIN_SAMPLES + 1) {
+                Thread.sleep(60_000);
+            }
+            return Optional.of(element);
+        });
+
+        FederatedMetastore hedged = FederatedMetastore.builder(Arrays.asList(delegate1, delegate2)).executor(executor).hedgePercentile(99).build();
+        for (int i = 0; i <= LatencyTracker.MIN_SAMPLES; i++) {
+            assertEquals(element, hedged.read(id, Element.class).orElseThrow());
+        }
+        assertEquals(LatencyTracker.MIN_SAMPLES + 2, calls.get());
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testCancelledLookupLeavesDelegateUsable(@TempDir Path tempDir) throws IOException, InterruptedException {
+        Identifier id = new Identifier("element", new String[]{"person"}, "age");
+        Element element = new Element();
+        element.setName("Age");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch released = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(1);
+        ExecutorService executor = ExecutorAsyncMetastore.newVirtualThreadPerTaskExecutor();
+
+        try (VersionedMetastore versioned = new VersionedMetastore(tempDir)) {
+            versioned.write(id, element);
+
+            // The second delegate is still reading when the first one answers and the lookup is cancelled
+            when(delegate1.read(id, Element.class)).thenAnswer(invocation -> {
+                started.await();
+                return Optional.of(element);
+            });
+            when(delegate2.read(id, Element.class)).thenAnswer(invocation -> {
+                started.countDown();
+                boolean interrupted = false;
+                while (true) {
+                    try {
+                        released.await();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                try {
+                    return versioned.read(id, Element.class);
+                } finally {
+                    finished.countDown();
+                }
+            });
+
+            FederatedMetastore parallel = FederatedMetastore.builder(Arrays.asList(delegate1, delegate2)).executor(executor).build();
+            assertEquals(element, parallel.read(id, Element.class).orElseThrow());
+
+            released.countDown();
+            assertTrue(finished.await(5, TimeUnit.SECONDS));
+            assertEquals("Age", versioned.read(id, Element.class).orElseThrow().getName());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCircuitBreakerSkipsFailingDelegate() {
+        Identifier id = new Identifier("scheme", new String[]{"domain"}, "name");
+        Element element = new Element();
+        when(delegate1.read(id, Element.class)).thenThrow(new IllegalStateException("unavailable"));
+        when(delegate2.read(id, Element.class)).thenReturn(Optional.of(element));
+
+        FederatedMetastore guarded = FederatedMetastore.builder(Arrays.asList(delegate1, delegate2))
+                .circuitBreakers(() -> new CircuitBreaker(2, null, Duration.ofMinutes(1)))
+                .build();
+        for (int i = 0; i < 5; i++) {
+            assertEquals(element, guarded.read(id, Element.class).orElseThrow());
+        }
+
+        verify(delegate1, times(2)).read(id, Element.class);
+        assertEquals(CircuitBreaker.State.OPEN, guarded.circuitBreaker(0).orElseThrow().state());
+        assertEquals(CircuitBreaker.State.CLOSED, guarded.circuitBreaker(1).orElseThrow().state());
+    }
+
+    @Test
+    public void testEqualPrecedenceOrderedByLatency() throws InterruptedException {
+        Identifier id = new Identifier("scheme", new String[]{"domain"}, "name");
+        Element element = new Element();
+        when(delegate1.read(id, Element.class)).thenAnswer(invocation -> {
+            Thread.sleep(5);
+            return Optional.of(element);
+        });
+        when(delegate2.read(id, Element.class)).thenReturn(Optional.of(element));
+
+        FederatedMetastore replicas = FederatedMetastore.builder(Arrays.asList(delegate1, delegate2)).precedence(0, 0).build();
+
+        // The first replica is measured, then the unmeasured one is tried, then the faster one wins
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < LatencyTracker.MIN_SAMPLES; i++) {
+                replicas.read(id, Element.class);
+            }
+            TimeUnit.MILLISECONDS.sleep(1100);
+        }
+        for (int i = 0; i < 10; i++) {
+            assertEquals(element, replicas.read(id, Element.class).orElseThrow());
+        }
+
+        verify(delegate1, times(LatencyTracker.MIN_SAMPLES)).read(id, Element.class);
+        assertTrue(replicas.latency(0, 50).orElseThrow().compareTo(replicas.latency(1, 50).orElseThrow()) > 0);
+    }
+
+    @Test
+    public void testReadSkipsDelegateWithoutObject() {
+        Identifier id = new Identifier("scheme", new String[]{"domain"}, "name");
+        Element element = new Element();
+        when(delegate1.mightContain(id, Element.class)).thenReturn(false);
+        when(delegate2.read(id, Element.class)).thenReturn(Optional.of(element));
+
+        assertEquals(element, federatedMetastore.read(id, Element.class).orElseThrow());
+        verify(delegate1, never()).read(id, Element.class);
+    }
+
+    @Test
+    public void testReadMany() {
+        Identifier id1 = new Identifier("scheme", new String[]{"domain"}, "name1");
+        Identifier id2 = new Identifier("scheme", new String[]{"domain"}, "name2");
+        Element element1 = new Element();
+        Element element2 = new Element();
+
+        when(delegate1.readMany(List.of(id2, id1), Element.class)).thenReturn(Map.of(id1, element1));
+        when(delegate2.readMany(List.of(id2), Element.class)).thenReturn(Map.of(id2, element2));
+
+        Map<Identifier, Element> result = federatedMetastore.readMany(List.of(id2, id1), Element.class);
+
+        assertEquals(List.of(id2, id1), List.copyOf(result.keySet()));
+        assertEquals(element1, result.get(id1));
+        assertEquals(element2, result.get(id2));
+        verify(delegate2).readMany(List.of(id2), Element.class);
+    }
+
     @Test
     public void testReadAll() {
         Element element1 = new Element();
@@ -59,6 +254,118 @@ public class FederatedMetastoreTest {
         assertTrue(result.contains(element2));
     }
 
+    @Test
+    public void testReadAllKeepsEarliestDelegate() {
+        Identifier id1 = new Identifier("element", new String[]{"domain"}, "name1");
+        Identifier id2 = new Identifier("element", new String[]{"domain"}, "name2");
+        Element edited = new Element();
+        Element element2 = new Element();
+        String[] all = new String[0];
+
+        when(delegate1.listIds(Element.class, all)).thenReturn(Optional.of(List.of(id1)));
+        when(delegate2.listIds(Element.class, all)).thenReturn(Optional.of(List.of(id1, id2)));
+        when(delegate1.readMany(List.of(id1), Element.class)).thenReturn(Map.of(id1, edited));
+        when(delegate2.readMany(List.of(id2), Element.class)).thenReturn(Map.of(id2, element2));
+
+        assertEquals(List.of(edited, element2), federatedMetastore.readAll(Element.class, all));
+        assertEquals(List.of(id1, id2), federatedMetastore.listIds(Element.class, all).orElseThrow());
+        verify(delegate2, never()).readAll(Element.class, all);
+    }
+
+    @Test
+    public void testStream() {
+        Element element1 = new Element();
+        Element element2 = new Element();
+        AtomicInteger closed = new AtomicInteger();
+
+        when(delegate1.stream(Element.class)).thenReturn(Stream.of(element1).onClose(closed::incrementAndGet));
+        when(delegate2.stream(Element.class)).thenReturn(Stream.of(element2).onClose(closed::incrementAndGet));
+
+        try (Stream<Element> stream = federatedMetastore.stream(Element.class)) {
+            assertEquals(List.of(element1, element2), stream.collect(Collectors.toList()));
+        }
+
+        assertEquals(2, closed.get());
+    }
+
+    @Test
+    public void testReadPage() {
+        Element element1 = new Element();
+        Element element2 = new Element();
+        Element element3 = new Element();
+
+        when(delegate1.readPage(Element.class, 2, null)).thenReturn(new Page<>(List.of(element1), null));
+        when(delegate2.readPage(Element.class, 1, null)).thenReturn(new Page<>(List.of(element2), "next"));
+        when(delegate2.readPage(Element.class, 2, "next")).thenReturn(new Page<>(List.of(element3), null));
+
+        Page<Element> first = federatedMetastore.readPage(Element.class, 2, null);
+        assertEquals(2, first.items().size());
+        assertEquals("1:next", first.continuationToken().orElseThrow());
+
+        Page<Element> second = federatedMetastore.readPage(Element.class, 2, "1:next");
+        assertEquals(List.of(element3), second.items());
+        assertTrue(second.continuationToken().isEmpty());
+    }
+
+    @Test
+    public void testListedDelegatesWithoutDuplicates() {
+        Identifier a = new Identifier("element", new String[]{"domain"}, "a");
+        Identifier b = new Identifier("element", new String[]{"domain"}, "b");
+        Identifier c = new Identifier("element", new String[]{"domain", "sub"}, "c");
+        Element elementA = getElement("A");
+        Element elementB = getElement("B");
+        Element shadowedB = getElement("Shadowed B");
+        Element elementC = getElement("C");
+
+        when(delegate1.listIds(eq(Element.class), any())).thenReturn(Optional.of(List.of(b, a)));
+        when(delegate2.listIds(eq(Element.class), any())).thenReturn(Optional.of(List.of(c, b)));
+        when(delegate1.readMany(any(), eq(Element.class))).thenAnswer(invocation -> {
+            Map<Identifier, Element> objects = Map.of(a, elementA, b, elementB);
+            Collection<Identifier> ids = invocation.getArgument(0);
+            return ids.stream().collect(Collectors.toMap(id -> id, objects::get, (x, y) -> x, LinkedHashMap::new));
+        });
+        when(delegate2.readMany(any(), eq(Element.class))).thenAnswer(invocation -> {
+            Map<Identifier, Element> objects = Map.of(b, shadowedB, c, elementC);
+            Collection<Identifier> ids = invocation.getArgument(0);
+            return ids.stream().collect(Collectors.toMap(id -> id, objects::get, (x, y) -> x, LinkedHashMap::new));
+        });
+
+        // An object held by both delegates is read once, from the earlier one
+        try (Stream<Element> stream = federatedMetastore.stream(Element.class)) {
+            assertEquals(List.of(elementB, elementA, elementC), stream.collect(Collectors.toList()));
+        }
+
+        // Pages follow the order of Identifiers over all delegates, which only list what follows the token
+        when(delegate1.listIdsAfter(eq(Element.class), any(), anyInt())).thenCallRealMethod();
+        when(delegate2.listIdsAfter(eq(Element.class), any(), anyInt())).thenCallRealMethod();
+        Page<Element> first = federatedMetastore.readPage(Element.class, 2, null);
+        assertEquals(List.of(elementA, elementB), first.items());
+        Page<Element> second = federatedMetastore.readPage(Element.class, 2, first.continuationToken().orElseThrow());
+        assertEquals(List.of(elementC), second.items());
+        assertTrue(second.continuationToken().isEmpty());
+        verify(delegate2).listIdsAfter(Element.class, b, 3);
+    }
+
+    @Test
+    public void testStreamReadsOnDemand() {
+        List<Identifier> ids = IntStream.range(0, 3 * FederatedMetastore.STREAM_CHUNK_SIZE)
+                .mapToObj(i -> new Identifier("element", new String[]{"domain"}, "e" + i))
+                .collect(Collectors.toList());
+        when(delegate1.listIds(eq(Element.class), any())).thenReturn(Optional.of(ids));
+        when(delegate2.listIds(eq(Element.class), any())).thenReturn(Optional.of(Collections.emptyList()));
+        when(delegate1.readMany(any(), eq(Element.class))).thenAnswer(invocation -> {
+            Collection<Identifier> chunk = invocation.getArgument(0);
+            return chunk.stream().collect(Collectors.toMap(id -> id, id -> getElement(id.name()), (x, y) -> x, LinkedHashMap::new));
+        });
+
+        // Nothing is listed until the stream is consumed, and only the chunks reached are read
+        try (Stream<Element> stream = federatedMetastore.stream(Element.class)) {
+            verify(delegate1, never()).listIds(any(), any());
+            assertEquals("e0", stream.findFirst().orElseThrow().getName());
+        }
+        verify(delegate1, times(1)).readMany(any(), eq(Element.class));
+    }
+
     @Test
     public void testWrite() {
         Identifier id = new Identifier("scheme", new String[]{"domain"}, "name");
@@ -69,4 +376,85 @@ public class FederatedMetastoreTest {
         assertTrue(result.isPresent());
         assertEquals("Write is not supported for FederatedMetastore.", result.get());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testQuorumWrite() {
+        Identifier id = new Identifier("scheme", new String[]{"domain"}, "name");
+        Element element = new Element();
+        Metastore delegate3 = mock(Metastore.class);
+
+        when(delegate1.writeAll(Map.of(id, element))).thenReturn(Optional.empty());
+        when(delegate2.writeAll(Map.of(id, element))).thenReturn(Optional.of("Disk full"));
+        when(delegate3.writeAll(Map.of(id, element))).thenReturn(Optional.empty());
+
+        FederatedMetastore quorum = FederatedMetastore.builder(Arrays.asList(delegate1, delegate2, delegate3)).writePolicy(WritePolicy.QUORUM).build();
+        assertTrue(quorum.write(id, element).isEmpty());
+
+        FederatedMetastore failing = FederatedMetastore.builder(Arrays.asList(delegate1, delegate2)).writePolicy(WritePolicy.QUORUM).build();
+        assertTrue(failing.write(id, element).orElseThrow().contains("Disk full"));
+    }
+
+    @Test
+    public void testQuorumWriteRequiresPrimary() {
+        Identifier id = new Identifier("scheme", new String[]{"domain"}, "name");
+        Element element = new Element();
+        Metastore delegate3 = mock(Metastore.class);
+
+        when(delegate1.writeAll(Map.of(id, element))).thenReturn(Optional.of("Disk full"));
+        // The quorum fails as soon as the primary does, so the others may not have been called yet
+        lenient().when(delegate2.writeAll(Map.of(id, element))).thenReturn(Optional.empty());
+        lenient().when(delegate3.writeAll(Map.of(id, element))).thenReturn(Optional.empty());
+
+        // A majority without the primary would let reads return the old object from it
+        FederatedMetastore quorum = FederatedMetastore.builder(Arrays.asList(delegate1, delegate2, delegate3)).writePolicy(WritePolicy.QUORUM).build();
+        assertTrue(quorum.write(id, element).orElseThrow().contains("Disk full"));
+    }
+
+    @Test
+    public void testPrimaryReadFirstWhenWritable() {
+        Identifier id = new Identifier("scheme", new String[]{"domain"}, "name");
+        Element element = new Element();
+        when(delegate1.read(id, Element.class)).thenReturn(Optional.of(element));
+
+        // The mirror has a better precedence, but may not have caught up with the primary yet
+        FederatedMetastore replicated = FederatedMetastore.builder(Arrays.asList(delegate1, delegate2))
+                .precedence(1, 0)
+                .writePolicy(WritePolicy.PRIMARY_ASYNC_REPLICATION)
+                .build();
+        try (replicated) {
+            assertEquals(element, replicated.read(id, Element.class).orElseThrow());
+            verify(delegate2, never()).read(id, Element.class);
+        }
+    }
+
+    @Test
+    public void testAsyncReplication() throws InterruptedException {
+        Identifier id = new Identifier("scheme", new String[]{"domain"}, "name");
+        Element element = new Element();
+
+        // The mirror fails once, so the change is retried
+        when(delegate1.writeAll(Map.of(id, element))).thenReturn(Optional.empty());
+        when(delegate2.writeAll(Map.of(id, element))).thenReturn(Optional.of("Unavailable")).thenReturn(Optional.empty());
+
+        try (FederatedMetastore replicated = FederatedMetastore.builder(Arrays.asList(delegate1, delegate2))
+                .writePolicy(WritePolicy.PRIMARY_ASYNC_REPLICATION)
+                .replication(10, 10, Duration.ofMillis(10))
+                .build()) {
+            assertTrue(replicated.write(id, element).isEmpty());
+            verify(delegate1).writeAll(Map.of(id, element));
+
+            for (int i = 0; i < 500 && replicated.replicationBacklog() > 0; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, replicated.replicationBacklog());
+            assertEquals(Duration.ZERO, replicated.replicationLag());
+            verify(delegate2, times(2)).writeAll(Map.of(id, element));
+        }
+    }
+
+    private Element getElement(String name) {
+        Element element = new Element();
+        element.setName(name);
+        return element;
+    }
+}
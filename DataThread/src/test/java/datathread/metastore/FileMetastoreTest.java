@@ -22,10 +22,22 @@ import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -68,6 +80,346 @@ public class FileMetastoreTest {
     }
 
 
+    @Test
+    public void testReadMany() {
+        Identifier age = new Identifier("element", new String[]{"person"}, "age");
+        Identifier missing = new Identifier("element", new String[]{"person"}, "missing");
+
+        Map<Identifier, Element> result = fileMetastore.readMany(List.of(missing, age), Element.class);
+
+        assertEquals(1, result.size());
+        assertEquals("Age", result.get(age).getName());
+    }
+
+    @Test
+    public void testStream() {
+        try (Stream<Element> stream = fileMetastore.stream(Element.class)) {
+            List<Element> firstTwo = stream.limit(2).collect(Collectors.toList());
+            assertEquals(2, firstTwo.size());
+        }
+    }
+
+    @Test
+    public void testReadPage() {
+        List<Element> all = fileMetastore.readAll(Element.class);
+        List<Element> paged = new ArrayList<>();
+        String token = null;
+
+        do {
+            Page<Element> page = fileMetastore.readPage(Element.class, 3, token);
+            assertTrue(page.items().size() <= 3);
+            paged.addAll(page.items());
+            token = page.continuationToken().orElse(null);
+        } while (token != null);
+
+        assertEquals(all.size(), paged.size());
+        assertTrue(paged.containsAll(all));
+    }
+
+    @Test
+    public void testReadPageOrder(@TempDir Path tempDir) {
+        // "a-b.element.json" sorts before "a.element.json", but the Identifier "a" before "a-b"
+        List<String> names = List.of("d", "a", "a-b", "b", "c");
+        List<Identifier> ids = List.of(
+                new Identifier("element", new String[]{"book"}, "d"),
+                new Identifier("element", new String[]{"person"}, "a"),
+                new Identifier("element", new String[]{"person"}, "a-b"),
+                new Identifier("element", new String[]{"person"}, "b"),
+                new Identifier("element", new String[]{"person", "details"}, "c"));
+
+        List<FileMetastore> stores = List.of(
+                new FileMetastore(tempDir.resolve("flat")),
+                new FileMetastore(tempDir.resolve("sharded"), null, false, Durability.NONE, StorageEncoding.JSON, null, 1),
+                new FileMetastore(tempDir.resolve("indexed"), null, true));
+
+        for (FileMetastore store : stores) {
+            for (int i = ids.size() - 1; i >= 0; i--) {
+                Element element = getElement();
+                element.setName(names.get(i));
+                assertFalse(store.write(ids.get(i), element).isPresent());
+            }
+
+            List<String> paged = new ArrayList<>();
+            String token = null;
+            do {
+                Page<Element> page = store.readPage(Element.class, 2, token);
+                page.items().forEach(element -> paged.add(element.getName()));
+                token = page.continuationToken().orElse(null);
+            } while (token != null);
+
+            assertEquals(names, paged);
+            assertEquals(names, store.readAllParallel(Element.class, true).stream()
+                    .map(Element::getName)
+                    .collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void testWriteAllAndDeleteAll(@TempDir Path tempDir) {
+        FileMetastore store = new FileMetastore(tempDir);
+        Identifier age = new Identifier("element", new String[]{"person"}, "age");
+        Identifier name = new Identifier("element", new String[]{"person", "details"}, "name");
+
+        assertFalse(store.writeAll(Map.of(age, getElement(), name, getElement())).isPresent());
+        assertTrue(Files.exists(FileMetastore.resolveForID(tempDir, age, Element.class)));
+        assertTrue(Files.exists(FileMetastore.resolveForID(tempDir, name, Element.class)));
+
+        assertFalse(store.deleteAll(List.of(age, name)).isPresent());
+        assertFalse(Files.exists(FileMetastore.resolveForID(tempDir, age, Element.class)));
+        assertFalse(Files.exists(FileMetastore.resolveForID(tempDir, name, Element.class)));
+
+        assertTrue(store.delete(age).isPresent());
+    }
+
+    @Test
+    public void testIndexedReadAll(@TempDir Path tempDir) {
+        Identifier age = new Identifier("element", new String[]{"person"}, "age");
+        Identifier name = new Identifier("element", new String[]{"person", "details"}, "name");
+        Identifier title = new Identifier("element", new String[]{"book"}, "title");
+
+        new FileMetastore(tempDir).write(age, getElement());
+
+        // The index is built from a scan on first use and then kept up to date by writes and deletes
+        FileMetastore store = new FileMetastore(tempDir, null, true);
+        assertEquals(1, store.readAll(Element.class).size());
+
+        assertFalse(store.writeAll(Map.of(name, getElement(), title, getElement())).isPresent());
+        assertTrue(Files.exists(tempDir.resolve(FileIndex.INDEX_FOLDER).resolve("element.idx")));
+        assertEquals(3, store.readAll(Element.class).size());
+        assertEquals(2, store.readAll(Element.class, new String[]{"person"}).size());
+
+        assertFalse(store.delete(age).isPresent());
+        assertEquals(2, new FileMetastore(tempDir, null, true).readAll(Element.class).size());
+
+        // Changes made behind the back of the index need a rebuild
+        new FileMetastore(tempDir).write(age, getElement());
+        assertEquals(2, store.readAll(Element.class).size());
+        assertFalse(store.rebuildIndex().isPresent());
+        assertEquals(3, store.readAll(Element.class).size());
+
+        // An ordered parallel read from the index reads the files of a folder before its sub-folders, like a traversal
+        Identifier zone = new Identifier("element", new String[]{"person"}, "zone");
+        for (Identifier id : List.of(age, name, title, zone)) {
+            Element element = getElement();
+            element.setName(id.name());
+            assertFalse(store.write(id, element).isPresent());
+        }
+        List<String> traversed = new FileMetastore(tempDir).readAllParallel(Element.class, true).stream()
+                .map(Element::getName)
+                .collect(Collectors.toList());
+        assertEquals(List.of("title", "age", "zone", "name"), traversed);
+        assertEquals(traversed, store.readAllParallel(Element.class, true).stream()
+                .map(Element::getName)
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testWatch(@TempDir Path tempDir) throws Exception {
+        Identifier age = new Identifier("element", new String[]{"person"}, "age");
+        Identifier name = new Identifier("element", new String[]{"person", "details"}, "name");
+        FileMetastore store = new FileMetastore(tempDir, null, true);
+        BlockingQueue<MetastoreEvent> events = new LinkedBlockingQueue<>();
+
+        FileWatcher watcher = store.watch(Duration.ofMillis(50), events::add);
+        try (watcher) {
+            // Written by another process, in a folder that does not exist yet
+            new FileMetastore(tempDir).write(age, getElement());
+            new FileMetastore(tempDir).write(age, getElement());
+
+            MetastoreEvent created = events.poll(5, TimeUnit.SECONDS);
+            assertEquals(new MetastoreEvent(MetastoreEvent.Kind.CREATED, age, "element"), created);
+            assertTrue(created.isOf(Element.class));
+            assertEquals(1, store.readAll(Element.class).size());
+
+            new FileMetastore(tempDir).write(name, getElement());
+            new FileMetastore(tempDir).delete(name);
+            new FileMetastore(tempDir).delete(age);
+
+            assertEquals(new MetastoreEvent(MetastoreEvent.Kind.DELETED, age, "element"), events.poll(5, TimeUnit.SECONDS));
+            assertTrue(store.readAll(Element.class).isEmpty());
+            assertNull(events.poll(200, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test
+    public void testDurableWrites(@TempDir Path tempDir) throws IOException {
+        for (Durability durability : Durability.values()) {
+            Path folder = tempDir.resolve(durability.name());
+            FileMetastore store = new FileMetastore(folder, null, false, durability);
+            Map<Identifier, Element> objects = new HashMap<>();
+            for (int i = 0; i < 20; i++) {
+                objects.put(new Identifier("element", new String[]{"person", "d" + (i % 3)}, "e" + i), getElement());
+            }
+
+            assertFalse(store.writeAll(objects).isPresent());
+            assertFalse(store.write(new Identifier("element", new String[]{"person", "d0"}, "e0"), getElement()).isPresent());
+
+            assertEquals(20, store.readAll(Element.class).size());
+            try (Stream<Path> files = Files.walk(folder)) {
+                assertTrue(files.noneMatch(path -> path.toString().endsWith(".tmp")));
+            }
+        }
+    }
+
+    @Test
+    public void testReadAllParallel() {
+        List<Element> paged = new ArrayList<>();
+        String token = null;
+        do {
+            Page<Element> page = fileMetastore.readPage(Element.class, 100, token);
+            paged.addAll(page.items());
+            token = page.continuationToken().orElse(null);
+        } while (token != null);
+
+        assertEquals(paged, fileMetastore.readAllParallel(Element.class, true));
+        assertEquals(paged.size(), fileMetastore.readAllParallel(Element.class, false).size());
+        assertEquals(2, fileMetastore.readAllParallel(Element.class, new String[]{"core"}, true, ForkJoinPool.commonPool()).size());
+    }
+
+    @Test
+    public void testStorageEncodings(@TempDir Path folder) throws IOException {
+        FileMetastore json = new FileMetastore(folder, new ObjectMapper());
+        FileMetastore smile = new FileMetastore(folder, new ObjectMapper(), false, Durability.NONE, StorageEncoding.SMILE);
+        Identifier age = new Identifier("element", new String[]{"person"}, "age");
+        Identifier name = new Identifier("element", new String[]{"person"}, "name");
+
+        assertFalse(json.write(age, getElement()).isPresent());
+        assertFalse(smile.write(name, getElement()).isPresent());
+        assertTrue(Files.exists(FileMetastore.resolveForID(folder, name, Element.class, StorageEncoding.SMILE)));
+
+        // Both stores read the files of both encodings
+        assertEquals("Age", json.read(name, Element.class).orElseThrow().getName());
+        assertEquals(2, smile.readAll(Element.class).size());
+        assertEquals(2, json.readAllParallel(Element.class, true).size());
+
+        // Rewriting in another encoding replaces the file
+        assertFalse(smile.write(age, getElement()).isPresent());
+        assertFalse(Files.exists(FileMetastore.resolveForID(folder, age, Element.class)));
+        assertEquals(2, smile.readAll(Element.class).size());
+
+        assertFalse(json.convert(StorageEncoding.CBOR).isPresent());
+        try (Stream<Path> files = Files.walk(folder)) {
+            assertEquals(2, files.filter(path -> path.toString().endsWith(".element.cbor")).count());
+        }
+        assertEquals(2, json.readAll(Element.class).size());
+        assertEquals("Age", smile.read(age, Element.class).orElseThrow().getName());
+
+        assertFalse(json.delete(age).isPresent());
+        assertFalse(json.exists(age, Element.class));
+    }
+
+    @Test
+    public void testCompression(@TempDir Path folder) throws IOException {
+        byte[] dictionary = fileMetastore.trainDictionary(100, 4096);
+        assertTrue(dictionary.length > 0);
+
+        FileMetastore compressed = new FileMetastore(folder, null, false, Durability.NONE, StorageEncoding.JSON,
+                new DeflateCodec(Deflater.BEST_COMPRESSION, dictionary));
+        FileMetastore plain = new FileMetastore(folder);
+        Identifier age = new Identifier("element", new String[]{"person"}, "age");
+        Identifier name = new Identifier("element", new String[]{"person"}, "name");
+        Element element = getElement();
+        element.setName("Age of the person, in years. ".repeat(10));
+
+        assertFalse(compressed.write(age, element).isPresent());
+        byte[] stored = Files.readAllBytes(FileMetastore.resolveForID(folder, age, Element.class));
+        assertEquals(0, stored[0]);
+        assertTrue(stored.length < new ObjectMapper().writeValueAsBytes(element).length);
+        assertEquals(element.getName(), compressed.read(age, Element.class).orElseThrow().getName());
+        assertEquals(1, compressed.readAllParallel(Element.class, true).size());
+
+        // Files compressed with a dictionary need it, uncompressed files and plain deflate are always readable
+        assertFalse(plain.read(age, Element.class).isPresent());
+        assertFalse(plain.write(name, getElement()).isPresent());
+        assertEquals("Age", compressed.read(name, Element.class).orElseThrow().getName());
+        new FileMetastore(folder, null, false, Durability.NONE, StorageEncoding.JSON, new DeflateCodec()).write(age, element);
+        assertEquals(element.getName(), plain.read(age, Element.class).orElseThrow().getName());
+    }
+
+    @Test
+    public void testWriteKeepsDefaultPermissions(@TempDir Path folder) throws IOException {
+        assumeTrue(folder.getFileSystem().supportedFileAttributeViews().contains("posix"));
+        Identifier age = new Identifier("element", new String[]{"person"}, "age");
+
+        // Written files get the same permissions as any new file, not the owner-only ones of temporary files
+        assertFalse(new FileMetastore(folder, null, false, Durability.FSYNC).write(age, getElement()).isPresent());
+        Path created = Files.createFile(folder.resolve("created"));
+        assertEquals(Files.getPosixFilePermissions(created),
+                Files.getPosixFilePermissions(FileMetastore.resolveForID(folder, age, Element.class)));
+    }
+
+    @Test
+    public void testFanOut(@TempDir Path folder) throws IOException {
+        FileMetastore flat = new FileMetastore(folder);
+        FileMetastore sharded = new FileMetastore(folder, null, false, Durability.NONE, StorageEncoding.JSON, null, 2);
+        Identifier age = new Identifier("element", new String[]{"person"}, "age");
+        Identifier name = new Identifier("element", new String[]{"person"}, "name");
+        Identifier title = new Identifier("element", new String[]{"book"}, "title");
+        assertFalse(flat.writeAll(Map.of(age, getElement(), name, getElement(), title, getElement())).isPresent());
+
+        // A sharded store reads the flat layout and moves objects as they are written
+        assertTrue(sharded.read(age, Element.class).isPresent());
+        assertFalse(sharded.write(age, getElement()).isPresent());
+        Path shardedAge = FileMetastore.resolveForID(folder, age, Element.class, StorageEncoding.JSON, 2);
+        assertTrue(Files.exists(shardedAge));
+        assertEquals(3, shardedAge.getNameCount() - folder.getNameCount() - 1);
+        assertFalse(Files.exists(FileMetastore.resolveForID(folder, age, Element.class)));
+        assertEquals(Optional.of(age), FileMetastore.resolveIdentifier(folder, shardedAge));
+        assertEquals(3, sharded.readAll(Element.class).size());
+
+        assertFalse(sharded.reshard().isPresent());
+        assertTrue(Files.exists(FileMetastore.resolveForID(folder, title, Element.class, StorageEncoding.JSON, 2)));
+
+        // A store opened without a fan-out follows the one recorded by reshard
+        FileMetastore reopened = new FileMetastore(folder);
+        assertTrue(reopened.exists(title, Element.class));
+        assertFalse(reopened.write(title, getElement()).isPresent());
+        assertFalse(Files.exists(FileMetastore.resolveForID(folder, title, Element.class)));
+        assertEquals(2, sharded.readAll(Element.class, new String[]{"person"}).size());
+        assertFalse(sharded.delete(name).isPresent());
+        assertEquals(2, sharded.readAll(Element.class).size());
+
+        assertFalse(flat.reshard().isPresent());
+        assertTrue(Files.exists(FileMetastore.resolveForID(folder, title, Element.class)));
+        try (Stream<Path> files = Files.walk(folder)) {
+            assertTrue(files.noneMatch(path -> path.getFileName().toString().startsWith(FileMetastore.SHARD_PREFIX)));
+        }
+    }
+
+    @Test
+    public void testReadAllWithDomainPrefix() {
+        List<Element> core = fileMetastore.readAll(Element.class, new String[]{"core"});
+
+        assertEquals(2, core.size());
+        assertTrue(fileMetastore.readAll(Element.class, new String[]{"pers"}).isEmpty());
+        assertEquals(fileMetastore.readAll(Element.class).size(), fileMetastore.readAll(Element.class, new String[0]).size());
+        assertThrows(IllegalArgumentException.class, () -> fileMetastore.readAll(Element.class, new String[]{".."}));
+    }
+
+    @Test
+    public void testListIds() {
+        List<Identifier> core = fileMetastore.listIds(Element.class, new String[]{"core"}).orElseThrow();
+
+        assertEquals(2, core.size());
+        assertEquals(fileMetastore.readAll(Element.class, new String[]{"core"}), List.copyOf(fileMetastore.readMany(core, Element.class).values()));
+        assertEquals(fileMetastore.readAll(Element.class).size(), fileMetastore.listIds(Element.class, new String[0]).orElseThrow().size());
+    }
+
+    @Test
+    public void testExistsAndStat() throws IOException {
+        Identifier age = new Identifier("element", new String[]{"person"}, "age");
+        Identifier missing = new Identifier("element", new String[]{"person"}, "missing");
+        Path file = FileMetastore.resolveForID(baseDir, age, Element.class);
+
+        assertTrue(fileMetastore.exists(age, Element.class));
+        assertFalse(fileMetastore.exists(missing, Element.class));
+
+        ObjectStat stat = fileMetastore.stat(age, Element.class).orElseThrow();
+        assertEquals(Files.size(file), stat.size());
+        assertEquals(Files.getLastModifiedTime(file).toInstant(), stat.lastModified().orElseThrow());
+        assertTrue(fileMetastore.stat(missing, Element.class).isEmpty());
+    }
+
     public Element getElement() {
         Element element = new Element();
         element.setId("element:person:age");
@@ -2,8 +2,15 @@ package datathread.metastore;
 import datathread.Identifier;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import datathread.grammar.Element;
 import org.mockito.Mock;
@@ -37,4 +44,42 @@ public class FileStoreTest {
         assertEquals(expected, actual);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testReadAllParallel() throws IOException {
+        Path folder = Paths.get("example", "metastore", "automated");
+        FileStore store = new FileStore(folder);
+
+        // Read sequentially: the files of a folder in name order, then its sub-folders in name order
+        List<String> sequential = new ArrayList<>();
+        for (Path file : inTraversalOrder(folder)) {
+            FileStore.loadFromFile(file, Element.class).ifPresent(element -> sequential.add(element.getId()));
+        }
+        List<String> parallel = store.readAllParallel(Element.class, true).stream()
+                .map(Element::getId)
+                .collect(Collectors.toList());
+
+        assertFalse(sequential.isEmpty());
+        assertEquals(sequential, parallel);
+        assertEquals(store.readAll(Element.class).size(), store.readAllParallel(Element.class, false).size());
+    }
+
+    private static List<Path> inTraversalOrder(Path folder) throws IOException {
+        List<Path> children;
+        try (Stream<Path> listing = Files.list(folder)) {
+            children = listing.sorted(Comparator.comparing(path -> path.getFileName().toString())).collect(Collectors.toList());
+        }
+
+        List<Path> files = new ArrayList<>();
+        for (Path child : children) {
+            if (!Files.isDirectory(child) && child.getFileName().toString().endsWith(".element.json")) {
+                files.add(child);
+            }
+        }
+        for (Path child : children) {
+            if (Files.isDirectory(child)) {
+                files.addAll(inTraversalOrder(child));
+            }
+        }
+        return files;
+    }
+}
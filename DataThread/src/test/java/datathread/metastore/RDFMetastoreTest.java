@@ -13,7 +13,9 @@ import org.junit.jupiter.api.Test;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -64,6 +66,93 @@ public class RDFMetastoreTest {
         // TODO: Add more assertions
     }
 
+    @Test
+    public void testReadMany() {
+        RDFMetastore metastore = new RDFMetastore(repository, new ObjectMapper());
+        Identifier id1 = new Identifier("element", new String[] {"tests"}, "one");
+        Identifier id2 = new Identifier("element", new String[] {"tests"}, "two");
+        Identifier missing = new Identifier("element", new String[] {"tests"}, "missing");
+
+        metastore.write(id1, Map.of("name", "one"));
+        metastore.write(id2, Map.of("name", "two"));
+
+        Map<Identifier, Map> result = metastore.readMany(List.of(id2, missing, id1), Map.class);
+
+        assertEquals(List.of(id2, id1), List.copyOf(result.keySet()));
+        assertEquals("one", result.get(id1).get("name"));
+        assertEquals("two", result.get(id2).get("name"));
+    }
+
+    @Test
+    public void testReadPage() {
+        RDFMetastore metastore = new RDFMetastore(repository, new ObjectMapper());
+        for (String name : new String[]{"c", "a", "e", "b", "d"}) {
+            Element element = new Element();
+            element.setName(name);
+            metastore.write(new Identifier("element", new String[] {"tests"}, name), element);
+        }
+
+        Page<Element> first = metastore.readPage(Element.class, 2, null);
+        Page<Element> second = metastore.readPage(Element.class, 2, first.continuationToken().orElseThrow());
+        Page<Element> last = metastore.readPage(Element.class, 2, second.continuationToken().orElseThrow());
+
+        assertEquals(List.of("a", "b"), first.items().stream().map(Element::getName).collect(Collectors.toList()));
+        assertEquals(List.of("c", "d"), second.items().stream().map(Element::getName).collect(Collectors.toList()));
+        assertEquals(List.of("e"), last.items().stream().map(Element::getName).collect(Collectors.toList()));
+        assertFalse(last.hasNext());
+    }
+
+    @Test
+    public void testWriteAllAndDeleteAll() {
+        RDFMetastore metastore = new RDFMetastore(repository, new ObjectMapper());
+        Identifier id1 = new Identifier("element", new String[] {"tests"}, "one");
+        Identifier id2 = new Identifier("element", new String[] {"tests"}, "two");
+        Element element = new Element();
+        element.setName("one");
+
+        metastore.writeAll(Map.of(id1, element, id2, element));
+        assertEquals(2, metastore.readMany(List.of(id1, id2), Element.class).size());
+        assertEquals(2, metastore.readAll(Element.class).size());
+
+        metastore.deleteAll(List.of(id1, id2));
+        assertTrue(metastore.readMany(List.of(id1, id2), Element.class).isEmpty());
+    }
+
+    @Test
+    public void testReadAllWithDomainPrefix() {
+        RDFMetastore metastore = new RDFMetastore(repository, new ObjectMapper());
+        Element element = new Element();
+        element.setName("element");
+
+        metastore.write(new Identifier("element", new String[] {"person"}, "age"), element);
+        metastore.write(new Identifier("element", new String[] {"person", "address"}, "city"), element);
+        metastore.write(new Identifier("element", new String[] {"personnel"}, "grade"), element);
+
+        assertEquals(2, metastore.readAll(Element.class, new String[] {"person"}).size());
+        assertEquals(1, metastore.readAll(Element.class, new String[] {"person", "address"}).size());
+        assertEquals(3, metastore.readAll(Element.class, new String[0]).size());
+    }
+
+    @Test
+    public void testExistsAndStat() {
+        RDFMetastore metastore = new RDFMetastore(repository, new ObjectMapper());
+        Identifier id = new Identifier("element", new String[] {"tests"}, "one");
+        Identifier missing = new Identifier("element", new String[] {"tests"}, "missing");
+        Element element = new Element();
+        element.setName("one");
+
+        metastore.write(id, element);
+
+        assertTrue(metastore.exists(id, Element.class));
+        assertFalse(metastore.exists(missing, Element.class));
+        assertFalse(metastore.exists(id, ElementType.class));
+
+        ObjectStat stat = metastore.stat(id, Element.class).orElseThrow();
+        assertEquals("{\"name\":\"one\"}".length(), stat.size());
+        assertEquals(64, stat.version().length());
+        assertTrue(metastore.stat(missing, Element.class).isEmpty());
+    }
+
     @Test
     public void testWrite() throws Exception {
         Identifier id = new Identifier("element", new String[] {"tests"}, "test-id");
@@ -86,6 +86,27 @@ public class RouterTest {
         verify(metastore).write(id,getElementInfo());
     }
 
+    @Test
+    public void testWriteAll() {
+        Metastore elementStore = org.mockito.Mockito.mock(Metastore.class);
+        Metastore infoStore = org.mockito.Mockito.mock(Metastore.class);
+        Router typedRouter = new Router(Map.of(Element.class, elementStore, ElementInfo.class, infoStore));
+        Identifier id1 = new Identifier("element", new String[]{"person"}, "age");
+        Identifier id2 = new Identifier("element", new String[]{"person"}, "name");
+
+        Map<Identifier, Object> batch = new LinkedHashMap<>();
+        batch.put(id1, getElement());
+        batch.put(id2, getElementInfo());
+        when(elementStore.writeAll(Map.of(id1, getElement()))).thenReturn(Optional.empty());
+        when(infoStore.writeAll(Map.of(id2, getElementInfo()))).thenReturn(Optional.empty());
+
+        Optional<String> result = typedRouter.writeAll(batch);
+
+        assertFalse(result.isPresent());
+        verify(elementStore).writeAll(Map.of(id1, getElement()));
+        verify(infoStore).writeAll(Map.of(id2, getElementInfo()));
+    }
+
 //    @Test
 //    public void testWrite() {
 //        Identifier id = new Identifier("scheme", new String[]{"domain"}, "name");
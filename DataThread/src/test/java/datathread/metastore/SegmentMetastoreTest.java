@@ -0,0 +1,157 @@
+package datathread.metastore;
+
+import datathread.Identifier;
+import datathread.grammar.Element;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SegmentMetastoreTest {
+
+    private final Identifier age = new Identifier("element", new String[]{"person"}, "age");
+    private final Identifier name = new Identifier("element", new String[]{"person", "details"}, "name");
+
+    @Test
+    public void testWriteReadAndDelete(@TempDir Path tempDir) throws IOException {
+        try (SegmentMetastore store = new SegmentMetastore(tempDir)) {
+            assertFalse(store.writeAll(Map.of(age, getElement("Age"), name, getElement("Name"))).isPresent());
+            assertFalse(store.write(age, getElement("Age2")).isPresent());
+
+            assertEquals("Age2", store.read(age, Element.class).get().getName());
+            assertEquals(2, store.readAll(Element.class).size());
+            assertEquals(1, store.readAll(Element.class, new String[]{"person", "details"}).size());
+            assertTrue(store.exists(name, Element.class));
+
+            assertFalse(store.delete(age).isPresent());
+            assertFalse(store.read(age, Element.class).isPresent());
+            assertTrue(store.delete(age).isPresent());
+        }
+    }
+
+    @Test
+    public void testReopenAndCompact(@TempDir Path tempDir) throws IOException {
+        // A small segment size makes every record seal a segment
+        try (SegmentMetastore store = new SegmentMetastore(tempDir, null, 64)) {
+            store.write(age, getElement("Age"));
+            store.write(age, getElement("Age2"));
+            store.write(name, getElement("Name"));
+            store.delete(name);
+        }
+
+        try (SegmentMetastore store = new SegmentMetastore(tempDir, null, 64)) {
+            assertEquals("Age2", store.read(age, Element.class).get().getName());
+            assertFalse(store.read(name, Element.class).isPresent());
+            assertTrue(store.garbageRatio() > 0.5);
+
+            assertFalse(store.compact().isPresent());
+            assertEquals(0.0, store.garbageRatio());
+            assertEquals("Age2", store.read(age, Element.class).get().getName());
+        }
+
+        try (SegmentMetastore store = new SegmentMetastore(tempDir, null, 64)) {
+            assertEquals(List.of("Age2"), store.readAll(Element.class).stream().map(Element::getName).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void testCheckpointAndBackgroundCompaction(@TempDir Path tempDir) throws IOException, InterruptedException {
+        try (SegmentMetastore store = new SegmentMetastore(tempDir, null, 256)) {
+            store.write(age, getElement("Age"));
+            assertFalse(store.checkpoint().isPresent());
+            store.write(name, getElement("Name"));
+        }
+
+        // Records appended after the checkpoint are replayed
+        try (SegmentMetastore store = new SegmentMetastore(tempDir, null, 256)) {
+            assertEquals("Age", store.read(age, Element.class).get().getName());
+            assertEquals("Name", store.read(name, Element.class).get().getName());
+
+            store.startCompactor(Duration.ofMillis(10), 0.5);
+            for (int i = 0; i < 20; i++) {
+                store.write(age, getElement("Age" + i));
+            }
+
+            for (int i = 0; i < 500 && store.garbageRatio() > 0.5; i++) {
+                Thread.sleep(10);
+            }
+            assertTrue(store.garbageRatio() <= 0.5);
+            assertEquals("Age19", store.read(age, Element.class).get().getName());
+        }
+
+        try (SegmentMetastore store = new SegmentMetastore(tempDir, null, 256)) {
+            assertEquals("Age19", store.read(age, Element.class).get().getName());
+            assertEquals("Name", store.read(name, Element.class).get().getName());
+        }
+    }
+
+    @Test
+    public void testCompressedValues(@TempDir Path tempDir) throws IOException {
+        Path segments = tempDir.resolve("segments");
+        Element element = getElement("Name of the person, as registered. ".repeat(10));
+
+        try (SegmentMetastore store = new SegmentMetastore(segments, null, SegmentMetastore.DEFAULT_SEGMENT_SIZE, new DeflateCodec())) {
+            assertFalse(store.write(name, element).isPresent());
+            assertEquals(element.getName(), store.read(name, Element.class).get().getName());
+            assertFalse(store.exportTo(tempDir.resolve("files")).isPresent());
+        }
+
+        // Exported values keep their compression header
+        assertEquals(element.getName(), new FileMetastore(tempDir.resolve("files")).read(name, Element.class).get().getName());
+    }
+
+    @Test
+    public void testTornRecordIsTruncated(@TempDir Path tempDir) throws IOException {
+        try (SegmentMetastore store = new SegmentMetastore(tempDir)) {
+            store.write(age, getElement("Age"));
+            store.write(name, getElement("Name"));
+        }
+
+        Path segment = tempDir.resolve("segment-000001.seg");
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        try (SegmentMetastore store = new SegmentMetastore(tempDir)) {
+            assertTrue(store.read(age, Element.class).isPresent());
+            assertFalse(store.read(name, Element.class).isPresent());
+
+            store.write(name, getElement("Name"));
+            assertEquals("Name", store.read(name, Element.class).get().getName());
+        }
+    }
+
+    @Test
+    public void testImportAndExport(@TempDir Path tempDir) throws IOException {
+        FileMetastore source = new FileMetastore(Paths.get("example", "metastore", "automated"));
+        Path exported = tempDir.resolve("exported");
+
+        try (SegmentMetastore store = new SegmentMetastore(tempDir.resolve("segments"))) {
+            assertFalse(store.importFrom(source.baseDir).isPresent());
+            assertEquals(source.readAll(Element.class).size(), store.readAll(Element.class).size());
+
+            assertFalse(store.exportTo(exported).isPresent());
+        }
+
+        assertEquals(source.readAll(Element.class).size(), new FileMetastore(exported).readAll(Element.class).size());
+    }
+
+    private Element getElement(String elementName) {
+        Element element = new Element();
+        element.setId("element:person:age");
+        element.setName(elementName);
+        return element;
+    }
+}
@@ -0,0 +1,153 @@
+package datathread.metastore;
+
+import datathread.Identifier;
+import datathread.grammar.Dataset;
+import datathread.grammar.Element;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class VersionedMetastoreTest {
+
+    private final Identifier age = new Identifier("element", new String[]{"person"}, "age");
+    private final Identifier name = new Identifier("element", new String[]{"person", "details"}, "name");
+    private final Identifier people = new Identifier("dataset", new String[]{"person"}, "people");
+
+    @Test
+    public void testSnapshotsAndHistory(@TempDir Path tempDir) throws IOException {
+        try (VersionedMetastore store = new VersionedMetastore(tempDir)) {
+            assertFalse(store.writeAll(Map.of(age, getElement("Age"), name, getElement("Name"))).isPresent());
+            VersionedMetastore.Snapshot snapshot = store.snapshot();
+
+            assertFalse(store.write(age, getElement("Age2")).isPresent());
+            assertFalse(store.delete(name).isPresent());
+
+            // The snapshot still sees the first commit, in full
+            assertEquals(1, snapshot.revision());
+            assertEquals("Age", snapshot.read(age, Element.class).get().getName());
+            assertEquals(2, snapshot.readAll(Element.class).size());
+            assertTrue(snapshot.write(age, getElement("Age3")).isPresent());
+
+            assertEquals("Age2", store.read(age, Element.class).get().getName());
+            assertEquals(1, store.readAll(Element.class).size());
+            assertFalse(store.exists(name, Element.class));
+            assertEquals("Name", store.read(name, Element.class, 2).get().getName());
+            assertEquals(List.of(1L, 2L), store.revisions(age, Element.class));
+            assertEquals("2", store.stat(age, Element.class).get().version);
+        }
+
+        try (VersionedMetastore store = new VersionedMetastore(tempDir)) {
+            assertEquals(3, store.revision());
+            assertEquals("Age", store.read(age, Element.class, 1).get().getName());
+            assertEquals("Age2", store.read(age, Element.class).get().getName());
+        }
+    }
+
+    @Test
+    public void testDatasetVersionsAndTornCommit(@TempDir Path tempDir) throws IOException {
+        try (VersionedMetastore store = new VersionedMetastore(tempDir)) {
+            store.write(people, getDataset("1.0", "People"));
+            store.write(people, getDataset("2.0", "People v2"));
+            store.write(people, getDataset("3.0", "People v3"));
+
+            assertEquals("People v2", store.read(people, Dataset.class, "2.0").get().getName());
+            assertFalse(store.read(people, Dataset.class, "4.0").isPresent());
+        }
+
+        try (FileChannel channel = FileChannel.open(tempDir.resolve("revisions.log"), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        // The torn commit is dropped whole, and the next commit reuses its revision
+        try (VersionedMetastore store = new VersionedMetastore(tempDir)) {
+            assertEquals(2, store.revision());
+            assertEquals("People v2", store.read(people, Dataset.class).get().getName());
+
+            store.write(people, getDataset("3.1", "People v3.1"));
+            assertEquals(3, store.revision());
+            assertEquals("People v3.1", store.read(people, Dataset.class, "3.1").get().getName());
+        }
+    }
+
+    @Test
+    public void testReadOtherTypesAtDatasetVersion(@TempDir Path tempDir) throws IOException {
+        try (VersionedMetastore store = new VersionedMetastore(tempDir)) {
+            store.writeAll(Map.of(people, getDataset("1.0", "People"), age, getElement("Age")));
+            store.write(age, getElement("Age2"));
+            store.write(people, getDataset("2.0", "People v2"));
+            store.write(age, getElement("Age3"));
+
+            assertEquals(3L, store.revisionOf("2.0").get());
+            assertEquals("Age", store.read(age, Element.class, "1.0").get().getName());
+            assertEquals("Age2", store.read(age, Element.class, "2.0").get().getName());
+            assertFalse(store.read(name, Element.class, "2.0").isPresent());
+        }
+    }
+
+    @Test
+    public void testPrune(@TempDir Path tempDir) throws IOException {
+        long sizeBeforePrune;
+        try (VersionedMetastore store = new VersionedMetastore(tempDir)) {
+            store.writeAll(Map.of(age, getElement("Age"), name, getElement("Name"), people, getDataset("1.0", "People")));
+            store.write(age, getElement("Age2"));
+            store.delete(name);
+            store.write(age, getElement("Age3"));
+
+            assertFalse(store.prune(3).isPresent());
+
+            // Everything visible from revision 3 on is kept, the rest is gone
+            assertEquals(List.of(2L, 4L), store.revisions(age, Element.class));
+            assertEquals("Age2", store.read(age, Element.class, 3).get().getName());
+            assertEquals("People", store.read(people, Dataset.class, 3).get().getName());
+            assertFalse(store.read(age, Element.class, 1).isPresent());
+            assertFalse(store.read(age, Element.class, "1.0").isPresent());
+            assertTrue(store.revisions(name, Element.class).isEmpty());
+            assertThrows(IllegalArgumentException.class, () -> store.snapshot(2));
+            sizeBeforePrune = Files.size(tempDir.resolve("revisions.log"));
+        }
+
+        // The log is rewritten without the pruned values when the store is opened again
+        try (VersionedMetastore store = new VersionedMetastore(tempDir)) {
+            assertTrue(Files.size(tempDir.resolve("revisions.log")) < sizeBeforePrune);
+            assertEquals(5, store.revision());
+            assertEquals(List.of(2L, 4L), store.revisions(age, Element.class));
+            assertEquals("Age3", store.read(age, Element.class).get().getName());
+            assertEquals("People", store.read(people, Dataset.class).get().getName());
+            assertFalse(store.read(age, Element.class, 1).isPresent());
+
+            store.write(age, getElement("Age4"));
+            assertEquals(6, store.revision());
+        }
+
+        try (VersionedMetastore store = new VersionedMetastore(tempDir)) {
+            assertEquals("Age4", store.read(age, Element.class).get().getName());
+            assertThrows(IllegalArgumentException.class, () -> store.snapshot(2));
+        }
+    }
+
+    private Element getElement(String elementName) {
+        Element element = new Element();
+        element.setId("element:person:age");
+        element.setName(elementName);
+        return element;
+    }
+
+    private Dataset getDataset(String version, String datasetName) {
+        Dataset dataset = new Dataset();
+        dataset.setName(datasetName);
+        dataset.setVersion(version);
+        return dataset;
+    }
+}